@@ -24,12 +24,23 @@
 package opendial;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import opendial.bn.BNetwork;
 import opendial.bn.distribs.CategoricalTable;
@@ -54,6 +65,7 @@ import opendial.domains.rules.distribs.OutputDistribution;
 import opendial.inference.SwitchingAlgorithm;
 import opendial.inference.approximate.SamplingAlgorithm;
 import opendial.modules.StatePruner;
+import opendial.utils.RandomUtils;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -86,6 +98,36 @@ public class DialogueState extends BNetwork {
 	/** Subset of variables that are currently incrementally constructed */
 	Set<String> incrementalVars;
 
+	// inference algorithm (reused across queries, to benefit from cached trees)
+	final SwitchingAlgorithm inference = new SwitchingAlgorithm();
+
+	// highest node version at the end of the last pruning (-1 if never pruned)
+	long prunedVersion = -1;
+
+	/** Maximum number of inference results cached in the dialogue state */
+	public static int MAX_CACHED_QUERIES = 200;
+
+	// cache of inference results, mapping each query (type, variables and
+	// evidence) to its result and to the nodes and versions of its cliques
+	final Map<String, CachedResult> queryCache =
+			Collections.synchronizedMap(new LinkedHashMap<String, CachedResult>(
+					MAX_CACHED_QUERIES, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, CachedResult> eldest) {
+					return size() > MAX_CACHED_QUERIES;
+				}
+			});
+
+	// number of hits and misses in the query cache
+	final AtomicLong cacheHits = new AtomicLong();
+	final AtomicLong cacheMisses = new AtomicLong();
+
+	// fingerprint of the nodes, with the network version for which it was computed
+	volatile CachedFingerprint nodesFingerprint;
+
 	// ===================================
 	// DIALOGUE STATE CONSTRUCTION
 	// ===================================
@@ -155,6 +197,7 @@ public class DialogueState extends BNetwork {
 		if (network instanceof DialogueState) {
 			evidence.addAssignment(((DialogueState) network).getEvidence());
 		}
+		prunedVersion = -1;
 	}
 
 	/**
@@ -329,14 +372,85 @@ public class DialogueState extends BNetwork {
 	public void applyRule(Rule r) {
 
 		AnchoredRule arule = new AnchoredRule(r, this);
-		if (arule.isRelevant()) {
-			switch (r.getRuleType()) {
-			case PROB:
-				addProbabilityRule(arule);
-				break;
-			case UTIL:
-				addUtilityRule(arule);
-				break;
+		addAnchoredRule(arule);
+	}
+
+	/**
+	 * Applies a collection of rules to the current dialogue state, in two phases.
+	 * The rules are first anchored in parallel in the current state (which is not
+	 * modified during this phase). The anchored rules are then inserted in the
+	 * state one by one, in the order of the collection. If the insertion of a rule
+	 * creates or replaces a node that matches the input variables (or parameters)
+	 * of a subsequent rule, this rule is anchored again before its insertion, such
+	 * that the result is identical to the successive application of each rule. Each
+	 * rule is anchored with its own random generator, split beforehand in the order
+	 * of the collection, such that the result is reproducible once a seed is set.
+	 * 
+	 * <p>
+	 * Rules that cannot be applied are skipped (with a warning).
+	 * 
+	 * @param rules the rules to apply
+	 */
+	public void applyRules(Collection<Rule> rules) {
+
+		List<Rule> ruleList = new ArrayList<Rule>(rules);
+
+		// the values of the input nodes are computed beforehand, so that the
+		// anchoring only performs read operations on the state
+		for (Rule r : ruleList) {
+			getMatchingNodes(r.getInputVariables()).forEach(n -> n.getValues());
+		}
+
+		// one generator is split for each rule (in the order of the collection),
+		// such that the anchoring does not depend on the executing threads
+		List<SplittableRandom> randoms = new ArrayList<SplittableRandom>();
+		for (int i = 0; i < ruleList.size(); i++) {
+			randoms.add(RandomUtils.split());
+		}
+
+		List<AnchoredRule> arules =
+				IntStream.range(0, ruleList.size()).parallel().mapToObj(i -> {
+					Rule r = ruleList.get(i);
+					try {
+						return RandomUtils.withRandom(randoms.get(i),
+								() -> new AnchoredRule(r, this));
+					}
+					catch (RuntimeException e) {
+						log.warning("rule " + r.getRuleId()
+								+ " could not be applied: " + e.toString());
+						return null;
+					}
+				}).collect(Collectors.toList());
+
+		// the (unprimed) chance nodes that have been modified since the anchoring
+		Set<String> changedNodes = new HashSet<String>();
+
+		for (int i = 0; i < ruleList.size(); i++) {
+			Rule r = ruleList.get(i);
+			AnchoredRule arule = arules.get(i);
+			try {
+				if (isAffected(r, changedNodes)) {
+					arule = RandomUtils.withRandom(randoms.get(i),
+							() -> new AnchoredRule(r, this));
+				}
+				else if (arule == null) {
+					continue;
+				}
+				Set<String> previousNodes = new HashSet<String>(getChanceNodeIds());
+				addAnchoredRule(arule);
+				if (arule.isRelevant()) {
+					changedNodes.add(r.getRuleId());
+				}
+				Set<String> addedNodes = new HashSet<String>(getChanceNodeIds());
+				addedNodes.removeAll(previousNodes);
+				previousNodes.removeAll(getChanceNodeIds());
+				changedNodes.addAll(addedNodes);
+				changedNodes.addAll(previousNodes);
+				changedNodes.removeIf(n -> n.endsWith("'"));
+			}
+			catch (RuntimeException e) {
+				log.warning("rule " + r.getRuleId() + " could not be applied: "
+						+ e.toString());
 			}
 		}
 	}
@@ -391,18 +505,21 @@ public class DialogueState extends BNetwork {
 			ChanceNode cn = getChanceNode(variable);
 
 			// if the distribution can be retrieved without inference, we simply
-			// return it
+			// return a copy of it (as the distribution may be shared with copies
+			// of the state)
 			if (cn.getDistrib() instanceof IndependentDistribution && Collections
 					.disjoint(cn.getClique(), evidence.getVariables())) {
-				return (IndependentDistribution) cn.getDistrib();
+				return ((IndependentDistribution) cn.getDistrib()).copy();
 			}
 
 			else {
 				try {
 					Assignment queryEvidence =
 							(includeEvidence) ? evidence : new Assignment();
-					return new SwitchingAlgorithm().queryProb(this, variable,
-							queryEvidence);
+					return getCachedResult("P", Arrays.asList(variable),
+							queryEvidence,
+							() -> inference.queryProb(this, variable, queryEvidence),
+							d -> d.copy());
 				}
 				catch (RuntimeException e) {
 					log.warning("Error querying variable " + variable + " : " + e);
@@ -432,7 +549,9 @@ public class DialogueState extends BNetwork {
 		}
 		// else, perform the inference operation
 		try {
-			return new SwitchingAlgorithm().queryProb(this, variables, evidence);
+			return getCachedResult("P", variables, evidence,
+					() -> inference.queryProb(this, variables, evidence),
+					d -> d.copy());
 		}
 
 		// if everything fails, returns an empty table
@@ -443,6 +562,66 @@ public class DialogueState extends BNetwork {
 		}
 	}
 
+	/**
+	 * Returns the marginal probability distributions of the state variables
+	 * provided as argument. The marginals that cannot be retrieved without inference
+	 * are computed together, in a single inference operation, and are also stored
+	 * in the cache of inference results (for subsequent queries on each variable).
+	 * 
+	 * @param variables the variable labels to query
+	 * @return the marginal distribution for each variable
+	 */
+	public Map<String, IndependentDistribution> queryMarginals(
+			Collection<String> variables) {
+
+		Map<String, IndependentDistribution> marginals =
+				new HashMap<String, IndependentDistribution>();
+		List<String> queryVars = new ArrayList<String>();
+		for (String variable : variables) {
+			if (!hasChanceNode(variable)) {
+				log.warning("Variable " + variable
+						+ " not included in the dialogue state");
+				marginals.put(variable,
+						new SingleValueDistribution(variable, ValueFactory.none()));
+			}
+
+			// if the distribution can be retrieved without inference, we simply
+			// return it (as in queryProb)
+			else if (getChanceNode(variable)
+					.getDistrib() instanceof IndependentDistribution
+					&& Collections.disjoint(getChanceNode(variable).getClique(),
+							evidence.getVariables())) {
+				marginals.put(variable, ((IndependentDistribution) getChanceNode(
+						variable).getDistrib()).copy());
+			}
+			else {
+				queryVars.add(variable);
+			}
+		}
+		if (queryVars.isEmpty()) {
+			return marginals;
+		}
+
+		try {
+			Map<String, IndependentDistribution> inferred =
+					inference.queryMarginals(this, queryVars, evidence);
+			for (String variable : queryVars) {
+				IndependentDistribution marginal = inferred.get(variable);
+				storeCachedResult("P", Arrays.asList(variable), evidence,
+						marginal.copy());
+				marginals.put(variable, marginal);
+			}
+		}
+		catch (RuntimeException e) {
+			log.warning("cannot perform inference: " + e);
+			for (String variable : queryVars) {
+				marginals.put(variable,
+						new SingleValueDistribution(variable, ValueFactory.none()));
+			}
+		}
+		return marginals;
+	}
+
 	/**
 	 * Returns the utility table associated with a particular set of (state or
 	 * action) variables.
@@ -452,7 +631,9 @@ public class DialogueState extends BNetwork {
 	 */
 	public UtilityTable queryUtil(Collection<String> variables) {
 		try {
-			return new SwitchingAlgorithm().queryUtil(this, variables, evidence);
+			return getCachedResult("U", variables, evidence,
+					() -> inference.queryUtil(this, variables, evidence),
+					u -> u.copy());
 		}
 		catch (Exception e) {
 			log.warning("cannot perform inference: " + e);
@@ -477,6 +658,24 @@ public class DialogueState extends BNetwork {
 
 	}
 
+	/**
+	 * Returns the number of queries answered from the cache of inference results.
+	 * 
+	 * @return the number of cache hits
+	 */
+	public long getQueryCacheHits() {
+		return cacheHits.get();
+	}
+
+	/**
+	 * Returns the number of queries that required a new inference.
+	 * 
+	 * @return the number of cache misses
+	 */
+	public long getQueryCacheMisses() {
+		return cacheMisses.get();
+	}
+
 	/**
 	 * Returns the chance nodes whose variable labels match the provided templates.
 	 * 
@@ -504,6 +703,26 @@ public class DialogueState extends BNetwork {
 		return parameterVars;
 	}
 
+	/**
+	 * Returns the highest node version in the dialogue state at the end of the last
+	 * pruning operation, or -1 if the state has not been pruned since its last
+	 * reset. Nodes with a higher version have been created or modified after the
+	 * pruning.
+	 * 
+	 * @return the version stamp of the last pruning
+	 */
+	public long getPrunedVersion() {
+		return prunedVersion;
+	}
+
+	/**
+	 * Marks all the nodes currently in the dialogue state as pruned.
+	 */
+	public void setAsPruned() {
+		prunedVersion = getNodes().stream().mapToLong(n -> n.getVersion()).max()
+				.orElse(-1);
+	}
+
 	/**
 	 * Returns a sample of all the variables in the dialogue state
 	 * 
@@ -564,6 +783,50 @@ public class DialogueState extends BNetwork {
 		return incrementalVars;
 	}
 
+	/**
+	 * Returns a canonical fingerprint of the dialogue state. The fingerprint lists
+	 * every node (sorted by identifier) with its type, input nodes and
+	 * distribution (or utility function, or set of values for action nodes),
+	 * followed by the evidence on these nodes (evidence left over from pruned nodes
+	 * is ignored). Two states with identical fingerprints have the same structure
+	 * and distributions. The description of the nodes is only recomputed when the
+	 * network is modified.
+	 * 
+	 * @return the fingerprint of the state
+	 */
+	public String getFingerprint() {
+		CachedFingerprint cached = nodesFingerprint;
+		long version = getVersion();
+		if (cached == null || cached.version != version) {
+			StringBuilder builder = new StringBuilder();
+			List<String> nodeIds = new ArrayList<String>(getNodeIds());
+			Collections.sort(nodeIds);
+			for (String nodeId : nodeIds) {
+				BNode node = getNode(nodeId);
+				List<String> inputIds =
+						new ArrayList<String>(node.getInputNodeIds());
+				Collections.sort(inputIds);
+				builder.append(nodeId + "|" + node.getClass().getSimpleName() + "|"
+						+ inputIds + "|");
+				if (node instanceof ChanceNode) {
+					builder.append(((ChanceNode) node).getDistrib());
+				}
+				else if (node instanceof UtilityNode) {
+					builder.append(((UtilityNode) node).getFunction());
+				}
+				else if (node instanceof ActionNode) {
+					builder.append(((ActionNode) node).getValues().stream()
+							.map(v -> v.toString()).sorted()
+							.collect(Collectors.toList()));
+				}
+				builder.append("\n");
+			}
+			cached = new CachedFingerprint(version, builder.toString(), nodeIds);
+			nodesFingerprint = cached;
+		}
+		return cached.nodes + evidence.getTrimmed(cached.nodeIds);
+	}
+
 	// ===================================
 	// UTILITY FUNCTIONS
 	// ===================================
@@ -633,12 +896,12 @@ public class DialogueState extends BNetwork {
 	public Element generateXML(Document doc, Collection<String> varsToRecord) {
 
 		Element root = doc.createElement("state");
-		for (String nodeId : varsToRecord) {
-			if (getChanceNodeIds().contains(nodeId)) {
-				IndependentDistribution distrib = queryProb(nodeId);
-				Node var = distrib.generateXML(doc);
-				root.appendChild(var);
-			}
+		List<String> recorded = varsToRecord.stream()
+				.filter(v -> hasChanceNode(v)).collect(Collectors.toList());
+		Map<String, IndependentDistribution> marginals = queryMarginals(recorded);
+		for (String nodeId : recorded) {
+			Node var = marginals.get(nodeId).generateXML(doc);
+			root.appendChild(var);
 		}
 		return root;
 	}
@@ -685,7 +948,8 @@ public class DialogueState extends BNetwork {
 			// else, simply add an additional edge
 			else {
 				outputNode = getChanceNode(updatedVar);
-				outputDistrib = (OutputDistribution) outputNode.getDistrib();
+				outputDistrib =
+						(OutputDistribution) outputNode.getModifiableDistrib();
 			}
 			outputNode.addInputNode(ruleNode);
 			outputDistrib.addAnchoredRule(arule);
@@ -733,6 +997,49 @@ public class DialogueState extends BNetwork {
 		}
 	}
 
+	/**
+	 * Adds the anchored rule to the dialogue state, if the rule is relevant.
+	 * 
+	 * @param arule the anchored rule
+	 */
+	private void addAnchoredRule(AnchoredRule arule) {
+		if (arule.isRelevant()) {
+			switch (arule.getRule().getRuleType()) {
+			case PROB:
+				addProbabilityRule(arule);
+				break;
+			case UTIL:
+				addUtilityRule(arule);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if one of the modified nodes matches an input variable or a
+	 * parameter of the rule (in which case the rule must be anchored again).
+	 * 
+	 * @param r the rule
+	 * @param changedNodes the modified nodes
+	 * @return true if the anchoring of the rule is affected, else false
+	 */
+	private boolean isAffected(Rule r, Set<String> changedNodes) {
+		if (changedNodes.isEmpty()) {
+			return false;
+		}
+		if (!Collections.disjoint(changedNodes, r.getParameterIds())) {
+			return true;
+		}
+		for (Template t : r.getInputVariables()) {
+			for (String node : changedNodes) {
+				if (t.match(node).isMatching()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Connects the chance node to its prior predictions (if any).
 	 * 
@@ -756,4 +1063,126 @@ public class DialogueState extends BNetwork {
 
 	}
 
+	/**
+	 * Returns the result of the query from the cache of inference results, provided
+	 * the cliques of the query variables have not been modified since the result
+	 * was computed. Else, performs the query and stores its result in the cache.
+	 * Since results may be modified by the caller, the cache only returns and
+	 * stores copies.
+	 * 
+	 * @param type the type of query
+	 * @param variables the query variables
+	 * @param queryEvidence the evidence for the query
+	 * @param query the inference operation
+	 * @param copy the function copying the result
+	 * @return the query result
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T getCachedResult(String type, Collection<String> variables,
+			Assignment queryEvidence, Supplier<T> query, UnaryOperator<T> copy) {
+
+		Set<String> cliques = getCliques(variables);
+		List<BNode> cliqueNodes = getNodes(cliques);
+		String key = type + new TreeSet<String>(variables) + "|"
+				+ queryEvidence.getTrimmed(cliques);
+
+		CachedResult cached = queryCache.get(key);
+		if (cached != null && cached.isValid(cliqueNodes)) {
+			cacheHits.incrementAndGet();
+			return copy.apply((T) cached.result);
+		}
+		cacheMisses.incrementAndGet();
+		T result = query.get();
+		queryCache.put(key, new CachedResult(copy.apply(result), cliqueNodes));
+		return result;
+	}
+
+	/**
+	 * Stores a query result (computed outside of {@link #getCachedResult}) in the
+	 * cache of inference results. The stored result should not be modified
+	 * afterwards.
+	 * 
+	 * @param type the type of query
+	 * @param variables the query variables
+	 * @param queryEvidence the evidence for the query
+	 * @param result the query result
+	 */
+	private void storeCachedResult(String type, Collection<String> variables,
+			Assignment queryEvidence, Object result) {
+		Set<String> cliques = getCliques(variables);
+		String key = type + new TreeSet<String>(variables) + "|"
+				+ queryEvidence.getTrimmed(cliques);
+		queryCache.put(key, new CachedResult(result, getNodes(cliques)));
+	}
+
+	/**
+	 * Returns the labels of the nodes in the cliques of the variables.
+	 * 
+	 * @param variables the variables
+	 * @return the labels of the nodes in their cliques
+	 */
+	private Set<String> getCliques(Collection<String> variables) {
+		Set<String> cliques = new TreeSet<String>();
+		for (String variable : variables) {
+			if (!cliques.contains(variable) && hasNode(variable)) {
+				cliques.addAll(getNode(variable).getClique());
+			}
+		}
+		return cliques;
+	}
+
+	/**
+	 * Description of the nodes of the state, computed for a given version of the
+	 * network.
+	 */
+	private static final class CachedFingerprint {
+
+		final long version;
+		final String nodes;
+		final List<String> nodeIds;
+
+		CachedFingerprint(long version, String nodes, List<String> nodeIds) {
+			this.version = version;
+			this.nodes = nodes;
+			this.nodeIds = nodeIds;
+		}
+	}
+
+	/**
+	 * Inference result stored in the cache, together with the nodes of the cliques
+	 * on which the result depends and their versions.
+	 */
+	private static final class CachedResult {
+
+		final Object result;
+		final List<BNode> nodes;
+		final long[] versions;
+
+		CachedResult(Object result, List<BNode> nodes) {
+			this.result = result;
+			this.nodes = nodes;
+			versions = nodes.stream().mapToLong(n -> n.getVersion()).toArray();
+		}
+
+		/**
+		 * Returns true if the cliques still contain the same nodes, in the same
+		 * version, and false otherwise.
+		 * 
+		 * @param curNodes the current nodes of the cliques
+		 * @return true if the result is still valid, else false
+		 */
+		boolean isValid(List<BNode> curNodes) {
+			if (curNodes.size() != nodes.size()) {
+				return false;
+			}
+			for (int i = 0; i < versions.length; i++) {
+				if (curNodes.get(i) != nodes.get(i)
+						|| curNodes.get(i).getVersion() != versions[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
 }
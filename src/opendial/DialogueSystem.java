@@ -33,6 +33,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 import opendial.bn.BNetwork;
@@ -51,6 +53,7 @@ import opendial.modules.AudioModule;
 import opendial.modules.DialogueImporter;
 import opendial.modules.DialogueRecorder;
 import opendial.modules.ForwardPlanner;
+import opendial.modules.MCTSPlanner;
 import opendial.modules.Module;
 import opendial.modules.RemoteConnector;
 import opendial.modules.simulation.Simulator;
@@ -289,6 +292,19 @@ public class DialogueSystem {
 
 		this.settings.fillSettings(settings.getSpecifiedMapping());
 
+		// replaces the planner if another planning algorithm is selected
+		synchronized (curState) {
+			ForwardPlanner planner = getModule(ForwardPlanner.class);
+			boolean mcts = (this.settings.planner == Settings.Planner.MCTS);
+			if (planner != null && (planner instanceof MCTSPlanner) != mcts) {
+				ForwardPlanner newPlanner =
+						(mcts) ? new MCTSPlanner(this) : new ForwardPlanner(this);
+				newPlanner.pause(!planner.isRunning());
+				planner.pause(true);
+				modules.set(modules.indexOf(planner), newPlanner);
+			}
+		}
+
 		for (Class<Module> toAttach : settings.modules) {
 			if (getModule(toAttach) == null) {
 				log.fine("Attaching module: " + toAttach.getSimpleName());
@@ -640,40 +656,64 @@ public class DialogueSystem {
 	 * @return the set of updated variables
 	 */
 	private Set<String> update() {
+		return update(curState, domain,
+				toProcess -> modules.forEach(m -> m.trigger(curState, toProcess)),
+				() -> false, vars -> displayComment(
+						"Warning: Recursive update of variables " + vars));
+	}
+
+	/**
+	 * Performs the update loop on the dialogue state, by triggering the domain
+	 * models and the modules until all possible updates have been performed (or
+	 * until the loop is stopped). The loop is interrupted if one variable is
+	 * updated more than 10 times. This loop is shared by the dialogue system and
+	 * the sessions of the session manager.
+	 * 
+	 * @param state the dialogue state to update
+	 * @param domain the dialogue domain
+	 * @param modules the operation triggering the modules on the new variables
+	 * @param stopped whether the loop must be stopped
+	 * @param recursion the warning to report in case of a recursive update
+	 * @return the set of updated variables
+	 */
+	static Set<String> update(DialogueState state, Domain domain,
+			Consumer<Set<String>> modules, BooleanSupplier stopped,
+			Consumer<Set<String>> recursion) {
 
 		// set of variables that have been updated
 		Map<String, Integer> updatedVars = new HashMap<String, Integer>();
 
-		while (!curState.getNewVariables().isEmpty()) {
+		while (!state.getNewVariables().isEmpty() && !stopped.getAsBoolean()) {
 
 			// finding the new variables that must be processed
-			Set<String> toProcess = curState.getNewVariables();
+			Set<String> toProcess = state.getNewVariables();
 
-			synchronized (curState) {
+			synchronized (state) {
 
 				// reducing the dialogue state to its relevant nodes
-				curState.reduce();
+				state.reduce();
 
 				// applying the domain models
-				for (Model model : domain.getModels()) {
-					if (model.isTriggered(curState, toProcess)) {
-						boolean change = model.trigger(curState);
-						if (change && model.isBlocking()) {
-							break;
-						}
+				for (Model model : domain.getTriggeredModels(toProcess)) {
+					boolean change = model.trigger(state);
+					if (change && model.isBlocking()) {
+						break;
 					}
 				}
- 
-				// triggering the domain modules
-				modules.forEach(m -> m.trigger(curState, toProcess));
+
+				// triggering the modules
+				modules.accept(toProcess);
 
 				// checking for recursive update loops
+				boolean recursive = false;
 				for (String v : toProcess) {
-					int count = updatedVars.compute(v, (x,y) ->(y==null)?1:y+1);
-					if (count > 10) {
-						displayComment("Warning: Recursive update of variable " + v);
-						return updatedVars.keySet();
-					}
+					int count = updatedVars.compute(v,
+							(x, y) -> (y == null) ? 1 : y + 1);
+					recursive = recursive || count > 10;
+				}
+				if (recursive) {
+					recursion.accept(toProcess);
+					break;
 				}
 			}
 		}
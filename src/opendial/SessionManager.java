@@ -0,0 +1,487 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import opendial.bn.distribs.CategoricalTable;
+import opendial.bn.distribs.ProbDistribution;
+import opendial.datastructs.Assignment;
+import opendial.domains.Domain;
+import opendial.modules.ForwardPlanner;
+import opendial.modules.MCTSPlanner;
+import opendial.modules.Module;
+
+/**
+ * Manager for a collection of independent dialogue sessions that share the same
+ * dialogue domain. The domain (and its models and rules) is parsed only once and
+ * is accessed in a read-only manner by all sessions, while each session maintains
+ * its own dialogue state.
+ * 
+ * <p>
+ * The state updates are executed on a bounded pool of worker threads. The updates
+ * of a given session are always executed in the order in which they were
+ * submitted, while updates of distinct sessions may run in parallel. Sessions
+ * that remain idle for longer than a given time are automatically evicted.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class SessionManager {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// the shared dialogue domain
+	final Domain domain;
+
+	// the shared system settings
+	final Settings settings;
+
+	// the modules triggered after the domain models, shared by all sessions
+	final List<Module> modules;
+
+	// the factories for the modules created for each session (e.g. the planner)
+	final List<Supplier<? extends Module>> moduleFactories;
+
+	// the active sessions, indexed by their identifier
+	final Map<String, Session> sessions;
+
+	// the pool of worker threads performing the state updates
+	final ExecutorService workers;
+
+	// the service in charge of evicting the idle sessions
+	final ScheduledExecutorService evictor;
+
+	// maximum idle time (in milliseconds) before a session is evicted
+	final long maxIdleTime;
+
+	// ===================================
+	// MANAGER CONSTRUCTION
+	// ===================================
+
+	/**
+	 * Creates a new session manager sharing the domain and settings of the dialogue
+	 * system provided as argument. If the system includes a forward planner, each
+	 * session selects its actions with its own planner of the same type.
+	 * 
+	 * @param system the dialogue system whose domain and settings are shared
+	 * @param nbWorkers the maximum number of updates running in parallel
+	 * @param maxIdleTime the maximum idle time (in milliseconds) of a session
+	 */
+	public SessionManager(DialogueSystem system, int nbWorkers, long maxIdleTime) {
+		this(system.getDomain(), system.getSettings(), nbWorkers, maxIdleTime);
+		ForwardPlanner planner = system.getModule(ForwardPlanner.class);
+		if (planner != null) {
+			boolean mcts = (planner instanceof MCTSPlanner);
+			attachModule(() -> (mcts) ? new MCTSPlanner(system)
+					: new ForwardPlanner(system));
+		}
+	}
+
+	/**
+	 * Creates a new session manager for the domain and settings provided as
+	 * argument.
+	 * 
+	 * @param domain the dialogue domain shared by all sessions
+	 * @param settings the system settings
+	 * @param nbWorkers the maximum number of updates running in parallel
+	 * @param maxIdleTime the maximum idle time (in milliseconds) of a session
+	 */
+	public SessionManager(Domain domain, Settings settings, int nbWorkers,
+			long maxIdleTime) {
+		this.domain = domain;
+		this.settings = settings;
+		this.maxIdleTime = maxIdleTime;
+		modules = new ArrayList<Module>();
+		moduleFactories = new ArrayList<Supplier<? extends Module>>();
+		sessions = new ConcurrentHashMap<String, Session>();
+		workers = Executors.newFixedThreadPool(Math.max(1, nbWorkers), r -> {
+			Thread t = new Thread(r, "session-worker");
+			t.setDaemon(true);
+			return t;
+		});
+		evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "session-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1, maxIdleTime / 2);
+		evictor.scheduleAtFixedRate(() -> removeIdleSessions(), period, period,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Attaches a module shared by all sessions. The module is triggered after the
+	 * domain models at each step of the update loop, on the dialogue state of each
+	 * session. The calls to its trigger method are synchronised on the module, such
+	 * that it is triggered by one session at a time. Since the same module is used
+	 * for distinct sessions, it should not hold any state specific to a session:
+	 * such modules (e.g. the planner) must be attached with a factory instead.
+	 * 
+	 * @param module the module to attach
+	 */
+	public void attachModule(Module module) {
+		modules.add(module);
+	}
+
+	/**
+	 * Attaches a module that holds a state of its own for each session (such as the
+	 * planner). The factory is called once for every new session, and the created
+	 * module is triggered (before the shared modules) after the domain models.
+	 * 
+	 * @param factory the factory creating the module for each session
+	 */
+	public void attachModule(Supplier<? extends Module> factory) {
+		moduleFactories.add(factory);
+	}
+
+	/**
+	 * Creates a new session, initialised with the initial state of the domain, and
+	 * returns its identifier.
+	 * 
+	 * @return the identifier of the new session
+	 */
+	public String openSession() {
+		String sessionId = UUID.randomUUID().toString();
+		sessions.put(sessionId, new Session());
+		return sessionId;
+	}
+
+	/**
+	 * Closes the session with the given identifier. Updates that are still pending
+	 * for the session are discarded.
+	 * 
+	 * @param sessionId the session identifier
+	 */
+	public void closeSession(String sessionId) {
+		Session session = sessions.remove(sessionId);
+		if (session != null) {
+			session.closed = true;
+			session.modules.forEach(m -> m.pause(true));
+		}
+	}
+
+	/**
+	 * Closes all sessions and shuts down the worker threads.
+	 */
+	public void shutdown() {
+		sessions.values().forEach(s -> {
+			s.closed = true;
+			s.modules.forEach(m -> m.pause(true));
+		});
+		sessions.clear();
+		evictor.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	// ===================================
+	// STATE UPDATE
+	// ===================================
+
+	/**
+	 * Adds the user input to the dialogue state of the session, and schedules the
+	 * update of the state.
+	 * 
+	 * @param sessionId the session identifier
+	 * @param userInput the user input as a string
+	 * @return the future set of variables updated in the process
+	 */
+	public Future<Set<String>> addUserInput(String sessionId, String userInput) {
+		return addContent(sessionId,
+				new Assignment(settings.userInput, userInput));
+	}
+
+	/**
+	 * Adds the user input (expressed as an N-best list) to the dialogue state of the
+	 * session, and schedules the update of the state.
+	 * 
+	 * @param sessionId the session identifier
+	 * @param userInput the user input as an N-best list
+	 * @return the future set of variables updated in the process
+	 */
+	public Future<Set<String>> addUserInput(String sessionId,
+			Map<String, Double> userInput) {
+		String var = (!settings.invertedRole) ? settings.userInput
+				: settings.systemOutput;
+		CategoricalTable.Builder builder = new CategoricalTable.Builder(var);
+		for (String input : userInput.keySet()) {
+			builder.addRow(input, userInput.get(input));
+		}
+		return addContent(sessionId, builder.build());
+	}
+
+	/**
+	 * Adds the assignment to the dialogue state of the session, and schedules the
+	 * update of the state.
+	 * 
+	 * @param sessionId the session identifier
+	 * @param assign the value assignment to add
+	 * @return the future set of variables updated in the process
+	 */
+	public Future<Set<String>> addContent(String sessionId, Assignment assign) {
+		return getSession(sessionId).submit(s -> s.addToState(assign));
+	}
+
+	/**
+	 * Adds the distribution to the dialogue state of the session, and schedules the
+	 * update of the state.
+	 * 
+	 * @param sessionId the session identifier
+	 * @param distrib the distribution to add
+	 * @return the future set of variables updated in the process
+	 */
+	public Future<Set<String>> addContent(String sessionId,
+			ProbDistribution distrib) {
+		return getSession(sessionId).submit(s -> s.addToState(distrib));
+	}
+
+	/**
+	 * Removes all sessions that have been idle for longer than the maximum idle
+	 * time. Sessions with pending updates are never evicted.
+	 * 
+	 * @return the number of evicted sessions
+	 */
+	public int removeIdleSessions() {
+		long now = System.currentTimeMillis();
+		int nbEvicted = 0;
+		for (String sessionId : new ArrayList<String>(sessions.keySet())) {
+			Session session = sessions.get(sessionId);
+			if (session != null && session.isIdle(now)) {
+				closeSession(sessionId);
+				nbEvicted++;
+			}
+		}
+		if (nbEvicted > 0) {
+			log.fine("evicted " + nbEvicted + " idle sessions");
+		}
+		return nbEvicted;
+	}
+
+	// ===================================
+	// GETTERS
+	// ===================================
+
+	/**
+	 * Returns the dialogue state of the session. Callers reading the state while
+	 * updates are pending should synchronise on the state object.
+	 * 
+	 * @param sessionId the session identifier
+	 * @return the dialogue state of the session
+	 */
+	public DialogueState getState(String sessionId) {
+		return getSession(sessionId).state;
+	}
+
+	/**
+	 * Returns the module of the session belonging to a particular class, if one
+	 * exists. The modules created for the session are searched before the shared
+	 * modules. If no module exists, returns null.
+	 * 
+	 * @param sessionId the session identifier
+	 * @param cls the class
+	 * @return the module of that class, if one exists
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Module> T getModule(String sessionId, Class<T> cls) {
+		return Stream.concat(getSession(sessionId).modules.stream(),
+				modules.stream()).filter(m -> cls.isAssignableFrom(m.getClass()))
+				.map(m -> (T) m).findFirst().orElse(null);
+	}
+
+	/**
+	 * Returns true if a session with the given identifier is active, and false
+	 * otherwise
+	 * 
+	 * @param sessionId the session identifier
+	 * @return true if the session is active, false otherwise
+	 */
+	public boolean hasSession(String sessionId) {
+		return sessions.containsKey(sessionId);
+	}
+
+	/**
+	 * Returns the identifiers of the active sessions
+	 * 
+	 * @return the session identifiers
+	 */
+	public Set<String> getSessionIds() {
+		return Collections.unmodifiableSet(new HashSet<String>(sessions.keySet()));
+	}
+
+	/**
+	 * Returns the shared dialogue domain
+	 * 
+	 * @return the dialogue domain
+	 */
+	public Domain getDomain() {
+		return domain;
+	}
+
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
+	/**
+	 * Returns the session with the given identifier, and marks it as accessed.
+	 * 
+	 * @param sessionId the session identifier
+	 * @return the corresponding session
+	 */
+	private Session getSession(String sessionId) {
+		Session session = sessions.get(sessionId);
+		if (session == null) {
+			throw new RuntimeException("no active session with id " + sessionId);
+		}
+		session.lastAccess = System.currentTimeMillis();
+		return session;
+	}
+
+	/**
+	 * Operation performed on the dialogue state of a session before its update.
+	 */
+	@FunctionalInterface
+	interface StateOperation {
+		void apply(DialogueState state);
+	}
+
+	/**
+	 * Dialogue session, made of a dialogue state and a chain of pending updates.
+	 */
+	final class Session {
+
+		// the dialogue state for the session
+		final DialogueState state;
+
+		// the modules created for the session
+		final List<Module> modules;
+
+		// the last update submitted for the session
+		CompletableFuture<Set<String>> lastUpdate;
+
+		// the number of updates submitted but not yet completed
+		int nbPending = 0;
+
+		// time of the last access to the session
+		volatile long lastAccess;
+
+		// whether the session has been closed
+		volatile boolean closed = false;
+
+		Session() {
+			state = domain.getInitialState().copy();
+			state.setParameters(domain.getParameters());
+			modules = new ArrayList<Module>();
+			moduleFactories.forEach(f -> modules.add(f.get()));
+			lastUpdate = CompletableFuture.completedFuture(Collections.emptySet());
+			lastAccess = System.currentTimeMillis();
+		}
+
+		/**
+		 * Schedules the operation followed by an update of the dialogue state. The
+		 * operation is only executed once all previous updates of the session have
+		 * been completed.
+		 * 
+		 * @param op the operation to apply on the dialogue state
+		 * @return the future set of updated variables
+		 */
+		synchronized CompletableFuture<Set<String>> submit(StateOperation op) {
+			nbPending++;
+			lastUpdate = lastUpdate.exceptionally(e -> Collections.emptySet())
+					.thenApplyAsync(x -> {
+						try {
+							if (closed) {
+								return Collections.<String> emptySet();
+							}
+							synchronized (state) {
+								op.apply(state);
+								return update();
+							}
+						}
+						finally {
+							synchronized (this) {
+								nbPending--;
+							}
+							lastAccess = System.currentTimeMillis();
+						}
+					} , workers);
+			return lastUpdate;
+		}
+
+		/**
+		 * Returns true if the session has no pending update and has not been
+		 * accessed during the maximum idle time.
+		 * 
+		 * @param now the current time
+		 * @return true if the session is idle, false otherwise
+		 */
+		synchronized boolean isIdle(long now) {
+			return nbPending == 0 && (now - lastAccess) > maxIdleTime;
+		}
+
+		/**
+		 * Performs the update loop on the dialogue state of the session, by
+		 * triggering the domain models and the attached modules until all possible
+		 * updates have been performed.
+		 * 
+		 * @return the set of updated variables
+		 */
+		private Set<String> update() {
+			return DialogueSystem.update(state, domain, this::triggerModules,
+					() -> closed, vars -> log
+							.warning("recursive update of variables " + vars));
+		}
+
+		/**
+		 * Triggers the modules of the session, then the shared modules. Each shared
+		 * module is triggered by one session at a time.
+		 * 
+		 * @param toProcess the new variables to process
+		 */
+		private void triggerModules(Set<String> toProcess) {
+			modules.forEach(m -> m.trigger(state, toProcess));
+			for (Module module : SessionManager.this.modules) {
+				synchronized (module) {
+					module.trigger(state, toProcess);
+				}
+			}
+		}
+	}
+
+}
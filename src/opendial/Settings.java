@@ -38,6 +38,7 @@ import javax.sound.sampled.Mixer;
 
 import opendial.modules.Module;
 import opendial.utils.AudioUtils;
+import opendial.utils.RandomUtils;
 import opendial.utils.StringUtils;
 import opendial.utils.XMLUtils;
 
@@ -67,6 +68,9 @@ public class Settings {
 	/** Number of discretisation buckets to convert continuous distributions */
 	public static int discretisationBuckets = 50;
 
+	/** precision target for sampling (0 to always draw all samples) */
+	public static double samplingPrecision = 0.0;
+
 	/** Whether to show the GUI */
 	public boolean showGUI;
 
@@ -102,6 +106,14 @@ public class Settings {
 	/** Whether to record intermediate dialogue state */
 	public Recording recording = Recording.LAST_INPUT;
 
+	/** Planning algorithms */
+	public static enum Planner {
+		FORWARD, MCTS
+	}
+
+	/** Which planning algorithm to use for action selection */
+	public Planner planner = Planner.FORWARD;
+
 	/** (When relevant) Which audio mixer to use for speech recognition */
 	public Mixer.Info inputMixer;
 
@@ -208,6 +220,12 @@ public class Settings {
 			else if (key.equalsIgnoreCase("discretisation")) {
 				discretisationBuckets = Integer.parseInt(mapping.getProperty(key));
 			}
+			else if (key.equalsIgnoreCase("precision")) {
+				samplingPrecision = Double.parseDouble(mapping.getProperty(key));
+			}
+			else if (key.equalsIgnoreCase("seed")) {
+				RandomUtils.setSeed(Long.parseLong(mapping.getProperty(key).trim()));
+			}
 
 			else if (key.equalsIgnoreCase("recording")) {
 				if (mapping.getProperty(key).trim().equalsIgnoreCase("last")) {
@@ -220,6 +238,14 @@ public class Settings {
 					recording = Recording.NONE;
 				}
 			}
+			else if (key.equalsIgnoreCase("planner")) {
+				if (mapping.getProperty(key).trim().equalsIgnoreCase("mcts")) {
+					planner = Planner.MCTS;
+				}
+				else {
+					planner = Planner.FORWARD;
+				}
+			}
 			else if (key.equalsIgnoreCase("connect")) {
 				String[] splits = mapping.getProperty(key).split(",");
 				for (String split : splits) {
@@ -291,6 +317,8 @@ public class Settings {
 		mapping.setProperty("samples", "" + nbSamples);
 		mapping.setProperty("timeout", "" + maxSamplingTime);
 		mapping.setProperty("discretisation", "" + discretisationBuckets);
+		mapping.setProperty("precision", "" + samplingPrecision);
+		mapping.setProperty("planner", planner.toString().toLowerCase());
 		mapping.setProperty("modules", "" + modules.stream()
 				.map(m -> m.getCanonicalName()).collect(Collectors.joining(",")));
 		mapping.setProperty("connect",
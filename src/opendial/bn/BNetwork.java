@@ -25,6 +25,7 @@ package opendial.bn;
 import java.util.logging.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -40,6 +41,7 @@ import opendial.bn.nodes.ActionNode;
 import opendial.bn.nodes.BNode;
 import opendial.bn.nodes.ChanceNode;
 import opendial.bn.nodes.UtilityNode;
+import opendial.utils.StringUtils;
 
 /**
  * Representation of a Bayesian Network augmented with value and action nodes. The
@@ -65,6 +67,15 @@ public class BNetwork {
 	// the action nodes
 	Map<String, ActionNode> actionNodes;
 
+	// counter incremented at each modification of the network
+	volatile long version = 0;
+
+	// counter incremented each time nodes are added or removed
+	volatile long structureVersion = 0;
+
+	// cached ordering of the nodes (recomputed after structural changes)
+	private volatile NodeOrdering ordering;
+
 	// ===================================
 	// NETWORK CONSTRUCTION
 	// ===================================
@@ -112,6 +123,7 @@ public class BNetwork {
 		}
 		nodes.put(node.getId(), node);
 		node.setNetwork(this);
+		touchStructure();
 
 		// adding the node in the type-specific collections
 		if (node instanceof ChanceNode) {
@@ -209,6 +221,7 @@ public class BNetwork {
 			}
 		}
 
+		touchStructure();
 		return nodes.remove(nodeId);
 	}
 
@@ -262,14 +275,45 @@ public class BNetwork {
 			for (BNode node : network.getNodes()) {
 				addNode(node);
 			}
+			touchStructure();
 		}
 
 	}
 
+	/**
+	 * Marks the network as modified. The method is called whenever nodes are
+	 * added or removed, and by the nodes themselves when their relations or
+	 * content are changed.
+	 */
+	public void touch() {
+		version++;
+	}
+
+	/**
+	 * Marks the structure of the network as modified. The method is called whenever
+	 * nodes are added or removed, and by the nodes themselves when their identifier
+	 * or relations are changed. The cached node ordering is then recomputed upon the
+	 * next call to {@link #getSortedNodes()}.
+	 */
+	public void touchStructure() {
+		structureVersion++;
+		touch();
+	}
+
 	// ===================================
 	// GETTERS
 	// ===================================
 
+	/**
+	 * Returns the modification counter of the network. The counter is incremented
+	 * each time a node is added, removed or modified.
+	 * 
+	 * @return the modification counter
+	 */
+	public long getVersion() {
+		return version;
+	}
+
 	/**
 	 * Returns true if the network contains a node with the given identifier
 	 * 
@@ -536,21 +580,21 @@ public class BNetwork {
 	}
 
 	/**
-	 * Returns an ordered list of nodes, where the ordering is defined in the
+	 * Returns an ordered list of nodes, following the same ordering as the
 	 * compareTo method implemented in BNode. The ordering will place end nodes (i.e.
 	 * nodes with no outward edges) at the beginning of the list, and start nodes
 	 * (nodes with no inward edges) at the end of the list.
 	 * 
 	 * <p>
 	 * This ordering is used in particular for various inference algorithms relying
-	 * on a topological ordering of the nodes (e.g. variable elimination).
+	 * on a topological ordering of the nodes (e.g. variable elimination). It is
+	 * cached in the network and only recomputed after structural modifications
+	 * (nodes added, removed, renamed or connected to one another).
 	 * 
 	 * @return the ordered list of nodes
 	 */
 	public List<BNode> getSortedNodes() {
-		List<BNode> nodesList = new ArrayList<BNode>(nodes.values());
-		Collections.sort(nodesList);
-		return nodesList;
+		return new ArrayList<BNode>(getOrdering().sortedNodes);
 	}
 
 	/**
@@ -560,12 +604,57 @@ public class BNetwork {
 	 */
 	public List<String> getSortedNodesIds() {
 		List<String> sorted = new ArrayList<String>();
-		for (BNode n : getSortedNodes()) {
+		for (BNode n : getOrdering().sortedNodes) {
 			sorted.add(n.getId());
 		}
 		return sorted;
 	}
 
+	/**
+	 * Returns the identifiers of all the ancestors of the node in the network.
+	 * Contrary to {@link BNode#getAncestorIds()}, the ancestors are read from the
+	 * cached node ordering and are therefore not recomputed at each call.
+	 * 
+	 * @param nodeId the node identifier
+	 * @return the identifiers of the ancestors (empty if the node does not exist)
+	 */
+	public Set<String> getAncestorIds(String nodeId) {
+		NodeOrdering cached = getOrdering();
+		Integer index = cached.indices.get(nodeId);
+		return (index != null) ? cached.getIds(cached.ancestors[index])
+				: new HashSet<String>();
+	}
+
+	/**
+	 * Returns the identifiers of all the descendants of the node in the network.
+	 * Contrary to {@link BNode#getDescendantIds()}, the descendants are read from
+	 * the cached node ordering and are therefore not recomputed at each call.
+	 * 
+	 * @param nodeId the node identifier
+	 * @return the identifiers of the descendants (empty if the node does not exist)
+	 */
+	public Set<String> getDescendantIds(String nodeId) {
+		NodeOrdering cached = getOrdering();
+		Integer index = cached.indices.get(nodeId);
+		return (index != null) ? cached.getIds(cached.descendants[index])
+				: new HashSet<String>();
+	}
+
+	/**
+	 * Returns the current node ordering, recomputing it if the network or one of
+	 * its nodes has been structurally modified since the last computation.
+	 * 
+	 * @return the node ordering
+	 */
+	private NodeOrdering getOrdering() {
+		NodeOrdering cached = ordering;
+		if (cached == null || !cached.isValid(this)) {
+			cached = new NodeOrdering(this);
+			ordering = cached;
+		}
+		return cached;
+	}
+
 	/**
 	 * Returns the subset of nodes that are referred to by the list of identifiers
 	 * 
@@ -729,4 +818,189 @@ public class BNetwork {
 		return s;
 	}
 
+
+	/**
+	 * Topological ordering of the nodes in the network, together with the
+	 * ancestors and descendants of each node (encoded as bitsets over the node
+	 * indices). The ordering only considers the relations between nodes of the
+	 * network, and is computed with Kahn's algorithm.
+	 */
+	private static final class NodeOrdering {
+
+		// structure version of the network when the ordering was computed
+		final long structureVersion;
+
+		// highest structure version of the nodes when the ordering was computed
+		final long nodesVersion;
+
+		// the nodes (indexed) and their position in the list
+		final List<BNode> nodes;
+		final Map<String, Integer> indices;
+
+		// the ordered list of nodes (from the leaves to the roots)
+		final List<BNode> sortedNodes;
+
+		// ancestors and descendants for each node index
+		final BitSet[] ancestors;
+		final BitSet[] descendants;
+
+		/**
+		 * Computes the ordering for the network
+		 * 
+		 * @param network the Bayesian network
+		 */
+		NodeOrdering(BNetwork network) {
+			structureVersion = network.structureVersion;
+			nodes = new ArrayList<BNode>(network.nodes.values());
+			int n = nodes.size();
+			indices = new HashMap<String, Integer>(n * 2);
+			long maxVersion = 0;
+			for (int i = 0; i < n; i++) {
+				indices.put(nodes.get(i).getId(), i);
+				maxVersion = Math.max(maxVersion, nodes.get(i).getStructureVersion());
+			}
+			nodesVersion = maxVersion;
+
+			// collecting the relations internal to the network
+			int[] inDegrees = new int[n];
+			List<List<Integer>> children = new ArrayList<List<Integer>>(n);
+			for (int i = 0; i < n; i++) {
+				children.add(new ArrayList<Integer>());
+			}
+			for (int i = 0; i < n; i++) {
+				for (BNode inputNode : nodes.get(i).getInputNodes()) {
+					Integer j = indices.get(inputNode.getId());
+					if (j != null && nodes.get(j) == inputNode) {
+						children.get(j).add(i);
+						inDegrees[i]++;
+					}
+				}
+			}
+
+			// Kahn's algorithm, starting from the roots
+			int[] order = new int[n];
+			int head = 0;
+			int tail = 0;
+			for (int i = 0; i < n; i++) {
+				if (inDegrees[i] == 0) {
+					order[tail++] = i;
+				}
+			}
+			while (head < tail) {
+				for (int child : children.get(order[head++])) {
+					if (--inDegrees[child] == 0) {
+						order[tail++] = child;
+					}
+				}
+			}
+			if (tail < n) {
+				log.warning("network contains cyclic dependencies");
+				for (int i = 0; i < n; i++) {
+					if (inDegrees[i] > 0) {
+						order[tail++] = i;
+					}
+				}
+			}
+
+			// propagating the ancestors downwards and the descendants upwards
+			ancestors = new BitSet[n];
+			descendants = new BitSet[n];
+			for (int i = 0; i < n; i++) {
+				ancestors[i] = new BitSet(n);
+				descendants[i] = new BitSet(n);
+			}
+			for (int k = 0; k < n; k++) {
+				int i = order[k];
+				for (int child : children.get(i)) {
+					ancestors[child].or(ancestors[i]);
+					ancestors[child].set(i);
+				}
+			}
+			for (int k = n - 1; k >= 0; k--) {
+				int i = order[k];
+				for (int child : children.get(i)) {
+					descendants[i].or(descendants[child]);
+					descendants[i].set(child);
+				}
+			}
+
+			// end nodes come first, and start nodes last (with action nodes at
+			// the very end). Since a node has strictly more ancestors than each
+			// of its ancestors, the ordering remains topological
+			List<Integer> sorted = new ArrayList<Integer>(n);
+			for (int i = 0; i < n; i++) {
+				sorted.add(i);
+			}
+			Collections.sort(sorted, (i1, i2) -> compare(i1, i2));
+			sortedNodes = sorted.stream().map(i -> nodes.get(i))
+					.collect(Collectors.toList());
+		}
+
+		/**
+		 * Compares two nodes (given by their indices) according to their position
+		 * in the ordering.
+		 * 
+		 * @param i1 the index of the first node
+		 * @param i2 the index of the second node
+		 * @return the comparison result
+		 */
+		private int compare(int i1, int i2) {
+			BNode node1 = nodes.get(i1);
+			BNode node2 = nodes.get(i2);
+			boolean isStart1 = node1.getInputNodeIds().isEmpty();
+			boolean isStart2 = node2.getInputNodeIds().isEmpty();
+			if (isStart1 != isStart2) {
+				return (isStart1) ? +1 : -1;
+			}
+			else if (isStart1) {
+				boolean isAction1 = node1 instanceof ActionNode;
+				boolean isAction2 = node2 instanceof ActionNode;
+				if (isAction1 != isAction2) {
+					return (isAction1) ? +1 : -1;
+				}
+			}
+			else {
+				int sizeDiff = ancestors[i2].cardinality()
+						- ancestors[i1].cardinality();
+				if (sizeDiff != 0) {
+					return sizeDiff;
+				}
+			}
+			return StringUtils.compare(node1.getId(), node2.getId());
+		}
+
+		/**
+		 * Returns true if the ordering is still valid for the network, i.e. if no
+		 * node has been added, removed or structurally modified since its
+		 * computation.
+		 * 
+		 * @param network the network
+		 * @return true if the ordering is valid, false otherwise
+		 */
+		boolean isValid(BNetwork network) {
+			if (network.structureVersion != structureVersion) {
+				return false;
+			}
+			for (BNode node : nodes) {
+				if (node.getStructureVersion() > nodesVersion) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the node identifiers for the indices set in the bitset
+		 * 
+		 * @param bitset the bitset
+		 * @return the corresponding node identifiers
+		 */
+		Set<String> getIds(BitSet bitset) {
+			Set<String> ids = new HashSet<String>();
+			for (int i = bitset.nextSetBit(0); i >= 0; i = bitset.nextSetBit(i + 1)) {
+				ids.add(nodes.get(i).getId());
+			}
+			return ids;
+		}
+	}
 }
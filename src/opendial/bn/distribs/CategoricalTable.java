@@ -158,6 +158,18 @@ public class CategoricalTable implements IndependentDistribution {
 		return changed;
 	}
 
+	/**
+	 * Returns true if the table contains a value with a probability lower than the
+	 * threshold, and false otherwise.
+	 * 
+	 * @param threshold the threshold
+	 * @return true if at least one value would be pruned, false otherwise
+	 */
+	@Override
+	public boolean hasValuesBelow(double threshold) {
+		return table.values().stream().anyMatch(p -> p < threshold);
+	}
+
 	// ===================================
 	// GETTERS
 	// ===================================
@@ -160,6 +160,18 @@ public class ConditionalTable implements ProbDistribution {
 		return changed;
 	}
 
+	/**
+	 * Returns true if one of the conditional tables contains a value whose
+	 * probability falls below the threshold
+	 * 
+	 * @param threshold the threshold to apply
+	 * @return true if at least one value would be pruned, false otherwise
+	 */
+	@Override
+	public boolean hasValuesBelow(double threshold) {
+		return table.values().stream().anyMatch(t -> t.hasValuesBelow(threshold));
+	}
+
 	// ===================================
 	// GETTERS
 	// ===================================
@@ -332,7 +344,8 @@ public class ConditionalTable implements ProbDistribution {
 		ConditionalTable newTable = new ConditionalTable(headVar);
 		for (Assignment condition : table.keySet()) {
 			try {
-				newTable.addDistrib(condition, table.get(condition).copy());
+				newTable.addDistrib(new Assignment(condition),
+						table.get(condition).copy());
 			}
 			catch (RuntimeException e) {
 				log.warning("Copy error: " + e);
@@ -83,6 +83,14 @@ public class ContinuousDistribution implements IndependentDistribution {
 		return false;
 	}
 
+	/**
+	 * Returns false (no value is ever pruned).
+	 */
+	@Override
+	public boolean hasValuesBelow(double frequencyThreshold) {
+		return false;
+	}
+
 	// ===================================
 	// GETTERS
 	// ===================================
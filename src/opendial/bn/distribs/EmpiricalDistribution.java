@@ -31,7 +31,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 
 import opendial.bn.distribs.ConditionalTable.Builder;
@@ -40,6 +39,7 @@ import opendial.bn.values.ArrayVal;
 import opendial.bn.values.DoubleVal;
 import opendial.bn.values.Value;
 import opendial.datastructs.Assignment;
+import opendial.utils.RandomUtils;
 
 /**
  * Distribution defined "empirically" in terms of a set of samples on a collection of
@@ -57,9 +57,6 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	// list of samples for the empirical distribution
 	protected List<Assignment> samples;
 
-	// random sampler
-	Random sampler;
-
 	// cache for the discrete and continuous distributions
 	MultivariateTable discreteCache;
 	ContinuousDistribution continuousCache;
@@ -77,7 +74,6 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	public EmpiricalDistribution() {
 		this.samples = new ArrayList<Assignment>();
 		this.variables = new HashSet<String>();
-		sampler = new Random();
 	}
 
 	/**
@@ -132,7 +128,7 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	public Assignment sample() {
 
 		if (!samples.isEmpty()) {
-			int selection = sampler.nextInt(samples.size());
+			int selection = RandomUtils.getRandom().nextInt(samples.size());
 			Assignment selected = samples.get(selection);
 			return selected;
 		}
@@ -108,6 +108,18 @@ public interface ProbDistribution {
 	 */
 	public boolean pruneValues(double threshold);
 
+	/**
+	 * Returns true if pruning the values below the given threshold would remove at
+	 * least one value, and false otherwise. The distribution itself is not
+	 * modified. By default, the pruning is tested on a copy of the distribution.
+	 * 
+	 * @param threshold the threshold to apply for the pruning
+	 * @return true if at least one value would be removed, false otherwise
+	 */
+	public default boolean hasValuesBelow(double threshold) {
+		return copy().pruneValues(threshold);
+	}
+
 	/**
 	 * Creates a copy of the probability distribution
 	 * 
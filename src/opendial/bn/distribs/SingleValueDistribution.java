@@ -88,6 +88,14 @@ public class SingleValueDistribution implements IndependentDistribution {
 		return false;
 	}
 
+	/**
+	 * Returns false (no value is ever pruned)
+	 */
+	@Override
+	public boolean hasValuesBelow(double threshold) {
+		return false;
+	}
+
 	/**
 	 * Modifies the variable label
 	 * 
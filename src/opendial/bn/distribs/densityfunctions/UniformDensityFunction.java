@@ -29,9 +29,9 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
 import opendial.bn.values.ValueFactory;
+import opendial.utils.RandomUtils;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
@@ -54,9 +54,6 @@ public class UniformDensityFunction implements DensityFunction {
 	// maximum threshold
 	final double maximum;
 
-	// sampler
-	static final Random sampler = new Random();
-
 	/**
 	 * Creates a new uniform density function with the given minimum and maximum
 	 * threshold
@@ -93,7 +90,8 @@ public class UniformDensityFunction implements DensityFunction {
 	@Override
 	public double[] sample() {
 		double length = maximum - minimum;
-		return new double[] { sampler.nextFloat() * length + minimum };
+		return new double[] {
+				RandomUtils.getRandom().nextDouble() * length + minimum };
 	}
 
 	/**
@@ -27,12 +27,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -71,6 +73,15 @@ public abstract class BNode implements Comparable<BNode> {
 	// Graphical model in which the node is included (can be null)
 	BNetwork network;
 
+	// global counter used to stamp the modifications of the nodes
+	private static final AtomicLong clock = new AtomicLong();
+
+	// stamp of the last modification of the node
+	private volatile long version = clock.incrementAndGet();
+
+	// stamp of the last modification of the node identifier or relations
+	private volatile long structureVersion = version;
+
 	// ===================================
 	// NODE CONSTRUCTION
 	// ===================================
@@ -210,6 +221,7 @@ public abstract class BNode implements Comparable<BNode> {
 		if (network != null) {
 			network.modifyVariableId(oldNodeId, newNodeId);
 		}
+		touchStructure();
 	}
 
 	/**
@@ -222,6 +234,31 @@ public abstract class BNode implements Comparable<BNode> {
 		this.network = network;
 	}
 
+	/**
+	 * Marks the node as modified. The method must be called whenever the relations
+	 * or the content of the node are changed, and also informs the network in which
+	 * the node is included.
+	 */
+	protected void touch() {
+		version = clock.incrementAndGet();
+		if (network != null) {
+			network.touch();
+		}
+	}
+
+	/**
+	 * Marks the identifier or the relations of the node as modified. In addition
+	 * to {@link #touch()}, the method invalidates the node ordering cached in the
+	 * network.
+	 */
+	protected void touchStructure() {
+		touch();
+		structureVersion = version;
+		if (network != null) {
+			network.touchStructure();
+		}
+	}
+
 	// ===================================
 	// GETTERS
 	// ===================================
@@ -235,6 +272,26 @@ public abstract class BNode implements Comparable<BNode> {
 		return nodeId;
 	}
 
+	/**
+	 * Returns the stamp of the last modification of the node. The stamps are
+	 * strictly increasing across all nodes.
+	 * 
+	 * @return the modification stamp
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the stamp of the last modification of the node identifier or of its
+	 * relations with other nodes.
+	 * 
+	 * @return the structural modification stamp
+	 */
+	public long getStructureVersion() {
+		return structureVersion;
+	}
+
 	/**
 	 * Returns true if the node contains an input node identified by the given id,
 	 * and false otherwise.
@@ -337,7 +394,7 @@ public abstract class BNode implements Comparable<BNode> {
 	 * @return an ordered list of ancestors for the node
 	 */
 	public List<BNode> getAncestors() {
-		List<BNode> ancestors = new ArrayList<BNode>();
+		Set<BNode> ancestors = new LinkedHashSet<BNode>();
 
 		Queue<BNode> nodesToProcess = new LinkedList<BNode>();
 		nodesToProcess.add(this);
@@ -347,15 +404,12 @@ public abstract class BNode implements Comparable<BNode> {
 		while (!nodesToProcess.isEmpty()) {
 			BNode currentNode = nodesToProcess.poll();
 			for (BNode ancestorNode : currentNode.getInputNodes()) {
-				if (!ancestors.contains(ancestorNode)) {
-					ancestors.add(ancestorNode);
-				}
-				if (!nodesToProcess.contains(ancestorNode)) {
+				if (ancestors.add(ancestorNode)) {
 					nodesToProcess.add(ancestorNode);
 				}
 			}
 		}
-		return ancestors;
+		return new ArrayList<BNode>(ancestors);
 	}
 
 	/**
@@ -431,7 +485,7 @@ public abstract class BNode implements Comparable<BNode> {
 	 * @return an ordered list of descendants for the node
 	 */
 	public List<BNode> getDescendants() {
-		List<BNode> descendants = new ArrayList<BNode>();
+		Set<BNode> descendants = new LinkedHashSet<BNode>();
 
 		Queue<BNode> nodesToProcess = new LinkedList<BNode>();
 		nodesToProcess.add(this);
@@ -441,15 +495,12 @@ public abstract class BNode implements Comparable<BNode> {
 		while (!nodesToProcess.isEmpty()) {
 			BNode currentNode = nodesToProcess.poll();
 			for (BNode descendantNode : currentNode.getOutputNodes()) {
-				if (!descendants.contains(descendantNode)) {
-					descendants.add(descendantNode);
-				}
-				if (!nodesToProcess.contains(descendantNode)) {
+				if (descendants.add(descendantNode)) {
 					nodesToProcess.add(descendantNode);
 				}
 			}
 		}
-		return descendants;
+		return new ArrayList<BNode>(descendants);
 	}
 
 	/**
@@ -478,6 +529,7 @@ public abstract class BNode implements Comparable<BNode> {
 
 		Queue<BNode> nodesToProcess = new LinkedList<BNode>();
 		nodesToProcess.add(this);
+		Set<BNode> visited = new HashSet<BNode>();
 
 		// NB: we try to avoid recursion for efficiency reasons, and
 		// use a while loop instead
@@ -487,7 +539,7 @@ public abstract class BNode implements Comparable<BNode> {
 				if (variables.contains(descendantNode.getId())) {
 					return true;
 				}
-				if (!nodesToProcess.contains(descendantNode)) {
+				if (visited.add(descendantNode)) {
 					nodesToProcess.add(descendantNode);
 				}
 			}
@@ -507,6 +559,7 @@ public abstract class BNode implements Comparable<BNode> {
 
 		Queue<BNode> nodesToProcess = new LinkedList<BNode>();
 		nodesToProcess.add(this);
+		Set<BNode> visited = new HashSet<BNode>();
 
 		// NB: we try to avoid recursion for efficiency reasons, and
 		// use a while loop instead
@@ -516,7 +569,7 @@ public abstract class BNode implements Comparable<BNode> {
 				if (variables.contains(ancestorNode.getId())) {
 					return true;
 				}
-				if (!nodesToProcess.contains(ancestorNode)) {
+				if (visited.add(ancestorNode)) {
 					nodesToProcess.add(ancestorNode);
 				}
 			}
@@ -536,6 +589,7 @@ public abstract class BNode implements Comparable<BNode> {
 
 		Queue<BNode> nodesToProcess = new LinkedList<BNode>();
 		nodesToProcess.add(this);
+		Set<BNode> visited = new HashSet<BNode>();
 
 		// NB: we try to avoid recursion for efficiency reasons, and
 		// use a while loop instead
@@ -546,7 +600,7 @@ public abstract class BNode implements Comparable<BNode> {
 				if (matcher.matches()) {
 					return true;
 				}
-				if (!nodesToProcess.contains(descendantNode)) {
+				if (visited.add(descendantNode)) {
 					nodesToProcess.add(descendantNode);
 				}
 			}
@@ -791,6 +845,7 @@ public abstract class BNode implements Comparable<BNode> {
 					+ " already included in the input nodes of " + nodeId);
 		}
 		inputNodes.put(inputNode.getId(), inputNode);
+		touchStructure();
 	}
 
 	/**
@@ -807,11 +862,13 @@ public abstract class BNode implements Comparable<BNode> {
 		}
 		else {
 			outputNodes.put(outputNode.getId(), outputNode);
+			touchStructure();
 		}
 	}
 
 	protected boolean removeInputNode_internal(String inputNodeId) {
 		BNode inputNode = inputNodes.remove(inputNodeId);
+		touchStructure();
 		return (inputNode != null);
 	}
 
@@ -829,6 +886,7 @@ public abstract class BNode implements Comparable<BNode> {
 					"node " + outputNodeId + " is not an output node for " + nodeId);
 		}
 		BNode outputNode = outputNodes.remove(outputNodeId);
+		touchStructure();
 		return (outputNode != null);
 	}
 
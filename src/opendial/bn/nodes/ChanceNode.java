@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import opendial.Settings;
@@ -58,6 +59,10 @@ public class ChanceNode extends BNode {
 	// a discretisation procedure defined by the distribution
 	protected Set<Value> cachedValues;
 
+	// number of nodes (this node and its copies) sharing the distribution. If the
+	// distribution is shared, it must be copied before any in-place modification
+	protected AtomicInteger distribShares = new AtomicInteger(1);
+
 	// ===================================
 	// NODE CONSTRUCTION
 	// ===================================
@@ -94,10 +99,12 @@ public class ChanceNode extends BNode {
 	 */
 	public void setDistrib(ProbDistribution distrib) {
 		this.distrib = distrib;
+		releaseDistrib();
 		if (!distrib.getVariable().equals(nodeId)) {
 			log.warning(nodeId + "  != " + distrib.getVariable());
 		}
 		cachedValues = null;
+		touch();
 	}
 
 	/**
@@ -120,17 +127,21 @@ public class ChanceNode extends BNode {
 		// log.fine("changing id from " + this.nodeId + " to " + nodeId);
 		String oldId = nodeId;
 		super.setId(newId);
-		distrib.modifyVariableId(oldId, newId);
+		getModifiableDistrib().modifyVariableId(oldId, newId);
 	}
 
 	/**
-	 * Prune the values with a probability below a given threshold
+	 * Prune the values with a probability below a given threshold. If the
+	 * distribution is shared with copies of the node, it is only replaced by a
+	 * private copy if some values are actually pruned.
 	 * 
 	 * @param threshold the probability threshold
 	 */
 	public void pruneValues(double threshold) {
-		if (distrib.pruneValues(threshold)) {
+		if ((!isDistribShared() || distrib.hasValuesBelow(threshold))
+				&& getModifiableDistrib().pruneValues(threshold)) {
 			cachedValues = null;
+			touch();
 		}
 	}
 
@@ -278,6 +289,31 @@ public class ChanceNode extends BNode {
 		return distrib;
 	}
 
+	/**
+	 * Returns the probability distribution attached to the node, in view of an
+	 * in-place modification. If the distribution is shared with copies of the
+	 * node, it is first replaced by a private copy.
+	 * 
+	 * @return the (modifiable) distribution
+	 */
+	public ProbDistribution getModifiableDistrib() {
+		if (isDistribShared()) {
+			distrib = distrib.copy();
+			releaseDistrib();
+		}
+		return distrib;
+	}
+
+	/**
+	 * Returns true if the distribution is shared with copies of the node, and false
+	 * otherwise.
+	 * 
+	 * @return true if the distribution is shared, false otherwise
+	 */
+	public boolean isDistribShared() {
+		return distribShares.get() > 1;
+	}
+
 	/**
 	 * Returns the "factor matrix" mapping assignments of conditional variables + the
 	 * node variable to a probability value.
@@ -307,13 +343,16 @@ public class ChanceNode extends BNode {
 
 	/**
 	 * Returns a copy of the node. Note that only the node content is copied, not its
-	 * connection with other nodes.
+	 * connection with other nodes. The distribution is shared between the node and
+	 * its copy, and is only copied when one of them modifies it.
 	 *
 	 * @return the copy
 	 */
 	@Override
 	public ChanceNode copy() {
-		ChanceNode cn = new ChanceNode(nodeId, distrib.copy());
+		ChanceNode cn = new ChanceNode(nodeId, distrib);
+		distribShares.incrementAndGet();
+		cn.distribShares = distribShares;
 		if (cachedValues != null) {
 			cn.cachedValues = new HashSet<Value>(cachedValues);
 		}
@@ -343,10 +382,26 @@ public class ChanceNode extends BNode {
 	// PRIVATE AND PROTECTED METHODS
 	// ===================================
 
+	/**
+	 * Stops sharing the distribution with the copies of the node (which are then
+	 * free to modify it, if no other node shares it).
+	 */
+	private void releaseDistrib() {
+		if (distribShares.get() > 1) {
+			distribShares.decrementAndGet();
+			distribShares = new AtomicInteger(1);
+		}
+	}
+
 	@Override
 	protected void modifyVariableId(String oldId, String newId) {
 		super.modifyVariableId(oldId, newId);
-		distrib.modifyVariableId(oldId, newId);
+		// a shared distribution is only copied if it refers to the variable (that
+		// is, if the variable is the node itself or one of its input nodes)
+		if (!isDistribShared() || nodeId.equals(newId)
+				|| getInputNodeIds().contains(newId)) {
+			getModifiableDistrib().modifyVariableId(oldId, newId);
+		}
 	}
 
 }
@@ -49,6 +49,10 @@ public class UtilityNode extends BNode {
 	// the utility distribution
 	protected UtilityFunction distrib;
 
+	// whether the utility function is shared with copies of the node (in which
+	// case it must be copied before any in-place modification)
+	protected boolean sharedDistrib = false;
+
 	// ===================================
 	// NODE CONSTRUCTION
 	// ===================================
@@ -83,7 +87,8 @@ public class UtilityNode extends BNode {
 	 */
 	public void addUtility(Assignment input, double value) {
 		if (distrib instanceof UtilityTable) {
-			((UtilityTable) distrib).setUtil(input, value);
+			((UtilityTable) getModifiableFunction()).setUtil(input, value);
+			touch();
 		}
 		else {
 			log.warning("utility distribution is not a table, cannot add value");
@@ -97,7 +102,8 @@ public class UtilityNode extends BNode {
 	 */
 	public void removeUtility(Assignment input) {
 		if (distrib instanceof UtilityTable) {
-			((UtilityTable) distrib).removeUtil(input);
+			((UtilityTable) getModifiableFunction()).removeUtil(input);
+			touch();
 		}
 		else {
 			log.warning("utility distribution is not a table, cannot remove value");
@@ -106,12 +112,14 @@ public class UtilityNode extends BNode {
 
 	public void setDistrib(UtilityFunction distrib) {
 		this.distrib = distrib;
+		sharedDistrib = false;
+		touch();
 	}
 
 	@Override
 	public void setId(String newId) {
 		super.setId(newId);
-		distrib.modifyVariableId(this.nodeId, newId);
+		getModifiableFunction().modifyVariableId(this.nodeId, newId);
 	}
 
 	// ===================================
@@ -148,6 +156,21 @@ public class UtilityNode extends BNode {
 		return distrib;
 	}
 
+	/**
+	 * Returns the utility distribution, in view of an in-place modification. If
+	 * the distribution is shared with copies of the node, it is first replaced by a
+	 * private copy.
+	 * 
+	 * @return the (modifiable) utility distribution
+	 */
+	public UtilityFunction getModifiableFunction() {
+		if (sharedDistrib) {
+			distrib = distrib.copy();
+			sharedDistrib = false;
+		}
+		return distrib;
+	}
+
 	/**
 	 * Returns the factor matrix associated with the utility node, which maps an
 	 * assignment of input variable to a given utility.
@@ -172,13 +195,17 @@ public class UtilityNode extends BNode {
 
 	/**
 	 * Returns a copy of the utility node. Note that only the node content is copied,
-	 * not its connection with other nodes.
+	 * not its connection with other nodes. The utility distribution is shared
+	 * between the node and its copy, and is only copied when one of them modifies
+	 * it.
 	 * 
 	 * @return the copy
 	 */
 	@Override
 	public UtilityNode copy() {
-		UtilityNode copy = new UtilityNode(nodeId, distrib.copy());
+		UtilityNode copy = new UtilityNode(nodeId, distrib);
+		copy.sharedDistrib = true;
+		sharedDistrib = true;
 		return copy;
 	}
 
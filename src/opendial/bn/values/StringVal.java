@@ -53,9 +53,26 @@ public final class StringVal implements Value {
 	 */
 	public StringVal(String str) {
 		this.str = str;
-		hashcode = str.toLowerCase().hashCode();
+		hashcode = hashIgnoreCase(str);
 	};
 
+	/**
+	 * Returns a case-insensitive hash code for the string, computed character by
+	 * character without creating a lowercased copy of the string (for ASCII
+	 * strings, the hash is identical to the hash of the lowercased string).
+	 * 
+	 * @param str the string
+	 * @return the case-insensitive hash code
+	 */
+	private static int hashIgnoreCase(String str) {
+		int hash = 0;
+		for (int i = 0; i < str.length(); i++) {
+			char c = Character.toLowerCase(Character.toUpperCase(str.charAt(i)));
+			hash = 31 * hash + c;
+		}
+		return hash;
+	}
+
 	/**
 	 * Returns the hashcode for the string
 	 *
@@ -74,7 +91,10 @@ public final class StringVal implements Value {
 	 */
 	@Override
 	public boolean equals(Object o) {
-		if (o instanceof StringVal) {
+		if (o == this) {
+			return true;
+		}
+		else if (o instanceof StringVal) {
 			StringVal stringval = (StringVal) o;
 			if (stringval.str.equalsIgnoreCase(str)) {
 				return true;
@@ -29,6 +29,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,6 +48,17 @@ public class ValueFactory {
 	// none value (no need to recreate one everytime)
 	static final NoneVal noneValue = new NoneVal();
 
+	// boolean values (likewise)
+	static final BooleanVal trueValue = new BooleanVal(true);
+	static final BooleanVal falseValue = new BooleanVal(false);
+
+	// maximum number of string representations in the cache of values
+	public static int MAX_CACHE_SIZE = 10000;
+
+	// cache of the values created from string representations (only for
+	// immutable values, i.e. strings, doubles, booleans and none)
+	static final Map<String, Value> cache = new ConcurrentHashMap<String, Value>();
+
 	// pattern to find a double value
 	public static Pattern doublePattern =
 			Pattern.compile("[-+]?[0-9]*\\.?[0-9]+([eE][-+]?[0-9]+)?");
@@ -65,6 +78,11 @@ public class ValueFactory {
 	 * contains a numeric value, "true", "false", "None", or opening and closing
 	 * brackets, convert it to the appropriate values. Else, returns a string value.
 	 * 
+	 * <p>
+	 * Immutable values (strings, doubles, booleans and none) are interned: creating
+	 * a value twice from the same string returns the same canonical instance. The
+	 * cache is bounded by MAX_CACHE_SIZE (and emptied once this size is reached).
+	 * 
 	 * @param str the string representation for the value
 	 * @return the resulting value
 	 */
@@ -74,15 +92,36 @@ public class ValueFactory {
 			return noneValue;
 		}
 
+		Value value = cache.get(str);
+		if (value == null) {
+			value = parse(str);
+			if (!(value instanceof SetVal) && !(value instanceof ArrayVal)) {
+				if (cache.size() >= MAX_CACHE_SIZE) {
+					cache.clear();
+				}
+				cache.put(str, value);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Parses the string representation of the value (cf. method above).
+	 * 
+	 * @param str the string representation for the value
+	 * @return the resulting value
+	 */
+	private static Value parse(String str) {
+
 		Matcher m = doublePattern.matcher(str);
 		if (m.matches()) {
 			return new DoubleVal(Double.parseDouble(str));
 		}
 		else if (str.equalsIgnoreCase("true")) {
-			return new BooleanVal(true);
+			return trueValue;
 		}
 		else if (str.equalsIgnoreCase("false")) {
-			return new BooleanVal(false);
+			return falseValue;
 		}
 		else if (str.equalsIgnoreCase("None")) {
 			return none();
@@ -136,7 +175,7 @@ public class ValueFactory {
 	 * @return the double
 	 */
 	public static BooleanVal create(boolean b) {
-		return new BooleanVal(b);
+		return (b) ? trueValue : falseValue;
 	}
 
 	/**
@@ -78,6 +78,18 @@ public class Assignment {
 		map = new HashMap<String, Value>();
 	}
 
+	/**
+	 * Creates an assignment backed by the given map (which is not copied). Used by
+	 * the subclasses relying on a specific map encoding.
+	 * 
+	 * @param map the map encoding the assignment
+	 * @param hash the hash code for the map
+	 */
+	Assignment(Map<String, Value> map, int hash) {
+		this.map = map;
+		this.cachedHash = hash;
+	}
+
 	/**
 	 * Creates a copy of the assignment
 	 * 
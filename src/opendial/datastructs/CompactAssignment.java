@@ -0,0 +1,301 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.datastructs;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import opendial.bn.values.Value;
+
+/**
+ * Immutable assignment encoded in a compact form: the variables are interned to
+ * integer identifiers (see {@link SymbolTable}) and sorted, and each value is
+ * associated with an integer code specific to its variable. The hash code is
+ * computed once at construction. Equality between two compact assignments thus
+ * reduces to the comparison of integer arrays, which makes them well suited as
+ * keys for caches and lookup tables. The compact assignment holds the symbols of
+ * its variables, which are thus kept in the symbol table as long as the assignment
+ * is in use. Variables that could not be registered in the symbol table (once its
+ * maximum size is reached) receive the identifier -1, and are compared through
+ * their labels.
+ * 
+ * <p>
+ * A compact assignment can be used wherever an assignment is expected (it is
+ * equal to, and has the same hash code as, the mutable assignment with the same
+ * pairs). However, all attempts to modify it will throw an
+ * UnsupportedOperationException. The method copy() returns a mutable assignment.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public final class CompactAssignment extends Assignment {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// the variable labels
+	final String[] variables;
+
+	// the variable symbols (null if the variable could not be registered)
+	final SymbolTable.Symbol[] symbols;
+
+	// the variable identifiers (in increasing order)
+	final int[] ids;
+
+	// the value codes (-1 if the value could not be interned)
+	final int[] codes;
+
+	// the values themselves
+	final Value[] values;
+
+	// the hash code for the assignment
+	final int hash;
+
+	/**
+	 * Creates a new compact assignment (use the static method of() instead)
+	 * 
+	 * @param map the underlying map for the pairs
+	 */
+	private CompactAssignment(PairMap map) {
+		super(map, map.hash);
+		this.variables = map.variables;
+		this.symbols = map.symbols;
+		this.ids = map.ids;
+		this.codes = map.codes;
+		this.values = map.values;
+		this.hash = map.hash;
+	}
+
+	/**
+	 * Returns the compact version of the assignment. If the assignment is already
+	 * compact, it is returned as such.
+	 * 
+	 * @param a the assignment
+	 * @return the corresponding compact assignment
+	 */
+	public static CompactAssignment of(Assignment a) {
+		if (a instanceof CompactAssignment) {
+			return (CompactAssignment) a;
+		}
+		int size = a.size();
+		String[] variables = new String[size];
+		SymbolTable.Symbol[] symbols = new SymbolTable.Symbol[size];
+		int[] ids = new int[size];
+		Value[] values = new Value[size];
+		int nb = 0;
+		for (Map.Entry<String, Value> pair : a.map.entrySet()) {
+
+			// insertion sort on the identifiers (assignments are generally small),
+			// and on the labels for the unregistered variables
+			SymbolTable.Symbol symbol = SymbolTable.getSymbol(pair.getKey());
+			int id = (symbol != null) ? symbol.getId() : -1;
+			int pos = nb++;
+			while (pos > 0 && (ids[pos - 1] > id || (id < 0 && ids[pos - 1] < 0
+					&& variables[pos - 1].compareTo(pair.getKey()) > 0))) {
+				ids[pos] = ids[pos - 1];
+				symbols[pos] = symbols[pos - 1];
+				variables[pos] = variables[pos - 1];
+				values[pos] = values[pos - 1];
+				pos--;
+			}
+			ids[pos] = id;
+			symbols[pos] = symbol;
+			variables[pos] = pair.getKey();
+			values[pos] = pair.getValue();
+		}
+		int[] codes = new int[size];
+		int hash = 0;
+		for (int i = 0; i < size; i++) {
+			codes[i] = (symbols[i] != null) ? symbols[i].getCode(values[i]) : -1;
+			hash += variables[i].hashCode() ^ Objects.hashCode(values[i]);
+		}
+		return new CompactAssignment(
+				new PairMap(variables, symbols, ids, values, codes, hash));
+	}
+
+	/**
+	 * Returns the hash code (computed at construction)
+	 * 
+	 * @return the hash code
+	 */
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	/**
+	 * Returns true if the object is an assignment with the same pairs. For two
+	 * compact assignments, the comparison is performed on the identifiers and
+	 * codes (or on the pairs themselves if one of the assignments includes
+	 * unregistered variables, which may have been registered for the other).
+	 * 
+	 * @param o the object to compare
+	 * @return true if the assignments are equal, false otherwise
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		else if (o instanceof CompactAssignment) {
+			CompactAssignment other = (CompactAssignment) o;
+			if (hash != other.hash) {
+				return false;
+			}
+			else if (!Arrays.equals(ids, other.ids)) {
+				return ids.length > 0 && (ids[0] < 0 || other.ids[0] < 0)
+						&& super.equals(o);
+			}
+			for (int i = 0; i < ids.length; i++) {
+				if (ids[i] < 0 && !variables[i].equals(other.variables[i])) {
+					return false;
+				}
+				else if (codes[i] >= 0 && other.codes[i] >= 0) {
+					if (codes[i] != other.codes[i]) {
+						return false;
+					}
+				}
+				else if (!Objects.equals(values[i], other.values[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return super.equals(o);
+	}
+
+	/**
+	 * Immutable map over the sorted arrays of variables and values.
+	 */
+	private static final class PairMap extends AbstractMap<String, Value> {
+
+		final String[] variables;
+		final SymbolTable.Symbol[] symbols;
+		final int[] ids;
+		final Value[] values;
+		final int[] codes;
+		final int hash;
+
+		PairMap(String[] variables, SymbolTable.Symbol[] symbols, int[] ids,
+				Value[] values, int[] codes, int hash) {
+			this.variables = variables;
+			this.symbols = symbols;
+			this.ids = ids;
+			this.values = values;
+			this.codes = codes;
+			this.hash = hash;
+		}
+
+		/**
+		 * Returns the position of the variable in the arrays, or -1 if the
+		 * variable is absent. The unregistered variables (which are placed first)
+		 * are searched by their labels, as well as the variables that were only
+		 * registered after the creation of the assignment.
+		 * 
+		 * @param key the variable
+		 * @return the position of the variable
+		 */
+		private int indexOf(Object key) {
+			if (!(key instanceof String)) {
+				return -1;
+			}
+			SymbolTable.Symbol symbol = SymbolTable.lookup((String) key);
+			if (symbol != null) {
+				int index = Arrays.binarySearch(ids, symbol.getId());
+				if (index >= 0 && symbols[index] == symbol) {
+					return index;
+				}
+			}
+			for (int i = 0; i < ids.length && ids[i] < 0; i++) {
+				if (variables[i].equals(key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public Value get(Object key) {
+			int index = indexOf(key);
+			return (index >= 0) ? values[index] : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return indexOf(key) >= 0;
+		}
+
+		@Override
+		public int size() {
+			return ids.length;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public Set<Map.Entry<String, Value>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Value>>() {
+
+				@Override
+				public Iterator<Map.Entry<String, Value>> iterator() {
+					return new Iterator<Map.Entry<String, Value>>() {
+						int index = 0;
+
+						@Override
+						public boolean hasNext() {
+							return index < ids.length;
+						}
+
+						@Override
+						public Map.Entry<String, Value> next() {
+							if (index >= ids.length) {
+								throw new NoSuchElementException();
+							}
+							Map.Entry<String, Value> entry =
+									new SimpleImmutableEntry<String, Value>(
+											variables[index], values[index]);
+							index++;
+							return entry;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return ids.length;
+				}
+			};
+		}
+	}
+}
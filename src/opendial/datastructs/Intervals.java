@@ -27,9 +27,10 @@ import java.util.logging.*;
 
 import java.util.Collection;
 import java.util.Map;
-import java.util.Random;
 import java.util.function.Function;
 
+import opendial.utils.RandomUtils;
+
 /**
  * Representation of a collection of intervals, each of which is associated with a
  * content object, and start and end values. The difference between the start and end
@@ -50,9 +51,6 @@ public class Intervals<T> {
 	// the intervals
 	final Interval<T>[] intervals;
 
-	// sampler for the interval collection
-	final static Random sampler = new Random();
-
 	// total probability for the table
 	final double totalProb;
 
@@ -126,7 +124,7 @@ public class Intervals<T> {
 			throw new RuntimeException("could not sample: empty interval");
 		}
 
-		double rand = sampler.nextDouble() * totalProb;
+		double rand = RandomUtils.getRandom().nextDouble() * totalProb;
 
 		int min = 0;
 		int max = intervals.length;
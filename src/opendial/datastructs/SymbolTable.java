@@ -0,0 +1,242 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.datastructs;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import opendial.bn.values.Value;
+
+/**
+ * Global table of symbols, mapping each variable label to a symbol with a unique
+ * integer identifier, and each value of a given variable to a unique integer code.
+ * The identifiers and codes are used by compact assignments to speed up the hashing
+ * and comparison of assignments.
+ * 
+ * <p>
+ * The table is shared by all dialogue systems running in the same JVM, and can be
+ * safely accessed from multiple threads. The symbols are only weakly referenced by
+ * the table: a symbol (and its interned values) is kept as long as it is used by a
+ * compact assignment, and is removed from the table once it is garbage collected.
+ * Its identifier can then be reused for a new variable. The number of symbols
+ * simultaneously in use is limited by MAX_VARIABLES, and the number of values that
+ * can be interned for a given variable by MAX_VALUES_PER_VARIABLE. Variables beyond
+ * this limit receive no symbol, and values beyond this limit (and null values)
+ * receive the code -1.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public final class SymbolTable {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// maximum number of variables registered in the table
+	public static int MAX_VARIABLES = 100000;
+
+	// maximum number of values interned for each variable
+	public static int MAX_VALUES_PER_VARIABLE = 1000;
+
+	// mapping from variable labels to (weak references to) their symbol
+	private static final Map<String, SymbolRef> symbols =
+			new ConcurrentHashMap<String, SymbolRef>();
+
+	// queue of the references whose symbols have been garbage collected
+	private static final ReferenceQueue<Symbol> collected =
+			new ReferenceQueue<Symbol>();
+
+	// identifiers released by the collected symbols
+	private static final Deque<Integer> freeIds = new ArrayDeque<Integer>();
+
+	// next identifier (if no released identifier is available)
+	private static int nextId = 0;
+
+	/**
+	 * Returns the symbol for the variable label, registering the label if it is not
+	 * yet present in the table. If the maximum number of variables has been
+	 * reached, the method returns null.
+	 * 
+	 * @param variable the variable label
+	 * @return the corresponding symbol, or null if the variable could not be
+	 *         registered
+	 */
+	public static Symbol getSymbol(String variable) {
+		Symbol symbol = lookup(variable);
+		return (symbol != null) ? symbol : register(variable);
+	}
+
+	/**
+	 * Returns the symbol for the variable label if the label is already registered,
+	 * and null otherwise.
+	 * 
+	 * @param variable the variable label
+	 * @return the corresponding symbol, or null if the variable is unknown
+	 */
+	public static Symbol lookup(String variable) {
+		SymbolRef ref = symbols.get(variable);
+		return (ref != null) ? ref.get() : null;
+	}
+
+	/**
+	 * Returns the number of variables registered in the table (and not yet
+	 * garbage collected)
+	 * 
+	 * @return the number of variables
+	 */
+	public static synchronized int getNbVariables() {
+		expunge();
+		return nextId - freeIds.size();
+	}
+
+	/**
+	 * Registers a new variable in the table (if it is not already present). If the
+	 * maximum number of variables has been reached, the method returns null.
+	 * 
+	 * @param variable the variable label
+	 * @return the corresponding symbol, or null if the table is full
+	 */
+	private static synchronized Symbol register(String variable) {
+		Symbol symbol = lookup(variable);
+		if (symbol == null) {
+			expunge();
+			if (nextId - freeIds.size() >= MAX_VARIABLES) {
+				return null;
+			}
+			int id = (!freeIds.isEmpty()) ? freeIds.poll() : nextId++;
+			symbol = new Symbol(variable, id);
+			symbols.put(variable, new SymbolRef(symbol));
+		}
+		return symbol;
+	}
+
+	/**
+	 * Removes the collected symbols from the table, and releases their identifiers.
+	 */
+	private static void expunge() {
+		SymbolRef ref;
+		while ((ref = (SymbolRef) collected.poll()) != null) {
+			symbols.remove(ref.variable, ref);
+			freeIds.add(ref.id);
+		}
+	}
+
+	/**
+	 * Weak reference to a symbol, with the label and identifier of its variable.
+	 */
+	private static final class SymbolRef extends WeakReference<Symbol> {
+
+		final String variable;
+		final int id;
+
+		SymbolRef(Symbol symbol) {
+			super(symbol, collected);
+			this.variable = symbol.variable;
+			this.id = symbol.id;
+		}
+	}
+
+	/**
+	 * Entry for a variable in the table, with its identifier and the list of
+	 * interned values.
+	 */
+	public static final class Symbol {
+
+		final String variable;
+		final int id;
+		final Map<Value, Integer> codes = new ConcurrentHashMap<Value, Integer>();
+		final List<Value> values = new ArrayList<Value>();
+
+		Symbol(String variable, int id) {
+			this.variable = variable;
+			this.id = id;
+		}
+
+		/**
+		 * Returns the variable label
+		 * 
+		 * @return the variable label
+		 */
+		public String getVariable() {
+			return variable;
+		}
+
+		/**
+		 * Returns the identifier of the variable (unique among the symbols in use)
+		 * 
+		 * @return the identifier
+		 */
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * Returns the code of the value, interning the value if it is not yet
+		 * present. If the maximum number of values for the variable has been
+		 * reached, the method returns -1.
+		 * 
+		 * @param value the value
+		 * @return the value code, or -1 if the value could not be interned
+		 */
+		public int getCode(Value value) {
+			if (value == null) {
+				return -1;
+			}
+			Integer code = codes.get(value);
+			if (code != null) {
+				return code;
+			}
+			synchronized (this) {
+				code = codes.get(value);
+				if (code != null) {
+					return code;
+				}
+				else if (values.size() >= MAX_VALUES_PER_VARIABLE) {
+					return -1;
+				}
+				code = values.size();
+				values.add(value);
+				codes.put(value, code);
+				return code;
+			}
+		}
+
+		/**
+		 * Returns the value associated with the code
+		 * 
+		 * @param code the value code
+		 * @return the corresponding value
+		 */
+		public synchronized Value getValue(int code) {
+			return values.get(code);
+		}
+	}
+}
@@ -27,6 +27,7 @@ import java.util.logging.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -71,6 +72,16 @@ public class Template {
 	// group number in the pattern
 	final Map<String, Integer> slots;
 
+	// literal words that must be present in any string matching the template
+	final String[] literals;
+
+	// recent results of full and partial matches (created upon first use)
+	Map<String, MatchResult> matchCache;
+	Map<String, List<MatchResult>> findCache;
+
+	// maximum number of match results to cache for each template
+	public static int MAX_CACHED_MATCHES = 100;
+
 	final static Pattern slotPattern = Pattern.compile("\\{(.+?)\\}");
 	final static Pattern trailPattern =
 			Pattern.compile("(?:^[\\.,\\s\\?]+)|(?:[\\.,\\s\\?]+$)");
@@ -100,6 +111,7 @@ public class Template {
 
 		underspecified = !slots.isEmpty() || pattern.toString().contains("(?:");
 
+		literals = (underspecified) ? extractLiterals(rawString) : new String[0];
 	}
 
 	protected Pattern getPattern() {
@@ -157,7 +169,21 @@ public class Template {
 				return new MatchResult();
 			}
 		}
+		else if (!containsLiterals(input)) {
+			return new MatchResult();
+		}
 
+		synchronized (this) {
+			if (matchCache == null) {
+				matchCache = createCache();
+			}
+			MatchResult cached = matchCache.get(input);
+			if (cached != null) {
+				return cached.copy();
+			}
+		}
+
+		MatchResult result = new MatchResult();
 		Matcher matcher = pattern.matcher(input);
 		if ((matcher.matches())) {
 
@@ -168,9 +194,12 @@ public class Template {
 				filledSlots.addPair(slot, filledValue);
 			}
 
-			return new MatchResult(matcher.start(), matcher.end(), filledSlots);
+			result = new MatchResult(matcher.start(), matcher.end(), filledSlots);
+		}
+		synchronized (this) {
+			matchCache.put(input, result.copy());
 		}
-		return new MatchResult();
+		return result;
 	}
 
 	/**
@@ -203,9 +232,25 @@ public class Template {
 	public List<MatchResult> find(String str, int maxResults) {
 
 		String input = str.trim();
-		Matcher matcher = pattern.matcher(input);
 		List<MatchResult> results = new ArrayList<MatchResult>();
-		while ((matcher.find())) {
+		if (!containsLiterals(input)) {
+			return results;
+		}
+
+		String key = maxResults + "|" + input;
+		synchronized (this) {
+			if (findCache == null) {
+				findCache = createCache();
+			}
+			List<MatchResult> cached = findCache.get(key);
+			if (cached != null) {
+				cached.stream().forEach(r -> results.add(r.copy()));
+				return results;
+			}
+		}
+
+		Matcher matcher = pattern.matcher(input);
+		while (results.size() < maxResults && matcher.find()) {
 			
 			if (!isValidMatch(input, matcher)) {
 				continue;
@@ -220,9 +265,11 @@ public class Template {
 			
 			MatchResult result = new MatchResult(matcher.start(), matcher.end(), filledSlots);
 			results.add(result);
-			if (results.size() >= maxResults) {
-				return results;
-			}
+		}
+		List<MatchResult> copies = new ArrayList<MatchResult>();
+		results.stream().forEach(r -> copies.add(r.copy()));
+		synchronized (this) {
+			findCache.put(key, copies);
 		}
 		return results;
 	}
@@ -385,6 +432,88 @@ public class Template {
 		return vars;
 	}
 
+	/**
+	 * Extracts the literal words of the raw string, i.e. the words that do not
+	 * contain any special character and are not part of a slot, an optional
+	 * element or a list of alternatives. All strings matching the template must
+	 * contain these words. If the raw string contains top-level alternatives, no
+	 * word is extracted.
+	 * 
+	 * @param str the raw string
+	 * @return the literal words
+	 */
+	private static String[] extractLiterals(String str) {
+		List<String> words = new ArrayList<String>();
+		StringBuilder word = new StringBuilder();
+		boolean isLiteral = true;
+		int depth = 0;
+		for (int i = 0; i <= str.length(); i++) {
+			char c = (i < str.length()) ? str.charAt(i) : ' ';
+			if (c == '(' || c == '{' || c == '[') {
+				depth++;
+			}
+			else if ((c == ')' || c == '}' || c == ']') && depth > 0) {
+				depth--;
+			}
+			else if (c == '|' && depth == 0) {
+				return new String[0];
+			}
+			if (Character.isWhitespace(c)) {
+				if (isLiteral && word.length() > 0) {
+					words.add(word.toString());
+				}
+				word.setLength(0);
+				isLiteral = true;
+			}
+			else if (depth == 0 && Character.isLetterOrDigit(c)) {
+				word.append(c);
+			}
+			else {
+				isLiteral = false;
+			}
+		}
+		return words.toArray(new String[words.size()]);
+	}
+
+	/**
+	 * Returns true if the input string contains all literal words of the template
+	 * (ignoring case), and false otherwise. The check is used to discard strings
+	 * that cannot match the template without running the regular expression.
+	 * 
+	 * @param input the input string
+	 * @return true if all literal words are present, else false
+	 */
+	private boolean containsLiterals(String input) {
+		for (String literal : literals) {
+			boolean found = false;
+			int last = input.length() - literal.length();
+			for (int i = 0; i <= last && !found; i++) {
+				found = input.regionMatches(true, i, literal, 0, literal.length());
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a bounded cache of match results, discarding the least recently used
+	 * entries when the maximum size is reached.
+	 * 
+	 * @return the cache
+	 */
+	private static <T> Map<String, T> createCache() {
+		return new LinkedHashMap<String, T>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+				return size() > MAX_CACHED_MATCHES;
+			}
+		};
+	}
+
 	public boolean isRawSlot() {
 		return slots.size() == 1
 				&& rawString.equals("{" + slots.keySet().iterator().next() + "}");
@@ -497,6 +626,19 @@ public class Template {
 			return boundaries;
 		}
 
+		/**
+		 * Returns a copy of the match result
+		 * 
+		 * @return the copy
+		 */
+		private MatchResult copy() {
+			MatchResult copy = new MatchResult();
+			copy.isMatching = isMatching;
+			copy.boundaries = boundaries.clone();
+			copy.filledSlots = new Assignment(filledSlots);
+			return copy;
+		}
+
 		/**
 		 * Returns the string representation for the matching result
 		 */
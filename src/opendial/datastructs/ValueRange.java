@@ -25,12 +25,16 @@ package opendial.datastructs;
 
 import java.util.logging.*;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.OptionalInt;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import opendial.bn.values.Value;
@@ -151,6 +155,49 @@ public class ValueRange {
 		return InferenceUtils.getAllCombinations(range);
 	}
 
+	/**
+	 * Enumerates all alternative assignments of values for the variables in the
+	 * range, without materialising them. The variables are assigned one by one
+	 * (starting with the ones with fewest values), and the partial assignments for
+	 * which the pruning test returns true are not expanded any further. Each full
+	 * assignment is passed (as a fresh copy) to the action.
+	 * 
+	 * @param prune the pruning test on partial assignments
+	 * @param action the action to perform on each full assignment
+	 */
+	public void forEachCombination(Predicate<Assignment> prune,
+			Consumer<Assignment> action) {
+		List<String> vars = new ArrayList<String>(range.keySet());
+		vars.sort((v1, v2) -> range.get(v1).size() - range.get(v2).size());
+		expand(vars, 0, new Assignment(), prune, action);
+	}
+
+	/**
+	 * Expands the partial assignment with the values of the variable at the given
+	 * position.
+	 * 
+	 * @param vars the ordered variables
+	 * @param pos the position of the variable to assign
+	 * @param partial the partial assignment
+	 * @param prune the pruning test on partial assignments
+	 * @param action the action to perform on each full assignment
+	 */
+	private void expand(List<String> vars, int pos, Assignment partial,
+			Predicate<Assignment> prune, Consumer<Assignment> action) {
+		if (pos == vars.size()) {
+			action.accept(new Assignment(partial));
+			return;
+		}
+		String var = vars.get(pos);
+		for (Value v : range.get(var)) {
+			partial.addPair(var, v);
+			if (!prune.test(partial)) {
+				expand(vars, pos + 1, partial, prune, action);
+			}
+		}
+		partial.removePair(var);
+	}
+
 	/**
 	 * Returns the estimated number (higher bound) of combinations for the value
 	 * range.
@@ -26,12 +26,13 @@ package opendial.domains;
 import java.io.File;
 import java.util.logging.*;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.List;
 
 import opendial.DialogueState;
 import opendial.Settings;
 import opendial.bn.BNetwork;
+import opendial.domains.rules.Rule;
 
 /**
  * Representation of a dialogue domain, composed of (1) an initial dialogue state and
@@ -55,7 +56,10 @@ public class Domain {
 	BNetwork parameters;
 
 	// list of models
-	List<Model> models;
+	ModelList models;
+
+	// index of the model triggers
+	TriggerIndex triggerIndex;
 
 	// settings
 	Settings settings;
@@ -65,7 +69,7 @@ public class Domain {
 	 */
 	public Domain() {
 		settings = new Settings();
-		models = new LinkedList<Model>();
+		models = new ModelList();
 		initState = new DialogueState();
 		parameters = new BNetwork();
 		importedFiles = new ArrayList<File>();
@@ -126,12 +130,15 @@ public class Domain {
 	}
 
 	/**
-	 * Adds a model to the domain
+	 * Adds a model to the domain, and compiles its rules
 	 * 
 	 * @param model the model to add
 	 */
 	public void addModel(Model model) {
 		models.add(model);
+		for (Rule rule : model.getRules()) {
+			rule.compile();
+		}
 	}
 
 	/**
@@ -152,6 +159,27 @@ public class Domain {
 		return models;
 	}
 
+	/**
+	 * Returns the models that are triggered by the updated variables, in their
+	 * declaration order. The models are retrieved from an index of the model
+	 * triggers, which is rebuilt whenever the list of models is modified or a
+	 * trigger is added to a model.
+	 * 
+	 * @param updatedVars the updated variables
+	 * @return the triggered models
+	 */
+	public List<Model> getTriggeredModels(Collection<String> updatedVars) {
+		TriggerIndex index = triggerIndex;
+		int modCount = models.getModCount();
+		long triggersVersion = Model.getTriggersVersion();
+		if (index == null || index.modCount != modCount
+				|| index.triggersVersion != triggersVersion) {
+			index = new TriggerIndex(models, modCount, triggersVersion);
+			triggerIndex = index;
+		}
+		return index.getTriggeredModels(updatedVars);
+	}
+
 	/**
 	 * Replaces the domain-specific settings
 	 * 
@@ -211,4 +239,36 @@ public class Domain {
 		return false;
 	}
 
+	/**
+	 * List of models that keeps track of its modifications, in order to detect when
+	 * the trigger index must be rebuilt.
+	 */
+	final static class ModelList extends ArrayList<Model> {
+
+		private static final long serialVersionUID = 1L;
+
+		// number of models replaced in the list (which is not a structural
+		// modification, and is thus not counted in modCount)
+		int replacements = 0;
+
+		/**
+		 * Replaces the model at the given position
+		 */
+		@Override
+		public Model set(int index, Model model) {
+			replacements++;
+			return super.set(index, model);
+		}
+
+		/**
+		 * Returns the number of modifications of the list (structural modifications
+		 * and replacements of models)
+		 * 
+		 * @return the number of modifications
+		 */
+		int getModCount() {
+			return modCount + replacements;
+		}
+	}
+
 }
@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import opendial.DialogueState;
 import opendial.datastructs.Template;
@@ -54,9 +55,15 @@ public class Model {
 	// counter for the model identifier, if not explicitly given
 	public static int idCounter = 0;
 
+	// whether to anchor the rules of the model in parallel
+	public static boolean PARALLEL_ANCHORING = true;
+
 	// triggers associated with the model
 	List<Template> triggers;
 
+	// global counter incremented each time a trigger is added to a model
+	private static final AtomicLong triggersVersion = new AtomicLong();
+
 	// collection of rules for the model
 	Collection<Rule> rules;
 
@@ -96,6 +103,7 @@ public class Model {
 	 */
 	public void addTrigger(String trigger) {
 		triggers.add(new Template(trigger));
+		triggersVersion.incrementAndGet();
 	}
 
 	/**
@@ -152,12 +160,17 @@ public class Model {
 
 	/**
 	 * Triggers the model with the given state and list of recently updated
-	 * variables.
+	 * variables. If the model contains several rules, these are anchored in
+	 * parallel (see DialogueState.applyRules).
 	 * 
 	 * @param state the current dialogue state
 	 * @return true if the state has been changed, false otherwise
 	 */
 	public boolean trigger(DialogueState state) {
+		if (PARALLEL_ANCHORING && rules.size() > 1) {
+			state.applyRules(rules);
+			return !state.getNewVariables().isEmpty();
+		}
 		for (Rule r : rules) {
 			try {
 				state.applyRule(r);
@@ -214,6 +227,17 @@ public class Model {
 		return false;
 	}
 
+	/**
+	 * Returns the global counter of trigger additions, which is incremented each
+	 * time a trigger is added to a model (and is used to detect when the trigger
+	 * index of a domain must be rebuilt).
+	 * 
+	 * @return the counter of trigger additions
+	 */
+	static long getTriggersVersion() {
+		return triggersVersion.get();
+	}
+
 	/**
 	 * Returns the model triggers
 	 * 
@@ -0,0 +1,156 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.domains;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.*;
+
+import opendial.datastructs.Template;
+
+/**
+ * Index of the model triggers of a domain, used to efficiently retrieve the models
+ * that are triggered by a set of updated variables. The index contains a hash
+ * table for the triggers that are fully specified variable labels, and a list of
+ * the underspecified triggers (with slots, wildcards or alternatives). The models
+ * triggered by each variable are cached, so that the retrieval operates in time
+ * linear in the number of updated variables.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+class TriggerIndex {
+
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// maximum number of variables for which the triggered models are cached
+	public static int MAX_CACHE_SIZE = 1000;
+
+	// the indexed models, in their declaration order
+	final List<Model> models;
+
+	// modification count of the list of models when the index was built
+	final int modCount;
+
+	// counter of trigger additions when the index was built
+	final long triggersVersion;
+
+	// indices of the models triggered by each (lowercased) variable label
+	final Map<String, BitSet> exactTriggers;
+
+	// underspecified triggers, with the indices of their models
+	final List<Template> templates;
+	final List<Integer> templateModels;
+
+	// cache of the models triggered by a given variable
+	final Map<String, BitSet> cache;
+
+	/**
+	 * Creates a new index for the models provided as argument
+	 * 
+	 * @param models the models to index
+	 * @param modCount the modification count of the list of models
+	 * @param triggersVersion the counter of trigger additions
+	 */
+	TriggerIndex(List<Model> models, int modCount, long triggersVersion) {
+		this.models = new ArrayList<Model>(models);
+		this.modCount = modCount;
+		this.triggersVersion = triggersVersion;
+		exactTriggers = new HashMap<String, BitSet>();
+		templates = new ArrayList<Template>();
+		templateModels = new ArrayList<Integer>();
+		cache = new ConcurrentHashMap<String, BitSet>();
+
+		for (int i = 0; i < this.models.size(); i++) {
+			for (Template trigger : this.models.get(i).getTriggers()) {
+				if (trigger.isUnderspecified()) {
+					templates.add(trigger);
+					templateModels.add(i);
+				}
+				else {
+					String key = trigger.getRawString().toLowerCase();
+					exactTriggers.computeIfAbsent(key, k -> new BitSet()).set(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the models (with at least one rule) that are triggered by the updated
+	 * variables, in their declaration order.
+	 * 
+	 * @param updatedVars the updated variables
+	 * @return the triggered models
+	 */
+	List<Model> getTriggeredModels(Collection<String> updatedVars) {
+		BitSet triggered = new BitSet(models.size());
+		for (String updatedVar : updatedVars) {
+			triggered.or(getTriggeredIndices(updatedVar));
+		}
+		List<Model> result = new ArrayList<Model>(triggered.cardinality());
+		for (int i = triggered.nextSetBit(0); i >= 0; i =
+				triggered.nextSetBit(i + 1)) {
+			Model model = models.get(i);
+			if (!model.rules.isEmpty()) {
+				result.add(model);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the indices of the models triggered by the variable
+	 * 
+	 * @param var the variable label
+	 * @return the indices of the triggered models
+	 */
+	private BitSet getTriggeredIndices(String var) {
+		BitSet indices = cache.get(var);
+		if (indices != null) {
+			return indices;
+		}
+		indices = new BitSet(models.size());
+		BitSet exact = exactTriggers.get(var.trim().toLowerCase());
+		if (exact != null) {
+			indices.or(exact);
+		}
+		for (int i = 0; i < templates.size(); i++) {
+			if (!indices.get(templateModels.get(i))
+					&& templates.get(i).match(var).isMatching()) {
+				indices.set(templateModels.get(i));
+			}
+		}
+		if (cache.size() > MAX_CACHE_SIZE) {
+			cache.clear();
+		}
+		cache.put(var, indices);
+		return indices;
+	}
+
+}
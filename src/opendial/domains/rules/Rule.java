@@ -25,17 +25,28 @@ package opendial.domains.rules;
 
 import java.util.logging.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 import java.util.Set;
 
+import opendial.bn.values.BooleanVal;
+import opendial.bn.values.StringVal;
+import opendial.bn.values.Value;
 import opendial.datastructs.Assignment;
+import opendial.datastructs.CompactAssignment;
 import opendial.datastructs.Template;
+import opendial.domains.rules.conditions.BasicCondition;
+import opendial.domains.rules.conditions.BasicCondition.Relation;
 import opendial.domains.rules.conditions.Condition;
 import opendial.domains.rules.conditions.VoidCondition;
+import opendial.domains.rules.effects.BasicEffect;
 import opendial.domains.rules.effects.Effect;
+import opendial.domains.rules.effects.TemplateEffect;
 import opendial.domains.rules.parameters.FixedParameter;
+import opendial.utils.RandomUtils;
 
 /**
  * Generic representation of a probabilistic rule, with an identifier and an ordered
@@ -60,6 +71,28 @@ public class Rule {
 
 	RuleType ruleType;
 
+	// whether the rule cases have been compiled
+	private volatile boolean compiled = false;
+
+	// direct lookup of the cases (null if the cases cannot be indexed)
+	private volatile CaseLookup lookup;
+
+	// whether the rule outputs depend on the random grounding variable
+	private volatile boolean randomised = false;
+
+	// whether the cases can be falsified by partial input assignments
+	private volatile boolean prunable = false;
+
+	// maximum number of outputs to cache for each rule
+	public static int MAX_CACHED_OUTPUTS = 1000;
+
+	// cache of rule outputs, shared across the anchorings of the rule
+	private Map<Assignment, RuleOutput> outputCache;
+
+	// number of cache hits and misses
+	private long cacheHits = 0;
+	private long cacheMisses = 0;
+
 	// ===================================
 	// RULE CONSTRUCTION
 	// ===================================
@@ -102,6 +135,32 @@ public class Rule {
 			}
 		}
 		cases.add(new RuleCase(condition, output));
+		compiled = false;
+		synchronized (this) {
+			outputCache = null;
+		}
+	}
+
+	/**
+	 * Compiles the rule cases into a decision structure. All conditions are first
+	 * compiled. Then, if every case (except a final void case) checks the equality
+	 * of the same variable with a fixed value, the cases are indexed by their
+	 * value, so that the matching case can be directly looked up. The method is
+	 * called when the domain is loaded, and otherwise upon the first use of the
+	 * rule.
+	 */
+	public synchronized void compile() {
+		boolean isRandomised = false;
+		boolean isPrunable = true;
+		for (RuleCase c : cases) {
+			c.condition.compile();
+			isRandomised = isRandomised || c.isRandomised();
+			isPrunable = isPrunable && !(c.condition instanceof VoidCondition);
+		}
+		randomised = isRandomised;
+		prunable = isPrunable;
+		lookup = CaseLookup.create(cases);
+		compiled = true;
 	}
 
 	// ===================================
@@ -141,15 +200,18 @@ public class Rule {
 	 */
 	public RuleOutput getOutput(Assignment input) {
 
+		if (!compiled) {
+			compile();
+		}
 		RuleOutput output = new RuleOutput(ruleType);
 		RuleGrounding groundings = getGroundings(input);
 		for (Assignment g : groundings.getAlternatives()) {
 
 			Assignment full = !(g.isEmpty()) ? new Assignment(input, g) : input;
 
-			RuleOutput match = cases.stream()
-					.filter(c -> c.condition.isSatisfiedBy(full)).map(c -> c.output)
-					.findFirst().orElse(new RuleOutput(ruleType));
+			RuleCase matchingCase = getMatchingCase(full);
+			RuleOutput match = (matchingCase != null) ? matchingCase.output
+					: new RuleOutput(ruleType);
 
 			match = match.ground(full);
 			output.addOutput(match);
@@ -159,6 +221,106 @@ public class Rule {
 		return output;
 	}
 
+	/**
+	 * Returns the output of the rule for the inputs that do not satisfy any of
+	 * its cases (for a probability rule, an empty effect with probability 1).
+	 * 
+	 * @return the default rule output
+	 */
+	public RuleOutput getDefaultOutput() {
+		return new RuleOutput(ruleType).ground(new Assignment());
+	}
+
+	/**
+	 * Returns true if none of the rule cases can be satisfied by any full input
+	 * assignment extending the partial assignment provided as argument (in which
+	 * case the rule output is empty for all of them). The method returns false if
+	 * this cannot be determined.
+	 * 
+	 * @param partialInput the partial input assignment
+	 * @return true if all rule cases are falsified, false otherwise
+	 */
+	public boolean isFalsifiedBy(Assignment partialInput) {
+		if (!compiled) {
+			compile();
+		}
+		if (!prunable) {
+			return false;
+		}
+		for (RuleCase c : cases) {
+			if (!c.condition.isFalsifiedBy(partialInput)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the rule output for the input assignment, using the rule cache if
+	 * possible. The cache is shared across all anchorings of the rule, and
+	 * discards its least recently used entries when full. It is bypassed if the
+	 * rule outputs depend on the random grounding variable.
+	 * 
+	 * @param input the input assignment
+	 * @return the matched rule output.
+	 */
+	public RuleOutput getCachedOutput(Assignment input) {
+		if (!compiled) {
+			compile();
+		}
+		if (randomised) {
+			return getOutput(input);
+		}
+		Assignment key = CompactAssignment.of(input);
+		synchronized (this) {
+			if (outputCache == null) {
+				outputCache = new LinkedHashMap<Assignment, RuleOutput>(16, 0.75f,
+						true) {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected boolean removeEldestEntry(
+							Map.Entry<Assignment, RuleOutput> eldest) {
+						return size() > MAX_CACHED_OUTPUTS;
+					}
+				};
+			}
+			RuleOutput output = outputCache.get(key);
+			if (output != null) {
+				cacheHits++;
+				return output;
+			}
+			cacheMisses++;
+		}
+		RuleOutput output = getOutput(input);
+		synchronized (this) {
+			if (outputCache != null) {
+				outputCache.put(key, output);
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Returns the first case whose condition is satisfied by the input assignment,
+	 * or null if no such case exists.
+	 * 
+	 * @param input the input assignment
+	 * @return the matching case (or null)
+	 */
+	private RuleCase getMatchingCase(Assignment input) {
+		CaseLookup l = lookup;
+		if (l != null) {
+			return l.getCase(input);
+		}
+		for (RuleCase c : cases) {
+			if (c.condition.isSatisfiedBy(input)) {
+				return c;
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Returns the rule type
 	 * 
@@ -168,6 +330,39 @@ public class Rule {
 		return ruleType;
 	}
 
+	/**
+	 * Returns true if the rule outputs depend on the random grounding variable (in
+	 * which case they are not cached).
+	 * 
+	 * @return true if the rule is randomised, else false
+	 */
+	public boolean isRandomised() {
+		if (!compiled) {
+			compile();
+		}
+		return randomised;
+	}
+
+	/**
+	 * Returns the number of outputs currently in the rule cache
+	 * 
+	 * @return the cache size
+	 */
+	public synchronized int getCacheSize() {
+		return (outputCache != null) ? outputCache.size() : 0;
+	}
+
+	/**
+	 * Returns the proportion of calls to getCachedOutput that were answered from
+	 * the rule cache (0.0 if the cache was never used).
+	 * 
+	 * @return the cache hit rate
+	 */
+	public synchronized double getCacheHitRate() {
+		long total = cacheHits + cacheMisses;
+		return (total > 0) ? ((double) cacheHits) / total : 0.0;
+	}
+
 	/**
 	 * Returns the set of all parameter identifiers employed in the rule
 	 * 
@@ -208,7 +403,8 @@ public class Rule {
 		for (RuleCase c : cases) {
 			groundings.add(c.getGroundings(input));
 		}
-		groundings.extend(new Assignment("random", (new Random()).nextInt(9999)));
+		groundings.extend(
+				new Assignment("random", RandomUtils.getRandom().nextInt(9999)));
 		return groundings;
 	}
 
@@ -338,6 +534,32 @@ public class Rule {
 			return inputVars;
 		}
 
+		/**
+		 * Returns true if the condition, effects or parameters of the case refer
+		 * to the random grounding variable.
+		 * 
+		 * @return true if the case is randomised, else false
+		 */
+		public boolean isRandomised() {
+			if (condition.getSlots().contains("random")) {
+				return true;
+			}
+			for (Effect e : getEffects()) {
+				for (BasicEffect sub : e.getSubEffects()) {
+					if (sub instanceof TemplateEffect && (((TemplateEffect) sub)
+							.getVariableTemplate().getSlots().contains("random")
+							|| ((TemplateEffect) sub).getValueTemplate().getSlots()
+									.contains("random"))) {
+						return true;
+					}
+				}
+				if (output.getParameter(e).getVariables().contains("random")) {
+					return true;
+				}
+			}
+			return false;
+		}
+
 		/**
 		 * Returns a string representation of the rule case.
 		 */
@@ -356,4 +578,80 @@ public class Rule {
 
 	}
 
+
+	/**
+	 * Direct lookup of the rule cases, for rules whose cases all check the
+	 * equality of the same variable with fixed (string or boolean) values. The
+	 * last case may be a void condition, used as default.
+	 */
+	static final class CaseLookup {
+
+		// the variable checked in the cases
+		final String variable;
+
+		// the first case for each value
+		final Map<Value, RuleCase> cases;
+
+		// the default case (can be null)
+		final RuleCase defaultCase;
+
+		private CaseLookup(String variable, Map<Value, RuleCase> cases,
+				RuleCase defaultCase) {
+			this.variable = variable;
+			this.cases = cases;
+			this.defaultCase = defaultCase;
+		}
+
+		/**
+		 * Creates the lookup for the given cases, or returns null if the cases
+		 * cannot be indexed
+		 * 
+		 * @param ruleCases the list of rule cases
+		 * @return the lookup (or null)
+		 */
+		static CaseLookup create(List<RuleCase> ruleCases) {
+			String variable = null;
+			Map<Value, RuleCase> cases = new HashMap<Value, RuleCase>();
+			RuleCase defaultCase = null;
+			for (int i = 0; i < ruleCases.size(); i++) {
+				RuleCase c = ruleCases.get(i);
+				if (c.condition instanceof VoidCondition
+						&& i == ruleCases.size() - 1) {
+					defaultCase = c;
+					continue;
+				}
+				else if (!(c.condition instanceof BasicCondition)) {
+					return null;
+				}
+				BasicCondition cond = (BasicCondition) c.condition;
+				Value value = cond.getGroundValue();
+
+				// only values whose hashcode is consistent with equality
+				if (cond.getRelation() != Relation.EQUAL
+						|| cond.getVariable().isUnderspecified()
+						|| !cond.getSlots().isEmpty()
+						|| !(value instanceof StringVal
+								|| value instanceof BooleanVal)
+						|| (variable != null
+								&& !variable.equals(cond.getVariable().toString()))) {
+					return null;
+				}
+				variable = cond.getVariable().toString();
+				cases.putIfAbsent(value, c);
+			}
+			return (cases.size() > 1)
+					? new CaseLookup(variable, cases, defaultCase) : null;
+		}
+
+		/**
+		 * Returns the case matching the input assignment (or null if none match)
+		 * 
+		 * @param input the input assignment
+		 * @return the matching case
+		 */
+		RuleCase getCase(Assignment input) {
+			RuleCase c = cases.get(input.getValue(variable));
+			return (c != null) ? c : defaultCase;
+		}
+	}
 }
@@ -28,7 +28,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 import opendial.bn.values.StringVal;
 import opendial.bn.values.Value;
@@ -64,6 +67,16 @@ public final class BasicCondition implements Condition {
 	// (default is EQUAL)
 	final Relation relation;
 
+	// maximum number of grounded conditions to keep in the cache
+	public static int MAX_CACHED_GROUNDINGS = 1000;
+
+	// compiled evaluation of the condition (null if not yet compiled)
+	private volatile Predicate<Assignment> evaluator;
+
+	// grounded versions of the condition, indexed by their filled variable and
+	// value (only used when the condition contains slots)
+	private Map<String, BasicCondition> groundedConditions;
+
 	// ===================================
 	// CONDITION CONSTRUCTION
 	// ===================================
@@ -100,29 +113,85 @@ public final class BasicCondition implements Condition {
 	
 	
 	/**
-	 * Creates a new basic condition that represented the grounding of the 
-	 * provided condition together with the value assignment
+	 * Creates a new basic condition that represents the grounding of the provided
+	 * condition, given the filled strings for its variable and value.
 	 * 
 	 * @param condition the condition (with free variables)
-	 * @param grounding the grounding assignment
+	 * @param filledVariable the filled variable label
+	 * @param filledValue the filled value (null if the value has no slots)
 	 */
-	private BasicCondition(BasicCondition condition, Assignment grounding) {
+	private BasicCondition(BasicCondition condition, String filledVariable,
+			String filledValue) {
 		variable = condition.variable;
 		if (variable.isUnderspecified()) {
-			variable = new Template(variable.fillSlots(grounding));
+			variable = new Template(filledVariable);
 		}
 
 		relation = condition.relation;
 		templateValue = condition.templateValue;
 		groundValue = condition.groundValue;
-		if (!templateValue.getSlots().isEmpty()) {
-			templateValue = new Template(templateValue.fillSlots(grounding));	
+		if (filledValue != null) {
+			templateValue = new Template(filledValue);
 			if (!templateValue.isUnderspecified()) {
 				groundValue = ValueFactory.create(templateValue.toString());
 			}
 		}
+	}
 
+	/**
+	 * Precomputes the evaluation of the condition. If neither the variable nor the
+	 * value contain slots, the condition is directly evaluated on the variable
+	 * value. Else, the grounded conditions (with their templates) are cached, and
+	 * reused for the inputs that fill the slots in the same way.
+	 */
+	@Override
+	public void compile() {
+		if (variable.getSlots().isEmpty() && templateValue.getSlots().isEmpty()) {
+			String filledVar = variable.toString();
+			evaluator = input -> isSatisfied(input.getValue(filledVar));
+		}
+		else {
+			groundedConditions = new ConcurrentHashMap<String, BasicCondition>();
+			evaluator = input -> {
+				if (!variable.isFilledBy(input)
+						|| !templateValue.isFilledBy(input)) {
+					return false;
+				}
+				BasicCondition grounded = ground(input);
+				return grounded.isSatisfied(
+						input.getValue(grounded.variable.toString()));
+			};
+		}
+	}
 
+	/**
+	 * Returns the grounding of the condition for the given input assignment
+	 * (reusing a cached grounding if the condition has been compiled).
+	 * 
+	 * @param input the grounding assignment
+	 * @return the grounded condition
+	 */
+	private BasicCondition ground(Assignment input) {
+		if (variable.getSlots().isEmpty() && templateValue.getSlots().isEmpty()) {
+			return this;
+		}
+		String filledVar = (variable.isUnderspecified())
+				? variable.fillSlots(input) : variable.toString();
+		String filledValue = (!templateValue.getSlots().isEmpty())
+				? templateValue.fillSlots(input) : null;
+		if (groundedConditions == null) {
+			return new BasicCondition(this, filledVar, filledValue);
+		}
+		String key = filledVar + "\0" + filledValue;
+		BasicCondition grounded = groundedConditions.get(key);
+		if (grounded == null) {
+			grounded = new BasicCondition(this, filledVar, filledValue);
+			if (groundedConditions.size() >= MAX_CACHED_GROUNDINGS) {
+				groundedConditions.clear();
+			}
+			groundedConditions.put(key, grounded);
+		}
+		return grounded;
 	}
 
 	// ===================================
@@ -147,6 +216,16 @@ public final class BasicCondition implements Condition {
 		return variable;
 	}
 
+	/**
+	 * Returns the expected value for the condition, if it is fully specified (and
+	 * null otherwise).
+	 * 
+	 * @return the expected value, or null if the value contains slots
+	 */
+	public Value getGroundValue() {
+		return groundValue;
+	}
+
 	/**
 	 * Returns the input variables for the condition (the main variable itself, plus
 	 * optional slots in the value to fill)
@@ -169,6 +248,23 @@ public final class BasicCondition implements Condition {
 		return slots;
 	}
 
+	/**
+	 * Returns true if the condition has no slots, its variable is specified in the
+	 * partial assignment and its value does not satisfy the condition.
+	 * 
+	 * @param partialInput the partial input assignment
+	 * @return true if the condition is falsified, false otherwise
+	 */
+	@Override
+	public boolean isFalsifiedBy(Assignment partialInput) {
+		if (variable.isUnderspecified() || !templateValue.getSlots().isEmpty()) {
+			return false;
+		}
+		String var = variable.getRawString();
+		return partialInput.containsVar(var)
+				&& !isSatisfied(partialInput.getValue(var));
+	}
+
 	/**
 	 * Returns true if the condition is satisfied by the value assignment provided as
 	 * argument, and false otherwise
@@ -181,15 +277,10 @@ public final class BasicCondition implements Condition {
 	 */
 	@Override
 	public boolean isSatisfiedBy(Assignment input) {
-
-		if (!variable.isFilledBy(input) || !templateValue.isFilledBy(input)) {
-			return false;
+		if (evaluator == null) {
+			compile();
 		}
-
-		BasicCondition grounded = new BasicCondition(this, input);
-		Value actualValue = input.getValue(grounded.variable.toString());
-
-		return grounded.isSatisfied(actualValue);
+		return evaluator.test(input);
 	}
 	
 	
@@ -206,9 +297,9 @@ public final class BasicCondition implements Condition {
 		if (groundValue != null) {
 			switch (relation) {
 			case EQUAL:
-				return actualValue.equals(groundValue);
+				return actualValue == groundValue || actualValue.equals(groundValue);
 			case UNEQUAL:
-				return !actualValue.equals(groundValue);
+				return actualValue != groundValue && !actualValue.equals(groundValue);
 			case GREATER_THAN:
 				return (actualValue.compareTo(groundValue) > 0);
 			case LOWER_THAN:
@@ -257,7 +348,10 @@ public final class BasicCondition implements Condition {
 	@Override
 	public RuleGrounding getGroundings(Assignment input) {
 
-		BasicCondition groundCond = new BasicCondition(this, input);
+		if (evaluator == null) {
+			compile();
+		}
+		BasicCondition groundCond = ground(input);
 		RuleGrounding groundings = new RuleGrounding();
 
 		// case 1: the variable label is underspecified
@@ -123,6 +123,16 @@ public final class ComplexCondition implements Condition {
 		return slots;
 	}
 
+	/**
+	 * Compiles all subconditions
+	 */
+	@Override
+	public void compile() {
+		for (Condition cond : subconditions) {
+			cond.compile();
+		}
+	}
+
 	/**
 	 * Returns true if the complex condition is satisfied by the input assignment,
 	 * and false otherwise.
@@ -147,6 +157,29 @@ public final class ComplexCondition implements Condition {
 		return (operator == BinaryOperator.AND);
 	}
 
+	/**
+	 * Returns true if the complex condition is known to be false for every
+	 * extension of the partial assignment. If the logical operator is AND, one
+	 * falsified subcondition is sufficient. If the operator is OR, all
+	 * subconditions must be falsified.
+	 * 
+	 * @param partialInput the partial input assignment
+	 * @return true if the condition is falsified, false otherwise
+	 */
+	@Override
+	public boolean isFalsifiedBy(Assignment partialInput) {
+		for (Condition cond : subconditions) {
+			if (operator == BinaryOperator.AND && cond.isFalsifiedBy(partialInput)) {
+				return true;
+			}
+			else if (operator == BinaryOperator.OR
+					&& !cond.isFalsifiedBy(partialInput)) {
+				return false;
+			}
+		}
+		return (operator == BinaryOperator.OR);
+	}
+
 	/**
 	 * Returns the groundings for the complex condition (which is the union of the
 	 * groundings for all basic conditions).
@@ -76,4 +76,35 @@ public interface Condition {
 	 */
 	public Set<String> getSlots();
 
+	/**
+	 * Returns true if the condition is known to be false for every full assignment
+	 * that extends the partial assignment provided as argument, and false if this
+	 * cannot be determined. By default, the condition is only evaluated if it has
+	 * no slots and all of its input variables are specified in the partial
+	 * assignment.
+	 * 
+	 * @param partialInput the partial input assignment
+	 * @return true if the condition is falsified, false otherwise
+	 */
+	public default boolean isFalsifiedBy(Assignment partialInput) {
+		if (!getSlots().isEmpty()) {
+			return false;
+		}
+		for (Template t : getInputVariables()) {
+			if (t.isUnderspecified() || !partialInput.containsVar(t.getRawString())) {
+				return false;
+			}
+		}
+		return !isSatisfiedBy(partialInput);
+	}
+
+	/**
+	 * Precomputes the internal structures used to evaluate the condition. The
+	 * method is called when the domain is loaded. Conditions that have not been
+	 * compiled are compiled upon their first evaluation (or not at all, if they do
+	 * not need any compilation).
+	 */
+	public default void compile() {
+	}
+
 }
@@ -112,6 +112,14 @@ public final class NegatedCondition implements Condition {
 		return initCondition.getSlots();
 	}
 
+	/**
+	 * Compiles the condition to negate
+	 */
+	@Override
+	public void compile() {
+		initCondition.compile();
+	}
+
 	// ===================================
 	// UTILITY FUNCTIONS
 	// ===================================
@@ -38,6 +38,7 @@ import opendial.bn.distribs.ProbDistribution;
 import opendial.bn.distribs.UtilityFunction;
 import opendial.bn.values.Value;
 import opendial.datastructs.Assignment;
+import opendial.datastructs.CompactAssignment;
 import opendial.datastructs.ValueRange;
 import opendial.domains.rules.Rule;
 import opendial.domains.rules.Rule.RuleType;
@@ -78,7 +79,11 @@ public final class AnchoredRule implements ProbDistribution, UtilityFunction {
 	// the relevant effects for the rule
 	final Set<Effect> effects;
 
-	// cache with the outputs for a given assignment
+	// whether to cache the outputs for a given assignment
+	boolean cached = false;
+
+	// local cache, used for rules whose outputs are randomised (the outputs of
+	// other rules are cached at the level of the rule itself)
 	Map<Assignment, RuleOutput> cache;
 
 	/**
@@ -107,36 +112,33 @@ public final class AnchoredRule implements ProbDistribution, UtilityFunction {
 		state.getMatchingNodes(rule.getInputVariables()).stream()
 			.forEach(i -> inputs.addValues(i.getId(), i.getValues()));
 
-		Set<Assignment> conditions = inputs.linearise();
-
 		// we already start a cache if we have a probability rule
 		if (rule.getRuleType() == RuleType.PROB) {
-			cache = new ConcurrentHashMap<Assignment, RuleOutput>();
+			startCache();
 		}
 		variables = new HashSet<String>(inputs.getVariables());
 		
 		// determines the set of possible effects, output values and parameters
-		// (for all possible input values)
-		for (Assignment input : conditions) {
-
-			RuleOutput output = getCachedOutput(input);
-			relevant = relevant || !output.isVoid();
-
-			// looping on all alternative effects in the output
-			for (Map.Entry<Effect, Parameter> o : output.getPairs()) {
-				Effect effect = o.getKey();
-				Parameter param = o.getValue();
-				effects.add(effect);
-				outputs.addAssign(effect.getAssignment());
-				param.getVariables().stream().filter(p -> state.hasChanceNode(p))
-						.forEach(p -> parameters.add(p));
+		// (for all possible input values). The input values are enumerated lazily,
+		// skipping the partial inputs for which no rule case can be satisfied (the
+		// output for these inputs is the default output of the rule)
+		boolean[] pruned = new boolean[1];
+		inputs.forEachCombination(partial -> {
+			if (rule.isFalsifiedBy(partial)) {
+				pruned[0] = true;
+				return true;
 			}
+			return false;
+		}, input -> addOutput(getCachedOutput(input), state));
+
+		if (pruned[0]) {
+			addOutput(rule.getDefaultOutput(), state);
 		}
 
 		// adding the action variables, and activating the cache
 		if (relevant && rule.getRuleType() == RuleType.UTIL) {
 			variables.addAll(outputs.getVariables());
-			cache = new ConcurrentHashMap<Assignment, RuleOutput>();
+			startCache();
 		}
 		
 	}
@@ -159,6 +161,14 @@ public final class AnchoredRule implements ProbDistribution, UtilityFunction {
 		return false;
 	}
 
+	/**
+	 * Returns false (no value is ever pruned)
+	 */
+	@Override
+	public boolean hasValuesBelow(double threshold) {
+		return false;
+	}
+
 	// ===================================
 	// GETTERS
 	// ===================================
@@ -363,6 +373,37 @@ public final class AnchoredRule implements ProbDistribution, UtilityFunction {
 		return rule.toString();
 	}
 
+	/**
+	 * Adds the effects, output values and parameters of the rule output to the
+	 * anchored rule.
+	 * 
+	 * @param output the rule output (for a particular input)
+	 * @param state the dialogue state
+	 */
+	private void addOutput(RuleOutput output, DialogueState state) {
+		relevant = relevant || !output.isVoid();
+
+		// looping on all alternative effects in the output
+		for (Map.Entry<Effect, Parameter> o : output.getPairs()) {
+			Effect effect = o.getKey();
+			Parameter param = o.getValue();
+			effects.add(effect);
+			outputs.addAssign(effect.getAssignment());
+			param.getVariables().stream().filter(p -> state.hasChanceNode(p))
+					.forEach(p -> parameters.add(p));
+		}
+	}
+
+	/**
+	 * Activates the caching of the rule outputs.
+	 */
+	private void startCache() {
+		cached = true;
+		if (rule.isRandomised()) {
+			cache = new ConcurrentHashMap<Assignment, RuleOutput>();
+		}
+	}
+
 	/**
 	 * Returns the output of the anchored rule (using the cache if the input
 	 * assignment is a sample).
@@ -372,14 +413,21 @@ public final class AnchoredRule implements ProbDistribution, UtilityFunction {
 	 */
 	private RuleOutput getCachedOutput(Assignment input) {
 
-		if (cache == null) {
+		if (!cached) {
 			return rule.getOutput(input);
 		}
 		else if (input.size() > variables.size()) {
 			input = input.getTrimmed(variables);
 		}
 
-		return cache.computeIfAbsent(input, a -> rule.getOutput(a));
+		if (cache == null) {
+			return rule.getCachedOutput(input);
+		}
+
+		// the cache keys are compact (immutable) copies of the inputs
+		Assignment condition = input;
+		return cache.computeIfAbsent(CompactAssignment.of(condition),
+				a -> rule.getOutput(condition));
 	}
 
 }
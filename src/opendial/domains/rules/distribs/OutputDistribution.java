@@ -120,6 +120,14 @@ public class OutputDistribution implements ProbDistribution {
 		return false;
 	}
 
+	/**
+	 * Returns false (no value is ever pruned).
+	 */
+	@Override
+	public boolean hasValuesBelow(double threshold) {
+		return false;
+	}
+
 	/**
 	 * Returns the probability associated with the given conditional and head
 	 * assignments.
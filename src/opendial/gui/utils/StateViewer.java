@@ -362,6 +362,11 @@ public class StateViewer extends VisualizationViewer<String, Integer> {
 	 * Updates the windows displaying probability distributions.
 	 */
 	public void updateDistribs() {
+		// computes all displayed marginals at once (the viewers then retrieve
+		// them from the cache of the dialogue state)
+		if (shownDistribs.size() > 1) {
+			currentState.queryMarginals(shownDistribs.keySet());
+		}
 		for (String queryVar : shownDistribs.keySet()) {
 			shownDistribs.get(queryVar).update(currentState);
 		}
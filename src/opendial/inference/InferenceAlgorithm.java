@@ -25,6 +25,8 @@ package opendial.inference;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import opendial.bn.BNetwork;
 import opendial.bn.distribs.IndependentDistribution;
@@ -123,6 +125,28 @@ public interface InferenceAlgorithm {
 		return queryProb(network, queryVar, new Assignment());
 	}
 
+	/**
+	 * Computes the marginal distribution of each query variable given the provided
+	 * evidence. The default implementation performs one query per variable, but
+	 * algorithms that can share intermediary results across variables (such as
+	 * calibrated clique potentials or samples) may compute all marginals in a
+	 * single pass.
+	 * 
+	 * @param network the Bayesian network on which to perform the inference
+	 * @param queryVars the query variables
+	 * @param evidence the evidence
+	 * @return the marginal distribution for each query variable
+	 */
+	public default Map<String, IndependentDistribution> queryMarginals(
+			BNetwork network, Collection<String> queryVars, Assignment evidence) {
+		Map<String, IndependentDistribution> marginals =
+				new HashMap<String, IndependentDistribution>();
+		for (String queryVar : queryVars) {
+			marginals.put(queryVar, queryProb(network, queryVar, evidence));
+		}
+		return marginals;
+	}
+
 	// ===================================
 	// UTILITY QUERIES
 	// ===================================
@@ -23,13 +23,16 @@
 
 package opendial.inference;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import opendial.bn.BNetwork;
 import opendial.bn.nodes.BNode;
@@ -87,6 +90,9 @@ public abstract class Query {
 	Collection<String> queryVars;
 	Assignment evidence;
 
+	// relevant nodes for the query, in sorted order (computed upon the first call)
+	List<BNode> relevantNodes;
+
 	public Query(BNetwork network, Collection<String> queryVars,
 			Assignment evidence) {
 
@@ -132,53 +138,77 @@ public abstract class Query {
 
 	/**
 	 * Returns a list of nodes sorted according to the ordering in
-	 * BNetwork.getSortedNodes() and pruned from the irrelevant nodes
+	 * BNetwork.getSortedNodes() and pruned from the irrelevant nodes. The relevant
+	 * nodes are computed upon the first call and cached in the query.
 	 * 
 	 * @return the ordered list of relevant nodes
 	 */
 	public List<BNode> getFilteredSortedNodes() {
-		List<BNode> filteredNodes = new ArrayList<BNode>();
-		Set<String> irrelevantNodes = getIrrelevantNodes();
-		for (BNode node : network.getSortedNodes()) {
-			if (!irrelevantNodes.contains(node.getId())) {
-				filteredNodes.add(node);
-			}
+		if (relevantNodes == null) {
+			Set<String> relevantIds = getRelevantNodes();
+			relevantNodes = network.getSortedNodes().stream()
+					.filter(n -> relevantIds.contains(n.getId()))
+					.collect(Collectors.toList());
 		}
-		return filteredNodes;
+		return new ArrayList<BNode>(relevantNodes);
 	}
 
 	/**
 	 * Assuming a particular query P(queryVars|evidence) or U(queryVars|evidence) on
-	 * the provided Bayesian network, determines which nodes is relevant for the
-	 * inference and which one can be discarded without affecting the final result.
+	 * the provided Bayesian network, determines which nodes are relevant for the
+	 * inference, i.e. the nodes whose distribution may affect the final result.
+	 * 
+	 * <p>
+	 * The nodes are determined in one single pass with the Bayes-ball algorithm
+	 * (Shachter, 1998), starting from the query variables (and the utility nodes,
+	 * for utility queries). The relevant nodes are those from which the ball was
+	 * passed to the parents. The other nodes are either barren or d-separated from
+	 * the query variables given the evidence. The evidence variables that are inputs
+	 * of relevant nodes but are not relevant themselves are only used for their
+	 * value.
 	 * 
+	 * @return the identifiers of the relevant nodes
 	 */
-	private Set<String> getIrrelevantNodes() {
-
-		Set<String> irrelevantNodesIds = new HashSet<String>();
-
-		whileLoop: while (true) {
-			for (String nodeId : new ArrayList<String>(network.getNodeIds())) {
-				BNode node = network.getNode(nodeId);
-				if (!irrelevantNodesIds.contains(nodeId)
-						&& irrelevantNodesIds.containsAll(node.getOutputNodesIds())
-						&& !queryVars.contains(nodeId)
-						&& !evidence.containsVar(nodeId)
-						&& !(node instanceof UtilityNode)) {
-					irrelevantNodesIds.add(nodeId);
-					continue whileLoop;
-				}
-				else if (!(this instanceof UtilQuery)
-						&& !irrelevantNodesIds.contains(nodeId)
-						&& node instanceof UtilityNode) {
-					irrelevantNodesIds.add(nodeId);
-					continue whileLoop;
-				}
+	private Set<String> getRelevantNodes() {
+
+		// nodes from which the ball was passed to the parents or the children
+		Set<String> top = new HashSet<String>();
+		Set<String> bottom = new HashSet<String>();
+
+		// nodes to visit, depending on whether the ball comes from a child or a
+		// parent
+		Deque<BNode> fromChild = new ArrayDeque<BNode>();
+		Deque<BNode> fromParent = new ArrayDeque<BNode>();
+		for (String queryVar : queryVars) {
+			if (network.hasNode(queryVar)) {
+				BNode node = network.getNode(queryVar);
+				(evidence.containsVar(queryVar) ? fromParent : fromChild).add(node);
+			}
+		}
+		if (this instanceof UtilQuery) {
+			fromChild.addAll(network.getNodes(UtilityNode.class));
+		}
+
+		while (!fromChild.isEmpty() || !fromParent.isEmpty()) {
+			boolean isFromChild = !fromChild.isEmpty();
+			BNode node = (isFromChild) ? fromChild.poll() : fromParent.poll();
+			String nodeId = node.getId();
+			boolean observed = evidence.containsVar(nodeId);
+			if (observed && isFromChild) {
+				continue;
+			}
+			if ((observed || isFromChild) && top.add(nodeId)) {
+				fromChild.addAll(node.getInputNodes());
+			}
+			if (!observed && bottom.add(nodeId)) {
+				fromParent.addAll(node.getOutputNodes());
 			}
-			break whileLoop;
 		}
 
-		return irrelevantNodesIds;
+		if (!(this instanceof UtilQuery)) {
+			top.removeIf(id -> network.getNode(id) instanceof UtilityNode);
+		}
+		return top;
 	}
 
 	/**
@@ -23,16 +23,29 @@
 
 package opendial.inference;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.*;
 
 import opendial.bn.BNetwork;
 import opendial.bn.distribs.ContinuousDistribution;
+import opendial.bn.distribs.IndependentDistribution;
 import opendial.bn.distribs.MultivariateDistribution;
 import opendial.bn.distribs.UtilityTable;
+import opendial.bn.nodes.ActionNode;
 import opendial.bn.nodes.BNode;
 import opendial.bn.nodes.ChanceNode;
+import opendial.bn.nodes.UtilityNode;
+import opendial.datastructs.Assignment;
 import opendial.inference.approximate.SamplingAlgorithm;
+import opendial.inference.exact.EliminationOrdering;
+import opendial.inference.exact.JunctionTree;
 import opendial.inference.exact.VariableElimination;
+import opendial.utils.RandomUtils;
 
 /**
  * Switching algorithms that alternates between an exact algorithm (variable
@@ -40,16 +53,29 @@ import opendial.inference.exact.VariableElimination;
  * query.
  * 
  * <p>
- * The switching mechanism is defined via two thresholds:
+ * The selection relies on a cost model for the query:
  * <ul>
- * <li>one threshold on the maximum branching factor of the network
- * <li>one threshold on the maximum number of combination of values in a node factor
+ * <li>the cost of variable elimination is the total size of the factors created
+ * along an elimination ordering (from which the induced width and the largest
+ * intermediate factor are also estimated)
+ * <li>the cost of likelihood weighting is the number of sampled nodes times the
+ * number of samples, divided by the estimated likelihood of the evidence (as
+ * unlikely evidence requires more samples to reach the same precision)
  * </ul>
+ * The two costs are converted into running times, using rates that are calibrated
+ * from the runtimes recorded for previous queries. Variable elimination is selected
+ * unless its estimated time exceeds the time of likelihood weighting by more than a
+ * factor EXACT_PREFERENCE. As the calibrated rates depend on the measured runtimes,
+ * the default rates are used instead when a random seed is set, so that seeded
+ * runs remain reproducible.
  * 
  * <p>
- * If one of these threshold is exceeded or if the Bayesian network contains a
- * continuous distribution, the selected algorithm will be likelihood weighting.
- * Variable elimination is selected in the remaining cases.
+ * Likelihood weighting is always selected if the Bayesian network contains a
+ * continuous distribution, a node with more than MAX_BRANCHING_FACTOR inputs, or
+ * a node factor with more than MAX_NBVALUES entries. Probability queries that
+ * can be answered from a calibrated junction tree (which is compiled when the same
+ * network and evidence are queried repeatedly) are answered from the tree, without
+ * estimating their cost.
  * 
  * @author Pierre Lison (plison@ifi.uio.no)
  */
@@ -64,11 +90,39 @@ public class SwitchingAlgorithm implements InferenceAlgorithm {
 	// maximum number of values to use VE
 	public static int MAX_NBVALUES = 5000;
 
+	// whether to use the junction tree for repeated probability queries
+	public static boolean ENABLE_JUNCTION_TREE = true;
+
+	// factor by which the estimated time of VE may exceed the time of LW
+	public static double EXACT_PREFERENCE = 10.0;
+
+	// expected number of queries answered from a junction tree (over which the
+	// cost of its compilation is amortised)
+	public static double JUNCTION_TREE_REUSE = 3.0;
+
+	// weight of each recorded runtime in the (geometric) calibration of the rates
+	public static double CALIBRATION_RATE = 0.1;
+
+	// maximum factor by which the calibrated rates may deviate from the defaults
+	public static double MAX_CALIBRATION_FACTOR = 10.0;
+
+	/** Initial time (in nanoseconds) per unit of cost for VE */
+	public static final double DEFAULT_EXACT_RATE = 10000.0;
+
+	/** Initial time (in nanoseconds) per unit of cost for LW */
+	public static final double DEFAULT_SAMPLING_RATE = 1000.0;
+
 	VariableElimination ve;
+	JunctionTree jt;
 	SamplingAlgorithm lw;
 
+	// estimated times (in nanoseconds) per unit of cost for VE and LW
+	double exactRate = DEFAULT_EXACT_RATE;
+	double samplingRate = DEFAULT_SAMPLING_RATE;
+
 	public SwitchingAlgorithm() {
 		this.ve = new VariableElimination();
+		this.jt = new JunctionTree();
 		this.lw = new SamplingAlgorithm();
 	}
 
@@ -81,8 +135,117 @@ public class SwitchingAlgorithm implements InferenceAlgorithm {
 	 */
 	@Override
 	public MultivariateDistribution queryProb(Query.ProbQuery query) {
-		InferenceAlgorithm algo = selectBestAlgorithm(query);
-		return algo.queryProb(query);
+		if (isCached(query)) {
+			return jt.queryProb(query);
+		}
+		CostEstimate estimate = estimateCost(query);
+		InferenceAlgorithm algo = selectBestAlgorithm(query, estimate);
+		if (ENABLE_JUNCTION_TREE && algo != jt) {
+			jt.recordQuery(query);
+		}
+		long start = System.nanoTime();
+		MultivariateDistribution result = (algo == ve)
+				? ve.queryProb(query, estimate.order) : algo.queryProb(query);
+		recordRuntime(algo, estimate, System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Selects the best algorithm for computing the marginal distributions of the
+	 * query variables and returns them. The cost of the query is first estimated
+	 * for the whole set of variables (excluding those that can be answered from the
+	 * compiled junction tree). If exact inference is selected for the set, all
+	 * marginals are computed exactly. Otherwise, the selection is made for each
+	 * variable separately (as for a single-variable probability query): the
+	 * variables requiring approximate inference are then sampled together, while
+	 * the others are computed exactly. Exact marginals of several variables are
+	 * extracted from a junction tree (if enabled and if its compilation is cheaper
+	 * than eliminating each variable), which is directly compiled for the network,
+	 * evidence and variables. Otherwise, they are computed with variable
+	 * elimination for each variable separately (to avoid building their joint
+	 * distribution).
+	 * 
+	 * @param network the Bayesian network
+	 * @param queryVars the query variables
+	 * @param evidence the evidence
+	 * @return the marginal distribution for each query variable
+	 */
+	@Override
+	public Map<String, IndependentDistribution> queryMarginals(BNetwork network,
+			Collection<String> queryVars, Assignment evidence) {
+		List<String> exactVars = new ArrayList<String>();
+		List<String> toEstimate = new ArrayList<String>();
+		for (String queryVar : queryVars) {
+			if (isCached(new Query.ProbQuery(network, Arrays.asList(queryVar),
+					evidence))) {
+				exactVars.add(queryVar);
+			}
+			else {
+				toEstimate.add(queryVar);
+			}
+		}
+
+		// the cost is estimated for the variable set, and, if sampling is
+		// required, for each variable separately
+		CostEstimate setEstimate = null;
+		CostEstimate estimate = null;
+		List<String> sampledVars = new ArrayList<String>();
+		if (!toEstimate.isEmpty()) {
+			Query query = new Query.ProbQuery(network, toEstimate, evidence);
+			setEstimate = estimateCost(query);
+			estimate = setEstimate;
+			if (selectBestAlgorithm(query, estimate) != lw) {
+				exactVars.addAll(toEstimate);
+			}
+			else {
+				for (String queryVar : toEstimate) {
+					query = new Query.ProbQuery(network, Arrays.asList(queryVar),
+							evidence);
+					estimate = estimateCost(query);
+					if (selectBestAlgorithm(query, estimate) == lw) {
+						sampledVars.add(queryVar);
+					}
+					else {
+						exactVars.add(queryVar);
+					}
+				}
+			}
+		}
+
+		Map<String, IndependentDistribution> marginals =
+				new HashMap<String, IndependentDistribution>();
+		if (!sampledVars.isEmpty()) {
+			marginals.putAll(lw.queryMarginals(network, sampledVars, evidence));
+		}
+		if (ENABLE_JUNCTION_TREE && exactVars.size() > 1 && (setEstimate == null
+				|| isCompilationWorthwhile(setEstimate, exactVars.size()))) {
+			marginals.putAll(jt.queryMarginals(network, exactVars, evidence));
+		}
+		else {
+
+			// the elimination order of the estimate is reused if the estimate
+			// covers exactly the (single) exact variable
+			for (String queryVar : exactVars) {
+				Query.ProbQuery query = new Query.ProbQuery(network,
+						Arrays.asList(queryVar), evidence);
+				if (isCached(query)) {
+					marginals.put(queryVar,
+							jt.queryProb(query).getMarginal(queryVar));
+					continue;
+				}
+				boolean reuse = estimate != null && estimate.exact
+						&& estimate.queryVars.size() == 1
+						&& estimate.queryVars.contains(queryVar);
+				long start = System.nanoTime();
+				MultivariateDistribution result =
+						ve.queryProb(query, reuse ? estimate.order : null);
+				if (reuse) {
+					recordRuntime(ve, estimate, System.nanoTime() - start);
+				}
+				marginals.put(queryVar, result.getMarginal(queryVar));
+			}
+		}
+		return marginals;
 	}
 
 	/**
@@ -94,8 +257,13 @@ public class SwitchingAlgorithm implements InferenceAlgorithm {
 	 */
 	@Override
 	public UtilityTable queryUtil(Query.UtilQuery query) {
-		InferenceAlgorithm algo = selectBestAlgorithm(query);
-		return algo.queryUtil(query);
+		CostEstimate estimate = estimateCost(query);
+		InferenceAlgorithm algo = selectBestAlgorithm(query, estimate);
+		long start = System.nanoTime();
+		UtilityTable result = (algo == ve) ? ve.queryUtil(query, estimate.order)
+				: algo.queryUtil(query);
+		recordRuntime(algo, estimate, System.nanoTime() - start);
+		return result;
 	}
 
 	/**
@@ -121,27 +289,366 @@ public class SwitchingAlgorithm implements InferenceAlgorithm {
 		return result;
 	}
 
+	/**
+	 * Selects the best algorithm for the query, based on its estimated cost.
+	 * 
+	 * @param query the query
+	 * @return the selected algorithm
+	 */
 	public InferenceAlgorithm selectBestAlgorithm(Query query) {
+		return selectBestAlgorithm(query, estimateCost(query));
+	}
 
-		for (BNode node : query.getFilteredSortedNodes()) {
+	/**
+	 * Estimates the cost of the query for variable elimination and likelihood
+	 * weighting. The elimination ordering is determined with the same heuristic as
+	 * the one employed by variable elimination.
+	 * 
+	 * @param query the query
+	 * @return the cost estimate
+	 */
+	public CostEstimate estimateCost(Query query) {
+
+		List<BNode> nodes = query.getFilteredSortedNodes();
+		Assignment evidence = query.getEvidence();
+		CostEstimate estimate = new CostEstimate();
+		estimate.queryVars = query.getQueryVars();
+
+		// determine the number of values of each (non-evidence) variable, and the
+		// likelihood of the evidence
+		Map<String, Integer> cardinalities = new HashMap<String, Integer>();
+		for (BNode node : nodes) {
+			String id = node.getId();
 			if (node.getInputNodeIds().size() > MAX_BRANCHING_FACTOR) {
-				return lw;
+				estimate.exact = false;
 			}
 			if (node instanceof ChanceNode) {
-				if (((ChanceNode) node)
-						.getDistrib() instanceof ContinuousDistribution) {
-					return lw;
+				ChanceNode cn = (ChanceNode) node;
+				if (cn.getDistrib() instanceof ContinuousDistribution) {
+					estimate.exact = false;
 				}
-				int nbValues = ((ChanceNode) node).getNbValues();
-				for (ChanceNode i : node.getInputNodes(ChanceNode.class)) {
-					nbValues *= i.getNbValues();
+				else if (evidence.containsVar(id)) {
+					estimate.likelihood *= (cn
+							.getDistrib() instanceof IndependentDistribution)
+									? ((IndependentDistribution) cn.getDistrib())
+											.getProb(evidence.getValue(id))
+									: 1.0 / Math.max(1, cn.getNbValues());
 				}
-				if (nbValues > MAX_NBVALUES) {
-					return lw;
+				else {
+					cardinalities.put(id, cn.getNbValues());
 				}
 			}
+			else if (node instanceof ActionNode && !evidence.containsVar(id)) {
+				cardinalities.put(id, node.getValues().size());
+			}
+		}
+		int nbSamples = lw.nbSamples;
+		estimate.samplingCost = (double) nbSamples * nodes.size()
+				/ Math.max(estimate.likelihood, 1.0 / nbSamples);
+		if (!estimate.exact) {
+			return estimate;
+		}
+
+		// determine the scope and size of each node factor
+		List<List<String>> scopes = new ArrayList<List<String>>();
+		double tableSize = 0.0;
+		for (BNode node : nodes) {
+			List<String> scope = new ArrayList<String>();
+			if (cardinalities.containsKey(node.getId())) {
+				scope.add(node.getId());
+			}
+			for (String inputId : node.getInputNodeIds()) {
+				if (cardinalities.containsKey(inputId)) {
+					scope.add(inputId);
+				}
+			}
+			double size = 1.0;
+			for (String var : scope) {
+				size *= cardinalities.get(var);
+			}
+			scopes.add(scope);
+			tableSize += size;
+			estimate.maxFactorSize = Math.max(estimate.maxFactorSize, size);
+			if (size > MAX_NBVALUES) {
+				estimate.exact = false;
+			}
+		}
+
+		// estimate the cost of eliminating the hidden variables
+		List<String> hiddenVars = new ArrayList<String>();
+		for (BNode node : nodes) {
+			if (cardinalities.containsKey(node.getId())
+					&& !query.getQueryVars().contains(node.getId())) {
+				hiddenVars.add(node.getId());
+			}
+		}
+		EliminationOrdering ordering =
+				new EliminationOrdering(scopes, cardinalities);
+		EliminationOrdering.Heuristic heuristic = ve.getHeuristic();
+		List<String> order =
+				(heuristic == EliminationOrdering.Heuristic.TOPOLOGICAL) ? hiddenVars
+						: ordering.getOrder(hiddenVars, heuristic);
+		EliminationOrdering.Cost cost = ordering.evaluate(order);
+		estimate.treewidth = cost.getInducedWidth();
+		estimate.maxFactorSize =
+				Math.max(estimate.maxFactorSize, cost.getMaxFactorSize());
+		estimate.exactCost = tableSize + cost.getTotalFactorSize();
+		estimate.order = order;
+
+		// estimate the cost of compiling a junction tree for the query, by
+		// eliminating the query variables after the hidden ones (the calibration
+		// requiring two passes over the cliques)
+		if (ENABLE_JUNCTION_TREE && query instanceof Query.ProbQuery) {
+			List<String> fullOrder = new ArrayList<String>(order);
+			for (String queryVar : query.getQueryVars()) {
+				if (cardinalities.containsKey(queryVar)) {
+					fullOrder.add(queryVar);
+				}
+			}
+			EliminationOrdering.Cost fullCost = ordering.evaluate(fullOrder);
+			estimate.compilationCost =
+					2 * (tableSize + fullCost.getTotalFactorSize());
+			estimate.maxCliqueSize = fullCost.getMaxFactorSize();
+		}
+		return estimate;
+	}
+
+	/**
+	 * Returns the estimated time (in nanoseconds) per unit of cost for variable
+	 * elimination, as calibrated from the recorded runtimes.
+	 * 
+	 * @return the estimated time per unit of cost for variable elimination
+	 */
+	public synchronized double getExactRate() {
+		return exactRate;
+	}
+
+	/**
+	 * Returns the estimated time (in nanoseconds) per unit of cost for likelihood
+	 * weighting, as calibrated from the recorded runtimes.
+	 * 
+	 * @return the estimated time per unit of cost for likelihood weighting
+	 */
+	public synchronized double getSamplingRate() {
+		return samplingRate;
+	}
+
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
+	/**
+	 * Selects the best algorithm for the query given its cost estimate.
+	 * 
+	 * @param query the query
+	 * @param estimate the cost estimate for the query
+	 * @return the selected algorithm
+	 */
+	private InferenceAlgorithm selectBestAlgorithm(Query query,
+			CostEstimate estimate) {
+		if (!estimate.exact) {
+			return lw;
+		}
+		boolean seeded = RandomUtils.getSeed() != null;
+		synchronized (this) {
+			double exactTime = estimate.exactCost
+					* (seeded ? DEFAULT_EXACT_RATE : exactRate);
+			double samplingTime = estimate.samplingCost
+					* (seeded ? DEFAULT_SAMPLING_RATE : samplingRate);
+			if (exactTime > EXACT_PREFERENCE * samplingTime) {
+				log.fine(() -> "selecting likelihood weighting for " + query
+						+ " (estimated time: " + (long) samplingTime + " ns vs. "
+						+ (long) exactTime + " ns for exact inference)");
+				return lw;
+			}
 		}
+		if (ENABLE_JUNCTION_TREE && query instanceof Query.ProbQuery
+				&& jt.isApplicable(query)
+				&& (jt.isCached(query) || isCompilationWorthwhile(estimate, 1))) {
+			log.fine(() -> "selecting the junction tree for " + query);
+			return jt;
+		}
+		log.fine(() -> "selecting variable elimination for " + query);
 		return ve;
 	}
 
+	/**
+	 * Returns true if compiling a junction tree for the query is expected to be
+	 * cheaper than answering the queries with variable elimination, and false
+	 * otherwise. The tree is expected to answer JUNCTION_TREE_REUSE queries (times
+	 * the number of query variables), and its cliques must not exceed the maximum
+	 * clique size.
+	 * 
+	 * @param estimate the cost estimate for the query
+	 * @param nbVars the number of variables queried from the tree
+	 * @return true if the tree should be compiled, false otherwise
+	 */
+	private static boolean isCompilationWorthwhile(CostEstimate estimate,
+			int nbVars) {
+		return estimate.exact
+				&& estimate.maxCliqueSize <= JunctionTree.MAX_CLIQUE_SIZE
+				&& estimate.compilationCost <= JUNCTION_TREE_REUSE * nbVars
+						* estimate.exactCost;
+	}
+
+	/**
+	 * Returns true if the probability query can be answered from the junction tree
+	 * already compiled for its network and evidence, and false otherwise.
+	 * 
+	 * @param query the query
+	 * @return true if the query can be answered from the compiled tree
+	 */
+	private boolean isCached(Query query) {
+		return ENABLE_JUNCTION_TREE && jt.isCached(query);
+	}
+
+	/**
+	 * Records the runtime of the algorithm, and updates the corresponding rate. The
+	 * rates are averaged on a logarithmic scale, as the runtimes of single queries
+	 * may vary by orders of magnitude. Runtimes of the junction tree are not
+	 * recorded, since they do not reflect the cost of a full elimination. For
+	 * likelihood weighting, the cost is the actual number of sampling operations
+	 * (without the correction for the evidence). To keep the selection of the
+	 * algorithm stable, the calibrated rates are bounded to
+	 * MAX_CALIBRATION_FACTOR times (or divided by) their default values.
+	 * 
+	 * @param algo the algorithm
+	 * @param estimate the cost estimate for the query
+	 * @param runtime the runtime (in nanoseconds)
+	 */
+	synchronized void recordRuntime(InferenceAlgorithm algo,
+			CostEstimate estimate, long runtime) {
+		if (algo == ve && estimate.exactCost > 0 && runtime > 0) {
+			double rate = runtime / estimate.exactCost;
+			exactRate *= Math.pow(rate / exactRate, CALIBRATION_RATE);
+			exactRate = bound(exactRate, DEFAULT_EXACT_RATE);
+		}
+		else if (algo == lw && estimate.samplingCost > 0 && runtime > 0) {
+			double cost = estimate.samplingCost
+					* Math.max(estimate.likelihood, 1.0 / lw.nbSamples);
+			double rate = runtime / cost;
+			samplingRate *= Math.pow(rate / samplingRate, CALIBRATION_RATE);
+			samplingRate = bound(samplingRate, DEFAULT_SAMPLING_RATE);
+		}
+	}
+
+	/**
+	 * Bounds the rate to be within MAX_CALIBRATION_FACTOR of its default value.
+	 * 
+	 * @param rate the calibrated rate
+	 * @param defaultRate the default rate
+	 * @return the bounded rate
+	 */
+	private static double bound(double rate, double defaultRate) {
+		return Math.max(defaultRate / MAX_CALIBRATION_FACTOR,
+				Math.min(defaultRate * MAX_CALIBRATION_FACTOR, rate));
+	}
+
+	// ===================================
+	// COST ESTIMATE
+	// ===================================
+
+	/**
+	 * Estimated cost of a query for variable elimination and likelihood weighting.
+	 */
+	public static final class CostEstimate {
+
+		// whether the query can be answered with variable elimination
+		boolean exact = true;
+
+		// induced width of the elimination ordering
+		int treewidth = 0;
+
+		// number of entries in the largest (node or intermediate) factor
+		double maxFactorSize = 0.0;
+
+		// total number of entries in the factors created by variable elimination
+		double exactCost = 0.0;
+
+		// number of sampling operations, corrected by the evidence likelihood
+		double samplingCost = 0.0;
+
+		// estimated likelihood of the evidence
+		double likelihood = 1.0;
+
+		// elimination order of the hidden variables (null if not exact)
+		List<String> order = null;
+
+		// the variables of the query for which the cost was estimated
+		Collection<String> queryVars;
+
+		// total number of entries in the cliques of a junction tree for the query,
+		// counted for the two calibration passes
+		double compilationCost = 0.0;
+
+		// number of entries in the largest clique of a junction tree for the query
+		double maxCliqueSize = 0.0;
+
+		/**
+		 * Returns true if the query can be answered with variable elimination, and
+		 * false otherwise.
+		 * 
+		 * @return true if exact inference is possible, false otherwise
+		 */
+		public boolean isExact() {
+			return exact;
+		}
+
+		/**
+		 * Returns the induced width of the elimination ordering (i.e. an upper bound
+		 * on the treewidth of the network).
+		 * 
+		 * @return the induced width
+		 */
+		public int getTreewidth() {
+			return treewidth;
+		}
+
+		/**
+		 * Returns the number of entries in the largest factor.
+		 * 
+		 * @return the size of the largest factor
+		 */
+		public double getMaxFactorSize() {
+			return maxFactorSize;
+		}
+
+		/**
+		 * Returns the cost of variable elimination.
+		 * 
+		 * @return the cost of exact inference
+		 */
+		public double getExactCost() {
+			return exactCost;
+		}
+
+		/**
+		 * Returns the cost of compiling a junction tree for the query.
+		 * 
+		 * @return the cost of the compilation
+		 */
+		public double getCompilationCost() {
+			return compilationCost;
+		}
+
+		/**
+		 * Returns the cost of likelihood weighting.
+		 * 
+		 * @return the cost of sampling
+		 */
+		public double getSamplingCost() {
+			return samplingCost;
+		}
+
+		/**
+		 * Returns a string representation of the estimate
+		 */
+		@Override
+		public String toString() {
+			return "exact=" + exact + ", width=" + treewidth + ", max factor="
+					+ maxFactorSize + ", VE cost=" + exactCost + ", JT cost="
+					+ compilationCost + ", LW cost=" + samplingCost;
+		}
+	}
+
 }
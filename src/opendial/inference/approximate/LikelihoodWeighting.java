@@ -1,14 +1,23 @@
 package opendial.inference.approximate;
 
 import java.util.logging.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Stream;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import opendial.bn.distribs.ContinuousDistribution;
 import opendial.bn.distribs.ProbDistribution;
@@ -20,10 +29,33 @@ import opendial.bn.values.Value;
 import opendial.datastructs.Assignment;
 import opendial.datastructs.Intervals;
 import opendial.inference.Query;
+import opendial.utils.RandomUtils;
 
 /**
  * Sampling process (based on likelihood weighting) for a particular query.
  * 
+ * <p>
+ * When the query nodes are discrete, the sampling relies on a compiled sampling
+ * plan (see {@link SamplingPlan}), and the collected particles are stored in
+ * primitive buffers until the samples are requested. Otherwise, the samples are
+ * generated directly from the node distributions.
+ * 
+ * <p>
+ * The samples are collected in parallel chunks, each worker filling its own
+ * buffer. The buffers are merged once all chunks are completed. The chunks are
+ * executed on the common fork-join pool, unless a dedicated executor is provided.
+ * Each chunk draws its random numbers from its own generator, split from the
+ * generator of the calling thread, so that the sampling is reproducible when a
+ * global seed is set (see {@link RandomUtils}), provided the sampling is not
+ * interrupted by the time limit.
+ * 
+ * <p>
+ * If a precision target is provided, the samples are collected in successive
+ * batches, and the sampling stops as soon as the effective sample size exceeds
+ * MIN_EFFECTIVE_SAMPLES and the standard error of all query marginals falls below
+ * the target. The effective sample size and the reason for stopping can be
+ * retrieved once the sampling is completed.
+ * 
  * @author Pierre Lison (plison@ifi.uio.no)
  */
 public class LikelihoodWeighting {
@@ -31,13 +63,37 @@ public class LikelihoodWeighting {
 	// logger
 	final static Logger log = Logger.getLogger("OpenDial");
 
+	/**
+	 * Reasons for stopping the sampling process
+	 */
+	public static enum StoppingReason {
+		SAMPLE_LIMIT, // the maximum number of samples was drawn
+		TIME_LIMIT, // the maximum sampling time was reached
+		PRECISION_REACHED // the precision target was reached
+	}
+
 	// actual number of samples for the algorithm
 	int nbSamples;
 
 	public static double WEIGHT_THRESHOLD = 0.0001f;
 
-	// the stack of weighted samples which have been collected so far
-	Stack<Sample> samples = new Stack<Sample>();
+	/** Minimum number of samples for which a sampling plan is compiled */
+	public static int MIN_SAMPLES_FOR_PLAN = 100;
+
+	/** Number of samples per batch when a precision target is provided */
+	public static int BATCH_SIZE = 500;
+
+	/** Minimum effective sample size before the sampling can stop early */
+	public static int MIN_EFFECTIVE_SAMPLES = 100;
+
+	// the weighted samples which have been collected so far
+	List<Sample> samples = new ArrayList<Sample>();
+
+	// executor on which to run the sampling (null for the common pool)
+	ExecutorService executor;
+
+	// random generator for the query
+	SplittableRandom random;
 
 	// the query
 	Query query;
@@ -47,8 +103,37 @@ public class LikelihoodWeighting {
 	// sorted nodes in the network
 	List<BNode> sortedNodes;
 
+	// evidence on the variables that are not part of the sorted nodes
+	Assignment fixedInputs;
+
+	// compiled sampling plan (null if the nodes could not be compiled)
+	SamplingPlan plan;
+
+	// particles collected with the sampling plan (value codes of the query
+	// variables, logarithmic weights and utilities)
+	int nbParticles = 0;
+	int[] particleCodes;
+	double[] particleWeights;
+	double[] particleUtils;
+
+	// maximum standard error for the query marginals (0 if no target)
+	double maxError;
+
+	// sum of the sample weights and of their squares
+	double sumWeights = 0.0;
+	double sumSquaredWeights = 0.0;
+
+	// weighted counts for the values of each query variable (indexed by the
+	// value codes when the sampling plan is used)
+	Map<String, Map<Value, Double>> marginals =
+			new HashMap<String, Map<Value, Double>>();
+	double[][] codeMarginals;
+
 	// termination status
-	boolean isTerminated = false;
+	volatile boolean isTerminated = false;
+
+	// reason for stopping the sampling
+	StoppingReason stoppingReason = StoppingReason.SAMPLE_LIMIT;
 
 	// scheduled thread pool to terminate sampling once the time limit is
 	// reached
@@ -60,33 +145,84 @@ public class LikelihoodWeighting {
 
 	/**
 	 * Creates a new sampling query with the given arguments and starts sampling
-	 * (using parallel streams).
+	 * (on the common fork-join pool).
 	 * 
 	 * @param query the query to answer
 	 * @param nbSamples the number of samples to collect
 	 * @param maxSamplingTime maximum sampling time (in milliseconds)
 	 */
 	public LikelihoodWeighting(Query query, int nbSamples, long maxSamplingTime) {
+		this(query, nbSamples, maxSamplingTime, null);
+	}
+
+	/**
+	 * Creates a new sampling query with the given arguments and starts sampling on
+	 * the provided executor. The executor should not be the one running the
+	 * calling thread, as the caller blocks until all chunks are completed.
+	 * 
+	 * @param query the query to answer
+	 * @param nbSamples the number of samples to collect
+	 * @param maxSamplingTime maximum sampling time (in milliseconds)
+	 * @param executor the executor (if null, the common fork-join pool is used)
+	 */
+	public LikelihoodWeighting(Query query, int nbSamples, long maxSamplingTime,
+			ExecutorService executor) {
+		this(query, nbSamples, maxSamplingTime, executor, 0.0);
+	}
+
+	/**
+	 * Creates a new sampling query with the given arguments and starts sampling on
+	 * the provided executor. If maxError is positive, the sampling stops as soon as
+	 * the standard error of the query marginals falls below maxError.
+	 * 
+	 * @param query the query to answer
+	 * @param nbSamples the maximum number of samples to collect
+	 * @param maxSamplingTime maximum sampling time (in milliseconds)
+	 * @param executor the executor (if null, the common fork-join pool is used)
+	 * @param maxError the precision target (0 for no target)
+	 */
+	public LikelihoodWeighting(Query query, int nbSamples, long maxSamplingTime,
+			ExecutorService executor, double maxError) {
 		this.query = query;
+		this.executor = executor;
+		this.maxError = maxError;
+		this.random = RandomUtils.split();
 		this.evidence = query.getEvidence();
 		this.queryVars = query.getQueryVars();
 
 		this.nbSamples = nbSamples;
 		sortedNodes = query.getFilteredSortedNodes();
 		Collections.reverse(sortedNodes);
+		fixedInputs = new Assignment(evidence);
+		sortedNodes.forEach(n -> fixedInputs.removePair(n.getId()));
 		service.schedule(() -> isTerminated = true, maxSamplingTime,
 				TimeUnit.MILLISECONDS);
-		Stream.generate(() -> this)
-				// creates infinite stream
-				.parallel()
-				// parallelise
-				.map(p -> p.sample())
-				// generate a sample
-				.limit(nbSamples)
-				// stop when nbSamples are collected
-				.filter(s -> s.getWeight() > WEIGHT_THRESHOLD)
-				.filter(s -> !s.isEmpty()) // discard empty samples
-				.forEach(s -> samples.add(s)); // makes a list of samples
+		if (nbSamples >= MIN_SAMPLES_FOR_PLAN) {
+			plan = compilePlan();
+		}
+		int nbDrawn = 0;
+		while (nbDrawn < nbSamples && !isTerminated) {
+			int batchSize = (maxError > 0.0)
+					? Math.min(BATCH_SIZE, nbSamples - nbDrawn) : nbSamples;
+			if (plan != null) {
+				sampleWithPlan(batchSize);
+			}
+			else {
+				int start = samples.size();
+				for (List<Sample> chunk : runChunks(batchSize, this::sampleChunk)) {
+					samples.addAll(chunk);
+				}
+				samples.subList(start, samples.size()).forEach(this::addStatistics);
+			}
+			nbDrawn += batchSize;
+			if (maxError > 0.0 && isPrecise()) {
+				stoppingReason = StoppingReason.PRECISION_REACHED;
+				return;
+			}
+		}
+		if (isTerminated) {
+			stoppingReason = StoppingReason.TIME_LIMIT;
+		}
 	}
 
 	/**
@@ -94,17 +230,67 @@ public class LikelihoodWeighting {
 	 */
 	@Override
 	public String toString() {
-		return query.toString() + " (" + samples.size()
+		return query.toString() + " (" + (samples.size() + nbParticles)
 				+ " samples already collected)";
 	}
 
+	/**
+	 * Returns the effective sample size of the collected samples, defined as (sum of
+	 * weights)^2 / (sum of squared weights).
+	 * 
+	 * @return the effective sample size
+	 */
+	public double getEffectiveSampleSize() {
+		return (sumSquaredWeights > 0.0)
+				? sumWeights * sumWeights / sumSquaredWeights : 0.0;
+	}
+
+	/**
+	 * Returns the maximum standard error of the query marginals, estimated from the
+	 * weighted counts and the effective sample size.
+	 * 
+	 * @return the maximum standard error
+	 */
+	public double getMaxStandardError() {
+		double ess = getEffectiveSampleSize();
+		if (ess == 0.0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double maxVariance = 0.0;
+		for (Map<Value, Double> marginal : marginals.values()) {
+			for (double count : marginal.values()) {
+				maxVariance = Math.max(maxVariance, getVariance(count));
+			}
+		}
+		for (int j = 0; codeMarginals != null && j < codeMarginals.length; j++) {
+			for (double count : codeMarginals[j]) {
+				maxVariance = Math.max(maxVariance, getVariance(count));
+			}
+		}
+		return Math.sqrt(maxVariance / ess);
+	}
+
+	/**
+	 * Returns the reason for which the sampling was stopped.
+	 * 
+	 * @return the stopping reason
+	 */
+	public StoppingReason getStoppingReason() {
+		return stoppingReason;
+	}
+
 	/**
 	 * Returns the collected samples
 	 * 
 	 * @return the collected samples
 	 */
 	public List<Sample> getSamples() {
-		redrawSamples();
+		if (nbParticles > 0) {
+			redrawParticles();
+		}
+		else {
+			redrawSamples();
+		}
 		return samples;
 	}
 
@@ -117,7 +303,7 @@ public class LikelihoodWeighting {
 	 * 
 	 */
 	protected Sample sample() {
-		Sample sample = new Sample();
+		Sample sample = new Sample(fixedInputs);
 		if (isTerminated) {
 			return sample;
 		}
@@ -158,6 +344,187 @@ public class LikelihoodWeighting {
 	// PRIVATE METHODS
 	// ===================================
 
+	/**
+	 * Compiles the sampling plan for the query, or returns null if the nodes cannot
+	 * be compiled.
+	 * 
+	 * @return the sampling plan (or null)
+	 */
+	private SamplingPlan compilePlan() {
+		try {
+			return new SamplingPlan(sortedNodes, evidence, queryVars);
+		}
+		catch (RuntimeException e) {
+			log.fine("cannot compile sampling plan: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns true if the precision target is reached, i.e. if the effective sample
+	 * size is sufficient and the standard error of all query marginals is below the
+	 * target.
+	 * 
+	 * @return true if the precision target is reached, false otherwise
+	 */
+	private boolean isPrecise() {
+		return getEffectiveSampleSize() >= MIN_EFFECTIVE_SAMPLES
+				&& getMaxStandardError() <= maxError;
+	}
+
+	/**
+	 * Returns the variance p(1-p) of the indicator for a value with the given
+	 * weighted count.
+	 * 
+	 * @param count the weighted count of the value
+	 * @return the corresponding variance
+	 */
+	private double getVariance(double count) {
+		double p = count / sumWeights;
+		return p * (1 - p);
+	}
+
+	/**
+	 * Updates the sums of weights and the weighted counts with the sample.
+	 * 
+	 * @param sample the new sample
+	 */
+	private void addStatistics(Sample sample) {
+		double weight = sample.getWeight();
+		sumWeights += weight;
+		sumSquaredWeights += weight * weight;
+		for (String var : sample.getVariables()) {
+			marginals.computeIfAbsent(var, v -> new HashMap<Value, Double>())
+					.merge(sample.getValue(var), weight, Double::sum);
+		}
+	}
+
+	/**
+	 * Splits the sampling into chunks, runs the task on each chunk in parallel
+	 * (either on the executor or on the common fork-join pool), and returns the
+	 * results of each chunk.
+	 * 
+	 * @param total the total number of samples to draw
+	 * @param task the task to run, given the number of samples in the chunk
+	 * @return the results for each chunk
+	 */
+	private <T> List<T> runChunks(int total, IntFunction<T> task) {
+		int nbChunks = Math.max(1,
+				Math.min(total, Runtime.getRuntime().availableProcessors() * 4));
+		IntFunction<Integer> chunkSize =
+				c -> total / nbChunks + (c < total % nbChunks ? 1 : 0);
+		SplittableRandom[] randoms = new SplittableRandom[nbChunks];
+		for (int c = 0; c < nbChunks; c++) {
+			randoms[c] = random.split();
+		}
+		IntFunction<T> chunkTask = c -> RandomUtils.withRandom(randoms[c],
+				() -> task.apply(chunkSize.apply(c)));
+		if (executor == null) {
+			return IntStream.range(0, nbChunks).parallel().mapToObj(chunkTask)
+					.collect(Collectors.toList());
+		}
+		List<Future<T>> futures = new ArrayList<Future<T>>(nbChunks);
+		for (int c = 0; c < nbChunks; c++) {
+			int chunk = c;
+			futures.add(executor.submit(() -> chunkTask.apply(chunk)));
+		}
+		List<T> results = new ArrayList<T>(nbChunks);
+		try {
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		}
+		catch (InterruptedException | ExecutionException e) {
+			futures.forEach(f -> f.cancel(true));
+			throw new RuntimeException("sampling interrupted: " + e);
+		}
+		return results;
+	}
+
+	/**
+	 * Collects a chunk of samples (discarding the empty samples and those with a
+	 * weight below the threshold).
+	 * 
+	 * @param chunkSize the number of samples to draw
+	 * @return the collected samples
+	 */
+	private List<Sample> sampleChunk(int chunkSize) {
+		List<Sample> chunk = new ArrayList<Sample>(chunkSize);
+		for (int k = 0; k < chunkSize && !isTerminated; k++) {
+			Sample s = sample();
+			if (s.getWeight() > WEIGHT_THRESHOLD && !s.isEmpty()) {
+				chunk.add(s);
+			}
+		}
+		return chunk;
+	}
+
+	/**
+	 * Collects a batch of particles using the compiled sampling plan. Each chunk
+	 * fills its own primitive buffers, which are then appended to the particles
+	 * collected so far.
+	 * 
+	 * @param batchSize the number of particles to draw
+	 */
+	private void sampleWithPlan(int batchSize) {
+		int nbQueryVars = plan.getNbQueryVars();
+		if (nbQueryVars == 0) {
+			return;
+		}
+		List<ParticleBuffer> buffers = runChunks(batchSize, chunkSize -> {
+			ParticleBuffer buffer = new ParticleBuffer(chunkSize, nbQueryVars);
+			SplittableRandom chunkRandom = RandomUtils.getRandom();
+			int[] codes = new int[plan.size()];
+			double[] result = new double[2];
+			for (int k = 0; k < chunkSize && !isTerminated; k++) {
+				plan.sample(chunkRandom, codes, result);
+				if (Math.exp(result[0]) > WEIGHT_THRESHOLD) {
+					plan.copyQueryCodes(codes, buffer.codes,
+							buffer.size * nbQueryVars);
+					buffer.weights[buffer.size] = result[0];
+					buffer.utils[buffer.size] = result[1];
+					buffer.size++;
+				}
+			}
+			return buffer;
+		});
+		int start = nbParticles;
+		int total = nbParticles + buffers.stream().mapToInt(b -> b.size).sum();
+		if (particleWeights == null) {
+			particleCodes = new int[total * nbQueryVars];
+			particleWeights = new double[total];
+			particleUtils = new double[total];
+		}
+		else {
+			particleCodes = Arrays.copyOf(particleCodes, total * nbQueryVars);
+			particleWeights = Arrays.copyOf(particleWeights, total);
+			particleUtils = Arrays.copyOf(particleUtils, total);
+		}
+		for (ParticleBuffer buffer : buffers) {
+			System.arraycopy(buffer.codes, 0, particleCodes,
+					nbParticles * nbQueryVars, buffer.size * nbQueryVars);
+			System.arraycopy(buffer.weights, 0, particleWeights, nbParticles,
+					buffer.size);
+			System.arraycopy(buffer.utils, 0, particleUtils, nbParticles,
+					buffer.size);
+			nbParticles += buffer.size;
+		}
+		if (codeMarginals == null) {
+			codeMarginals = new double[nbQueryVars][];
+			for (int j = 0; j < nbQueryVars; j++) {
+				codeMarginals[j] = new double[plan.getQueryCardinality(j)];
+			}
+		}
+		for (int i = start; i < nbParticles; i++) {
+			double weight = Math.exp(particleWeights[i]);
+			sumWeights += weight;
+			sumSquaredWeights += weight * weight;
+			for (int j = 0; j < nbQueryVars; j++) {
+				codeMarginals[j][particleCodes[i * nbQueryVars + j]] += weight;
+			}
+		}
+	}
+
 	/**
 	 * Samples the given chance node and add it to the sample. If the variable is
 	 * part of the evidence, updates the weight.
@@ -210,6 +577,42 @@ public class LikelihoodWeighting {
 		}
 	}
 
+	/**
+	 * Redraws the particles collected with the sampling plan according to their
+	 * weight, and converts the redrawn particles into samples. If the total weight
+	 * is null, all particles are kept.
+	 */
+	private void redrawParticles() {
+		int nbQueryVars = plan.getNbQueryVars();
+		Sample[] converted = new Sample[nbParticles];
+		double[] cumulative = new double[nbParticles];
+		double total = 0.0;
+		for (int i = 0; i < nbParticles; i++) {
+			total += Math.exp(particleWeights[i]);
+			cumulative[i] = total;
+		}
+		List<Sample> newSamples = new ArrayList<Sample>(nbParticles);
+		for (int j = 0; j < nbParticles; j++) {
+			int i = j;
+			if (total >= 0.0001) {
+				int index = Arrays.binarySearch(cumulative,
+						random.nextDouble() * total);
+				i = Math.min((index >= 0) ? index + 1 : -index - 1,
+						nbParticles - 1);
+			}
+			if (converted[i] == null) {
+				converted[i] = plan.createSample(particleCodes, i * nbQueryVars,
+						particleWeights[i], particleUtils[i]);
+			}
+			newSamples.add(converted[i]);
+		}
+		if (total < 0.0001) {
+			log.warning("could not redraw samples: total prob is null");
+		}
+		samples = newSamples;
+		nbParticles = 0;
+	}
+
 	/**
 	 * Redraw the samples according to their weight. The number of redrawn samples is
 	 * the same as the one given as argument.
@@ -221,7 +624,7 @@ public class LikelihoodWeighting {
 		try {
 			Intervals<Sample> intervals =
 					new Intervals<Sample>(samples, s -> s.getWeight());
-			Stack<Sample> newSamples = new Stack<Sample>();
+			List<Sample> newSamples = new ArrayList<Sample>(samples.size());
 			int sampleSize = samples.size();
 			for (int j = 0; j < sampleSize; j++) {
 				newSamples.add(intervals.sample());
@@ -234,4 +637,21 @@ public class LikelihoodWeighting {
 		}
 	}
 
+	/**
+	 * Buffer of particles collected by a worker with the sampling plan.
+	 */
+	private static final class ParticleBuffer {
+
+		final int[] codes;
+		final double[] weights;
+		final double[] utils;
+		int size = 0;
+
+		ParticleBuffer(int capacity, int nbQueryVars) {
+			codes = new int[capacity * nbQueryVars];
+			weights = new double[capacity];
+			utils = new double[capacity];
+		}
+	}
+
 }
@@ -0,0 +1,95 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.approximate;
+
+import java.util.Collection;
+import java.util.logging.*;
+
+import opendial.bn.distribs.EmpiricalDistribution;
+import opendial.datastructs.Assignment;
+import opendial.inference.approximate.LikelihoodWeighting.StoppingReason;
+
+/**
+ * Empirical distribution produced by likelihood weighting, which also records the
+ * effective sample size and the reason for which the sampling was stopped. These
+ * diagnostics are specific to the query that produced the distribution.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public class SampledDistribution extends EmpiricalDistribution {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// effective sample size of the weighted samples
+	final double effectiveSampleSize;
+
+	// reason for which the sampling was stopped
+	final StoppingReason stoppingReason;
+
+	/**
+	 * Creates a new distribution from the samples, with the given diagnostics
+	 * 
+	 * @param samples the samples
+	 * @param effectiveSampleSize the effective sample size
+	 * @param stoppingReason the reason for which the sampling was stopped
+	 */
+	public SampledDistribution(Collection<? extends Assignment> samples,
+			double effectiveSampleSize, StoppingReason stoppingReason) {
+		super(samples);
+		this.effectiveSampleSize = effectiveSampleSize;
+		this.stoppingReason = stoppingReason;
+	}
+
+	/**
+	 * Returns the effective sample size of the weighted samples (before their
+	 * redrawing).
+	 * 
+	 * @return the effective sample size
+	 */
+	public double getEffectiveSampleSize() {
+		return effectiveSampleSize;
+	}
+
+	/**
+	 * Returns the reason for which the sampling was stopped.
+	 * 
+	 * @return the stopping reason
+	 */
+	public StoppingReason getStoppingReason() {
+		return stoppingReason;
+	}
+
+	/**
+	 * Returns a copy of the distribution (with the same diagnostics)
+	 * 
+	 * @return the copy
+	 */
+	@Override
+	public SampledDistribution copy() {
+		return new SampledDistribution(samples, effectiveSampleSize,
+				stoppingReason);
+	}
+}
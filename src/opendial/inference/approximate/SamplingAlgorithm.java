@@ -26,14 +26,18 @@ package opendial.inference.approximate;
 import java.util.logging.*;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
 
 import opendial.Settings;
 import opendial.bn.BNetwork;
 import opendial.bn.distribs.ContinuousDistribution;
 import opendial.bn.distribs.EmpiricalDistribution;
+import opendial.bn.distribs.IndependentDistribution;
 import opendial.bn.distribs.ProbDistribution;
 import opendial.bn.distribs.UtilityTable;
 import opendial.bn.nodes.ChanceNode;
@@ -59,6 +63,12 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 
 	long maxSamplingTime = Settings.maxSamplingTime;
 
+	// executor on which to run the sampling (null for the common pool)
+	ExecutorService executor;
+
+	// precision target for the query marginals (0 for no target)
+	double maxError = Settings.samplingPrecision;
+
 	// ===================================
 	// CONSTRUCTORS
 	// ===================================
@@ -75,6 +85,21 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 		this.maxSamplingTime = maxSamplingTime;
 	}
 
+	/**
+	 * Creates a new likelihood weighting algorithm with the specified number of
+	 * samples and sampling time, running the sampling on the provided executor
+	 * (which may be dedicated to sampling or shared by the caller).
+	 * 
+	 * @param nbSamples the maximum number of samples to collect
+	 * @param maxSamplingTime the maximum sampling time
+	 * @param executor the executor on which to run the sampling
+	 */
+	public SamplingAlgorithm(int nbSamples, long maxSamplingTime,
+			ExecutorService executor) {
+		this(nbSamples, maxSamplingTime);
+		this.executor = executor;
+	}
+
 	/**
 	 * Creates a new likelihood weighting algorithm with the specified number of
 	 * samples and sampling time
@@ -83,28 +108,74 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 	public SamplingAlgorithm() {
 	}
 
+	/**
+	 * Sets the precision target for the sampling. If the target is positive, the
+	 * sampling stops as soon as the standard error of the query marginals falls
+	 * below the target (or when the maximum number of samples or sampling time is
+	 * reached).
+	 * 
+	 * @param maxError the precision target (0 to always draw all samples)
+	 */
+	public void setPrecision(double maxError) {
+		this.maxError = maxError;
+	}
+
+	/**
+	 * Sets the executor on which to run the sampling. If the executor is null, the
+	 * sampling runs on the common fork-join pool.
+	 * 
+	 * @param executor the executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
 	// ===================================
 	// PUBLIC METHODS
 	// ===================================
 
 	/**
 	 * Queries for the probability distribution of the set of random variables in the
-	 * Bayesian network, given the provided evidence
+	 * Bayesian network, given the provided evidence. The resulting distribution
+	 * also includes the effective sample size and the stopping reason of the
+	 * sampling process for the query.
 	 * 
 	 * @param query the full query
 	 * @return the resulting probability distribution failed
 	 */
 	@Override
-	public EmpiricalDistribution queryProb(Query.ProbQuery query) {
+	public SampledDistribution queryProb(Query.ProbQuery query) {
 
 		// creates a new query thread
-		LikelihoodWeighting isquery =
-				new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+		LikelihoodWeighting isquery = sample(query);
 
 		// extract and redraw the samples according to their weight.
 		List<Sample> samples = isquery.getSamples();
 		// creates an empirical distribution from the samples
-		return new EmpiricalDistribution(samples);
+		return new SampledDistribution(samples,
+				isquery.getEffectiveSampleSize(), isquery.getStoppingReason());
+	}
+
+	/**
+	 * Computes the marginal distributions of the query variables from one single set
+	 * of samples.
+	 * 
+	 * @param network the Bayesian network
+	 * @param queryVars the query variables
+	 * @param evidence the evidence
+	 * @return the marginal distribution for each query variable
+	 */
+	@Override
+	public Map<String, IndependentDistribution> queryMarginals(BNetwork network,
+			Collection<String> queryVars, Assignment evidence) {
+		EmpiricalDistribution samples =
+				queryProb(new Query.ProbQuery(network, queryVars, evidence));
+		Map<String, IndependentDistribution> marginals =
+				new HashMap<String, IndependentDistribution>();
+		for (String var : queryVars) {
+			marginals.put(var, samples.getMarginal(var));
+		}
+		return marginals;
 	}
 
 	/**
@@ -143,8 +214,7 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 
 		try {
 			// creates a new query thread
-			LikelihoodWeighting isquery =
-					new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+			LikelihoodWeighting isquery = sample(query);
 
 			// extract and redraw the samples
 			List<Sample> samples = isquery.getSamples();
@@ -174,8 +244,7 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 		// creates a new query thread
 		Query query = new Query.UtilQuery(network, network.getChanceNodeIds(),
 				new Assignment());
-		LikelihoodWeighting isquery =
-				new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+		LikelihoodWeighting isquery = sample(query);
 
 		// extract and redraw the samples
 		List<Sample> samples = isquery.getSamples();
@@ -202,8 +271,7 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 		BNetwork network = query.getNetwork();
 		Collection<String> queryVars = query.getQueryVars();
 		// creates a new query thread
-		LikelihoodWeighting isquery =
-				new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+		LikelihoodWeighting isquery = sample(query);
 
 		// extract and redraw the samples
 		List<Sample> samples = isquery.getSamples();
@@ -252,8 +320,7 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 	public EmpiricalDistribution getWeightedSamples(Query query,
 			Consumer<Collection<Sample>> weightScheme) {
 
-		LikelihoodWeighting isquery =
-				new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+		LikelihoodWeighting isquery = sample(query);
 		List<Sample> samples = isquery.getSamples();
 		weightScheme.accept(samples);
 		Intervals<Sample> intervals =
@@ -268,4 +335,15 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 		return distrib;
 	}
 
+	/**
+	 * Runs likelihood weighting on the query.
+	 * 
+	 * @param query the query
+	 * @return the sampling process (once completed)
+	 */
+	private LikelihoodWeighting sample(Query query) {
+		return new LikelihoodWeighting(query, nbSamples, maxSamplingTime, executor,
+				maxError);
+	}
+
 }
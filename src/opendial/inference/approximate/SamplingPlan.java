@@ -0,0 +1,452 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.approximate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.logging.Logger;
+
+import opendial.bn.distribs.ContinuousDistribution;
+import opendial.bn.distribs.IndependentDistribution;
+import opendial.bn.nodes.ActionNode;
+import opendial.bn.nodes.BNode;
+import opendial.bn.nodes.ChanceNode;
+import opendial.bn.nodes.UtilityNode;
+import opendial.bn.values.Value;
+import opendial.datastructs.Assignment;
+
+/**
+ * Compiled sampling plan for likelihood weighting. The nodes of the query are
+ * indexed into arrays (in topological order), their values are encoded as integer
+ * codes, and their conditional distributions are flattened into cumulative tables
+ * indexed by the codes of the parent values. Samples can then be drawn without
+ * constructing any assignment or looking up any distribution.
+ * 
+ * <p>
+ * The plan can only be compiled for discrete networks whose tables do not exceed
+ * MAX_TABLE_SIZE entries. A runtime exception is thrown otherwise (in which case
+ * the sampling should fall back to the standard procedure). Evidence variables that
+ * are inputs of the nodes without being part of them (as they were pruned from the
+ * query) are encoded as fixed nodes at the beginning of the plan.
+ * 
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class SamplingPlan {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	/** Maximum number of entries in the table of a compiled node */
+	public static int MAX_TABLE_SIZE = 10000;
+
+	// types of nodes in the plan
+	static final int SAMPLED = 0;
+	static final int FIXED = 1;
+	static final int WEIGHTED = 2;
+	static final int RANDOM_ACTION = 3;
+	static final int UTILITY = 4;
+
+	// identifiers, value domains and types of the nodes
+	final String[] ids;
+	final Value[][] domains;
+	final int[] types;
+
+	// indices of the parents of each node, and their strides in the tables
+	final int[][] parents;
+	final int[][] strides;
+
+	// tables for each node (cumulative probabilities for sampled nodes,
+	// probabilities of the evidence for weighted nodes, and utilities for
+	// utility nodes)
+	final double[][] tables;
+
+	// codes of the evidence values (or -1 for non-evidence nodes)
+	final int[] evidenceCodes;
+
+	// indices of the query variables
+	final int[] querySlots;
+
+	// ===================================
+	// CONSTRUCTION
+	// ===================================
+
+	/**
+	 * Compiles the sampling plan for the nodes (sorted in topological order, from
+	 * the roots to the leaves), given the evidence and query variables. The input
+	 * nodes that are not included in the list must be part of the evidence.
+	 * 
+	 * @param sortedNodes the sorted nodes
+	 * @param evidence the evidence
+	 * @param queryVars the query variables
+	 * @throws RuntimeException if the nodes cannot be compiled
+	 */
+	public SamplingPlan(List<BNode> sortedNodes, Assignment evidence,
+			Collection<String> queryVars) {
+
+		// evidence variables used as inputs, but not included in the nodes
+		Set<String> nodeIds = new HashSet<String>();
+		sortedNodes.forEach(n -> nodeIds.add(n.getId()));
+		List<String> fixedInputs = new ArrayList<String>();
+		for (BNode n : sortedNodes) {
+			for (String inputId : n.getInputNodeIds()) {
+				if (!nodeIds.contains(inputId) && evidence.containsVar(inputId)
+						&& !fixedInputs.contains(inputId)) {
+					fixedInputs.add(inputId);
+				}
+			}
+		}
+		int nbFixed = fixedInputs.size();
+		int nbNodes = nbFixed + sortedNodes.size();
+		ids = new String[nbNodes];
+		domains = new Value[nbNodes][];
+		types = new int[nbNodes];
+		parents = new int[nbNodes][];
+		strides = new int[nbNodes][];
+		tables = new double[nbNodes][];
+		evidenceCodes = new int[nbNodes];
+
+		Map<String, Integer> slots = new HashMap<String, Integer>();
+		List<Integer> queryList = new ArrayList<Integer>();
+		for (int i = 0; i < nbFixed; i++) {
+			ids[i] = fixedInputs.get(i);
+			slots.put(ids[i], i);
+			domains[i] = new Value[] { evidence.getValue(ids[i]) };
+			types[i] = FIXED;
+			evidenceCodes[i] = 0;
+			parents[i] = new int[0];
+			strides[i] = new int[0];
+			if (queryVars.contains(ids[i])) {
+				queryList.add(i);
+			}
+		}
+		for (int i = nbFixed; i < nbNodes; i++) {
+			BNode n = sortedNodes.get(i - nbFixed);
+			ids[i] = n.getId();
+			slots.put(ids[i], i);
+
+			// determine the value domain of the node
+			List<Value> domain = new ArrayList<Value>(n.getValues());
+			Value evidenceValue =
+					evidence.containsVar(ids[i]) ? evidence.getValue(ids[i]) : null;
+			if (evidenceValue != null && !domain.contains(evidenceValue)) {
+				domain.add(evidenceValue);
+			}
+			domains[i] = domain.toArray(new Value[domain.size()]);
+			evidenceCodes[i] = domain.indexOf(evidenceValue);
+
+			// determine the type of the node
+			if (n.getInputNodeIds().isEmpty() && evidenceValue != null) {
+				types[i] = FIXED;
+			}
+			else if (n instanceof ChanceNode) {
+				if (((ChanceNode) n)
+						.getDistrib() instanceof ContinuousDistribution) {
+					throw new RuntimeException(ids[i] + " is continuous");
+				}
+				types[i] = (evidenceValue != null) ? WEIGHTED : SAMPLED;
+			}
+			else if (n instanceof ActionNode && evidenceValue != null) {
+				types[i] = FIXED;
+			}
+			else if (n instanceof ActionNode && n.getInputNodeIds().isEmpty()) {
+				types[i] = RANDOM_ACTION;
+			}
+			else if (n instanceof UtilityNode) {
+				types[i] = UTILITY;
+			}
+			else {
+				throw new RuntimeException("cannot compile node " + ids[i]);
+			}
+			if (types[i] != UTILITY && domains[i].length == 0) {
+				throw new RuntimeException(ids[i] + " has no values");
+			}
+
+			// index the parents of the node
+			List<String> inputIds = new ArrayList<String>(n.getInputNodeIds());
+			parents[i] = new int[inputIds.size()];
+			strides[i] = new int[inputIds.size()];
+			long nbConditions = 1;
+			for (int j = inputIds.size() - 1; j >= 0; j--) {
+				Integer slot = slots.get(inputIds.get(j));
+				if (slot == null || types[slot] == UTILITY) {
+					throw new RuntimeException("parent of " + ids[i] + " not sorted");
+				}
+				parents[i][j] = slot;
+				strides[i][j] = (int) nbConditions;
+				nbConditions *= domains[slot].length;
+				if (nbConditions > MAX_TABLE_SIZE) {
+					throw new RuntimeException("table for " + ids[i] + " too large");
+				}
+			}
+			if (nbConditions * Math.max(1, domains[i].length) > MAX_TABLE_SIZE) {
+				throw new RuntimeException("table for " + ids[i] + " too large");
+			}
+
+			// fill the tables
+			if (types[i] == SAMPLED || types[i] == WEIGHTED) {
+				tables[i] = createProbTable((ChanceNode) n, i, (int) nbConditions);
+			}
+			else if (types[i] == UTILITY) {
+				tables[i] = createUtilTable((UtilityNode) n, i, (int) nbConditions);
+			}
+
+			if (queryVars.contains(ids[i]) && types[i] != UTILITY) {
+				queryList.add(i);
+			}
+		}
+		querySlots = queryList.stream().mapToInt(q -> q).toArray();
+	}
+
+	// ===================================
+	// SAMPLING
+	// ===================================
+
+	/**
+	 * Draws a new sample, writes the value codes in the array, and returns the
+	 * logarithmic weight and utility of the sample in the result array.
+	 * 
+	 * @param random the random generator
+	 * @param codes the array in which to write the value codes of each node
+	 * @param result the array in which to write the weight and utility
+	 */
+	public void sample(SplittableRandom random, int[] codes, double[] result) {
+		double logWeight = 0.0;
+		double utility = 0.0;
+		for (int i = 0; i < types.length; i++) {
+			switch (types[i]) {
+			case SAMPLED:
+				double[] row = tables[i];
+				int card = domains[i].length;
+				int start = getCondition(i, codes) * card;
+				double total = row[start + card - 1];
+				if (total <= 0.0) {
+					logWeight = Double.NEGATIVE_INFINITY;
+					codes[i] = 0;
+					break;
+				}
+				double rand = random.nextDouble() * total;
+				int min = 0;
+				int max = card - 1;
+				while (min < max) {
+					int mid = (min + max) >>> 1;
+					if (row[start + mid] > rand) {
+						max = mid;
+					}
+					else {
+						min = mid + 1;
+					}
+				}
+				codes[i] = min;
+				break;
+			case WEIGHTED:
+				logWeight += Math.log(tables[i][getCondition(i, codes)]);
+				codes[i] = evidenceCodes[i];
+				break;
+			case FIXED:
+				codes[i] = evidenceCodes[i];
+				break;
+			case RANDOM_ACTION:
+				codes[i] = random.nextInt(domains[i].length);
+				break;
+			case UTILITY:
+				utility += tables[i][getCondition(i, codes)];
+				break;
+			}
+		}
+		result[0] = logWeight;
+		result[1] = utility;
+	}
+
+	/**
+	 * Returns the number of nodes in the plan
+	 * 
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return types.length;
+	}
+
+	/**
+	 * Returns the number of query variables in the plan
+	 * 
+	 * @return the number of query variables
+	 */
+	public int getNbQueryVars() {
+		return querySlots.length;
+	}
+
+	/**
+	 * Returns the number of possible values for the j-th query variable
+	 * 
+	 * @param j the index of the query variable
+	 * @return the number of values
+	 */
+	public int getQueryCardinality(int j) {
+		return domains[querySlots[j]].length;
+	}
+
+	/**
+	 * Copies the value codes of the query variables into the target array,
+	 * starting at the given offset.
+	 * 
+	 * @param codes the value codes of all nodes
+	 * @param target the target array
+	 * @param offset the offset in the target array
+	 */
+	public void copyQueryCodes(int[] codes, int[] target, int offset) {
+		for (int j = 0; j < querySlots.length; j++) {
+			target[offset + j] = codes[querySlots[j]];
+		}
+	}
+
+	/**
+	 * Creates a sample out of the value codes of the query variables (starting at
+	 * the given offset in the array), with the given weight and utility.
+	 * 
+	 * @param queryCodes the value codes of the query variables
+	 * @param offset the offset in the array
+	 * @param logWeight the logarithmic weight of the sample
+	 * @param utility the utility of the sample
+	 * @return the corresponding sample
+	 */
+	public Sample createSample(int[] queryCodes, int offset, double logWeight,
+			double utility) {
+		Sample sample = new Sample();
+		for (int j = 0; j < querySlots.length; j++) {
+			int q = querySlots[j];
+			sample.addPair(ids[q], domains[q][queryCodes[offset + j]]);
+		}
+		sample.logWeight = logWeight;
+		sample.utility = utility;
+		return sample;
+	}
+
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
+	/**
+	 * Returns the index of the parent configuration for the node, given the value
+	 * codes of the previous nodes.
+	 * 
+	 * @param i the node index
+	 * @param codes the value codes
+	 * @return the index of the parent configuration
+	 */
+	private int getCondition(int i, int[] codes) {
+		int[] nodeParents = parents[i];
+		int[] nodeStrides = strides[i];
+		int condition = 0;
+		for (int j = 0; j < nodeParents.length; j++) {
+			condition += codes[nodeParents[j]] * nodeStrides[j];
+		}
+		return condition;
+	}
+
+	/**
+	 * Creates the assignment of parent values corresponding to the configuration
+	 * index.
+	 * 
+	 * @param i the node index
+	 * @param condition the configuration index
+	 * @return the corresponding assignment
+	 */
+	private Assignment getConditionAssignment(int i, int condition) {
+		Assignment a = new Assignment();
+		for (int j = 0; j < parents[i].length; j++) {
+			Value[] parentDomain = domains[parents[i][j]];
+			int code = (condition / strides[i][j]) % parentDomain.length;
+			a.addPair(ids[parents[i][j]], parentDomain[code]);
+		}
+		return a;
+	}
+
+	/**
+	 * Creates the flattened probability table for the chance node. For sampled
+	 * nodes, each row contains the cumulative probabilities of the node values. For
+	 * weighted nodes, the table contains the probability of the evidence value for
+	 * each parent configuration.
+	 * 
+	 * @param n the chance node
+	 * @param i the node index
+	 * @param nbConditions the number of parent configurations
+	 * @return the flattened table
+	 */
+	private double[] createProbTable(ChanceNode n, int i, int nbConditions) {
+		int card = domains[i].length;
+		double[] table = new double[(types[i] == SAMPLED) ? nbConditions * card
+				: nbConditions];
+		Map<Value, Integer> index = new HashMap<Value, Integer>();
+		for (int k = 0; k < card; k++) {
+			index.put(domains[i][k], k);
+		}
+		for (int c = 0; c < nbConditions; c++) {
+			Assignment condition = getConditionAssignment(i, c);
+			IndependentDistribution posterior =
+					n.getDistrib().getProbDistrib(condition);
+			if (posterior instanceof ContinuousDistribution) {
+				throw new RuntimeException(ids[i] + " has continuous values");
+			}
+			if (types[i] == WEIGHTED) {
+				table[c] = n.getProb(condition, domains[i][evidenceCodes[i]]);
+				continue;
+			}
+			for (Value v : posterior.getValues()) {
+				Integer k = index.get(v);
+				if (k == null) {
+					throw new RuntimeException(v + " not in domain of " + ids[i]);
+				}
+				table[c * card + k] += posterior.getProb(v);
+			}
+			for (int k = 1; k < card; k++) {
+				table[c * card + k] += table[c * card + k - 1];
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Creates the flattened utility table for the utility node, with one utility
+	 * for each parent configuration.
+	 * 
+	 * @param n the utility node
+	 * @param i the node index
+	 * @param nbConditions the number of parent configurations
+	 * @return the flattened table
+	 */
+	private double[] createUtilTable(UtilityNode n, int i, int nbConditions) {
+		double[] table = new double[nbConditions];
+		for (int c = 0; c < nbConditions; c++) {
+			table[c] = n.getUtility(getConditionAssignment(i, c));
+		}
+		return table;
+	}
+
+}
@@ -0,0 +1,322 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.exact;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Elimination ordering for the variable elimination algorithm. The ordering is
+ * computed from the moralised (interaction) graph of the query, where two variables
+ * are connected if they appear together in at least one factor. The variables are
+ * then selected greedily according to one of the following heuristics:
+ * <ul>
+ * <li>TOPOLOGICAL: the variables are eliminated in the order in which they are
+ * provided (typically from the leaves to the roots of the network)
+ * <li>MIN_DEGREE: the variable with the smallest number of neighbours is eliminated
+ * first
+ * <li>MIN_FILL: the variable whose elimination adds the smallest number of fill-in
+ * edges is eliminated first
+ * <li>WEIGHTED_MIN_FILL: as MIN_FILL, but each fill-in edge is weighted by the
+ * product of the number of values of its endpoints
+ * </ul>
+ * 
+ * The size of the largest intermediate factor induced by the ordering is also
+ * estimated.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class EliminationOrdering {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	/** Possible heuristics for selecting the next variable to eliminate */
+	public static enum Heuristic {
+		TOPOLOGICAL, MIN_DEGREE, MIN_FILL, WEIGHTED_MIN_FILL
+	}
+
+	// the moralised graph, mapping each variable to its neighbours
+	final Map<String, Set<String>> graph;
+
+	// the number of values for each variable
+	final Map<String, Integer> cardinalities;
+
+	// ===================================
+	// CONSTRUCTION
+	// ===================================
+
+	/**
+	 * Creates the moralised graph for the provided factor scopes.
+	 * 
+	 * @param scopes the variables included in each factor
+	 * @param cardinalities the number of values for each variable
+	 */
+	public EliminationOrdering(Collection<? extends Collection<String>> scopes,
+			Map<String, Integer> cardinalities) {
+		this.cardinalities = cardinalities;
+		graph = new HashMap<String, Set<String>>();
+		for (Collection<String> scope : scopes) {
+			for (String var : scope) {
+				Set<String> neighbours =
+						graph.computeIfAbsent(var, v -> new HashSet<String>());
+				neighbours.addAll(scope);
+				neighbours.remove(var);
+			}
+		}
+	}
+
+	// ===================================
+	// GETTERS
+	// ===================================
+
+	/**
+	 * Returns the elimination order for the variables, according to the heuristic.
+	 * For the topological heuristic, the variables are returned in the order of the
+	 * collection.
+	 * 
+	 * @param toEliminate the variables to eliminate
+	 * @param heuristic the heuristic to apply
+	 * @return the elimination order
+	 */
+	public List<String> getOrder(Collection<String> toEliminate,
+			Heuristic heuristic) {
+		if (heuristic == Heuristic.TOPOLOGICAL) {
+			return new ArrayList<String>(toEliminate);
+		}
+		Map<String, Set<String>> g = copyGraph();
+		Set<String> remaining = new LinkedHashSet<String>(toEliminate);
+		List<String> order = new ArrayList<String>(remaining.size());
+		while (!remaining.isEmpty()) {
+			String best = null;
+			double bestScore = Double.MAX_VALUE;
+			for (String var : remaining) {
+				double score = getScore(var, g, heuristic);
+				if (score < bestScore) {
+					best = var;
+					bestScore = score;
+				}
+			}
+			order.add(best);
+			remaining.remove(best);
+			eliminate(best, g);
+		}
+		return order;
+	}
+
+	/**
+	 * Evaluates the elimination order, by computing in a single pass its induced
+	 * width, the number of entries in the largest factor it creates, and the total
+	 * number of entries in the factors it creates (which is proportional to the
+	 * number of operations performed by variable elimination).
+	 * 
+	 * @param order the elimination order
+	 * @return the cost of the elimination order
+	 */
+	public Cost evaluate(List<String> order) {
+		Map<String, Set<String>> g = copyGraph();
+		Cost cost = new Cost();
+		for (String var : order) {
+			Set<String> neighbours = g.getOrDefault(var, new HashSet<String>());
+			double size = getCardinality(var);
+			for (String neighbour : neighbours) {
+				size *= getCardinality(neighbour);
+			}
+			cost.inducedWidth = Math.max(cost.inducedWidth, neighbours.size());
+			cost.maxFactorSize = Math.max(cost.maxFactorSize, size);
+			cost.totalFactorSize += size;
+			eliminate(var, g);
+		}
+		return cost;
+	}
+
+	/**
+	 * Returns the width induced by the elimination order (i.e. the size of the
+	 * largest clique minus one).
+	 * 
+	 * @param order the elimination order
+	 * @return the induced width
+	 */
+	public int getInducedWidth(List<String> order) {
+		return evaluate(order).getInducedWidth();
+	}
+
+	/**
+	 * Returns the maximal cliques of the triangulated graph obtained by eliminating
+	 * the variables in the given order. Each clique is made of an eliminated
+	 * variable and its neighbours at the time of its elimination.
+	 * 
+	 * @param order the elimination order
+	 * @return the list of maximal cliques
+	 */
+	public List<Set<String>> getCliques(List<String> order) {
+		Map<String, Set<String>> g = copyGraph();
+		List<Set<String>> cliques = new ArrayList<Set<String>>();
+		for (String var : order) {
+			if (g.containsKey(var)) {
+				Set<String> clique = new HashSet<String>(g.get(var));
+				clique.add(var);
+				if (cliques.stream().noneMatch(c -> c.containsAll(clique))) {
+					cliques.removeIf(c -> clique.containsAll(c));
+					cliques.add(clique);
+				}
+				eliminate(var, g);
+			}
+		}
+		return cliques;
+	}
+
+	/**
+	 * Returns the neighbours of the variable in the moralised graph.
+	 * 
+	 * @param var the variable
+	 * @return its neighbours
+	 */
+	public Set<String> getNeighbours(String var) {
+		return graph.getOrDefault(var, new HashSet<String>());
+	}
+
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
+	/**
+	 * Returns the score of the variable according to the heuristic (lower is
+	 * better).
+	 * 
+	 * @param var the variable
+	 * @param g the current graph
+	 * @param heuristic the heuristic
+	 * @return the score
+	 */
+	private double getScore(String var, Map<String, Set<String>> g,
+			Heuristic heuristic) {
+		Set<String> neighbours = g.getOrDefault(var, new HashSet<String>());
+		if (heuristic == Heuristic.MIN_DEGREE) {
+			return neighbours.size();
+		}
+		double score = 0.0;
+		List<String> list = new ArrayList<String>(neighbours);
+		for (int i = 0; i < list.size(); i++) {
+			Set<String> adjacent = g.get(list.get(i));
+			for (int j = i + 1; j < list.size(); j++) {
+				if (!adjacent.contains(list.get(j))) {
+					score += (heuristic == Heuristic.WEIGHTED_MIN_FILL)
+							? getCardinality(list.get(i))
+									* getCardinality(list.get(j))
+							: 1.0;
+				}
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Eliminates the variable from the graph, connecting all its neighbours.
+	 * 
+	 * @param var the variable to eliminate
+	 * @param g the graph
+	 */
+	private static void eliminate(String var, Map<String, Set<String>> g) {
+		Set<String> neighbours = g.remove(var);
+		if (neighbours == null) {
+			return;
+		}
+		for (String n : neighbours) {
+			Set<String> adjacent = g.get(n);
+			adjacent.remove(var);
+			adjacent.addAll(neighbours);
+			adjacent.remove(n);
+		}
+	}
+
+	/**
+	 * Returns a copy of the moralised graph
+	 * 
+	 * @return the copy
+	 */
+	private Map<String, Set<String>> copyGraph() {
+		Map<String, Set<String>> copy = new HashMap<String, Set<String>>();
+		graph.forEach((v, n) -> copy.put(v, new HashSet<String>(n)));
+		return copy;
+	}
+
+	/**
+	 * Returns the number of values for the variable (or 1 if unknown).
+	 * 
+	 * @param var the variable
+	 * @return the number of values
+	 */
+	private double getCardinality(String var) {
+		return cardinalities.getOrDefault(var, 1);
+	}
+
+	/**
+	 * Cost of an elimination order: induced width, and number of entries in the
+	 * largest and in all of the factors created along the order.
+	 */
+	public static final class Cost {
+
+		int inducedWidth = 0;
+		double maxFactorSize = 0.0;
+		double totalFactorSize = 0.0;
+
+		/**
+		 * Returns the induced width of the order
+		 * 
+		 * @return the induced width
+		 */
+		public int getInducedWidth() {
+			return inducedWidth;
+		}
+
+		/**
+		 * Returns the number of entries in the largest factor created along the
+		 * order
+		 * 
+		 * @return the size of the largest factor
+		 */
+		public double getMaxFactorSize() {
+			return maxFactorSize;
+		}
+
+		/**
+		 * Returns the total number of entries in the factors created along the
+		 * order
+		 * 
+		 * @return the total size of the factors
+		 */
+		public double getTotalFactorSize() {
+			return totalFactorSize;
+		}
+	}
+
+}
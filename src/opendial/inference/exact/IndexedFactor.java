@@ -0,0 +1,457 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.exact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import opendial.bn.values.Value;
+import opendial.datastructs.Assignment;
+
+/**
+ * Factor over a set of discrete variables, where each variable is associated with
+ * an indexed domain of values. The probability and utility values of the factor
+ * are stored in dense arrays, following the usual stride-based layout (where the
+ * first variable varies the fastest). The product and marginalisation operations
+ * are performed directly on the arrays, without creating any intermediate
+ * assignment.
+ * 
+ * <p>
+ * Each entry of the factor is also associated with a flag stating whether the
+ * entry is defined. The product of two factors is only defined for the entries
+ * that are defined in both factors, which mirrors the behaviour of
+ * {@link DoubleFactor}, where entries are simply absent from the matrix.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public final class IndexedFactor {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// the factor variables
+	final String[] vars;
+
+	// the value domain for each variable
+	final Value[][] domains;
+
+	// the stride for each variable
+	final int[] strides;
+
+	// the probability values
+	final double[] probs;
+
+	// the utility values
+	final double[] utils;
+
+	// whether each entry is defined
+	final boolean[] defined;
+
+	// ===================================
+	// CONSTRUCTION METHODS
+	// ===================================
+
+	/**
+	 * Creates a new factor for the given variables and value domains. All entries
+	 * are initially undefined.
+	 * 
+	 * @param vars the variables
+	 * @param domains the value domain for each variable
+	 */
+	public IndexedFactor(String[] vars, Value[][] domains) {
+		this.vars = vars;
+		this.domains = domains;
+		strides = new int[vars.length];
+		int size = 1;
+		for (int i = 0; i < vars.length; i++) {
+			strides[i] = size;
+			size *= domains[i].length;
+		}
+		probs = new double[size];
+		utils = new double[size];
+		defined = new boolean[size];
+	}
+
+	/**
+	 * Creates a new factor with no variable and a single entry with the given
+	 * probability and utility.
+	 * 
+	 * @param prob the probability
+	 * @param util the utility
+	 */
+	public IndexedFactor(double prob, double util) {
+		this(new String[0], new Value[0][]);
+		probs[0] = prob;
+		utils[0] = util;
+		defined[0] = true;
+	}
+
+	/**
+	 * Creates a new factor from the entries in the double factor.
+	 * 
+	 * @param factor the double factor
+	 */
+	public IndexedFactor(DoubleFactor factor) {
+		this(factor.getVariables().toArray(new String[0]), factor);
+	}
+
+	/**
+	 * Creates a new factor for the given variables from the entries in the double
+	 * factor.
+	 * 
+	 * @param vars the variables
+	 * @param factor the double factor
+	 */
+	private IndexedFactor(String[] vars, DoubleFactor factor) {
+		this(vars, getDomains(vars, factor.getAssignments()));
+		Map<String, Map<Value, Integer>> indices = getIndices(vars, domains);
+		for (Assignment a : factor.getAssignments()) {
+			double[] entry = factor.getEntry(a);
+			setEntry(getIndex(a, indices), entry[0], entry[1]);
+		}
+	}
+
+	/**
+	 * Sets the probability and utility of the entry with the given index
+	 * 
+	 * @param index the index of the entry
+	 * @param prob the probability
+	 * @param util the utility
+	 */
+	public void setEntry(int index, double prob, double util) {
+		probs[index] = prob;
+		utils[index] = util;
+		defined[index] = true;
+	}
+
+	/**
+	 * Returns the index of the entry corresponding to the assignment, or -1 if one
+	 * of the variable values is not included in the domain.
+	 * 
+	 * @param a the assignment
+	 * @param indices the mapping from values to codes, for each variable
+	 * @return the index of the entry
+	 */
+	public int getIndex(Assignment a, Map<String, Map<Value, Integer>> indices) {
+		int index = 0;
+		for (int i = 0; i < vars.length; i++) {
+			Integer code = indices.get(vars[i]).get(a.getValue(vars[i]));
+			if (code == null) {
+				return -1;
+			}
+			index += code * strides[i];
+		}
+		return index;
+	}
+
+	// ===================================
+	// FACTOR OPERATIONS
+	// ===================================
+
+	/**
+	 * Returns the pointwise product of this factor with the other factor. The
+	 * probabilities are multiplied and the utilities are added. Both factors must
+	 * rely on the same value domains for their shared variables.
+	 * 
+	 * @param other the other factor
+	 * @return the product of the two factors
+	 */
+	public IndexedFactor product(IndexedFactor other) {
+
+		// determine the variables of the product
+		List<String> newVars = new ArrayList<String>(Arrays.asList(vars));
+		List<Value[]> newDomains = new ArrayList<Value[]>(Arrays.asList(domains));
+		for (int i = 0; i < other.vars.length; i++) {
+			if (!newVars.contains(other.vars[i])) {
+				newVars.add(other.vars[i]);
+				newDomains.add(other.domains[i]);
+			}
+		}
+		IndexedFactor result =
+				new IndexedFactor(newVars.toArray(new String[newVars.size()]),
+						newDomains.toArray(new Value[newDomains.size()][]));
+
+		// the strides of each factor for the product variables
+		int nbVars = result.vars.length;
+		int[] cards = new int[nbVars];
+		int[] strides1 = new int[nbVars];
+		int[] strides2 = new int[nbVars];
+		for (int i = 0; i < nbVars; i++) {
+			cards[i] = result.domains[i].length;
+			strides1[i] = getStride(result.vars[i]);
+			strides2[i] = other.getStride(result.vars[i]);
+		}
+
+		// loop over the entries
+		int[] counters = new int[nbVars];
+		int j = 0;
+		int k = 0;
+		for (int i = 0; i < result.probs.length; i++) {
+			if (defined[j] && other.defined[k]) {
+				result.setEntry(i, probs[j] * other.probs[k],
+						utils[j] + other.utils[k]);
+			}
+			for (int l = 0; l < nbVars; l++) {
+				counters[l]++;
+				if (counters[l] == cards[l]) {
+					counters[l] = 0;
+					j -= (cards[l] - 1) * strides1[l];
+					k -= (cards[l] - 1) * strides2[l];
+				}
+				else {
+					j += strides1[l];
+					k += strides2[l];
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sums out the variable from the factor. The probabilities are summed, and the
+	 * utilities are averaged with respect to the probabilities.
+	 * 
+	 * @param var the variable to sum out
+	 * @return the resulting factor
+	 */
+	public IndexedFactor sumOut(String var) {
+		int pos = Arrays.asList(vars).indexOf(var);
+		if (pos < 0) {
+			return this;
+		}
+		String[] newVars = new String[vars.length - 1];
+		Value[][] newDomains = new Value[vars.length - 1][];
+		for (int i = 0, j = 0; i < vars.length; i++) {
+			if (i != pos) {
+				newVars[j] = vars[i];
+				newDomains[j++] = domains[i];
+			}
+		}
+		IndexedFactor result = new IndexedFactor(newVars, newDomains);
+
+		int stride = strides[pos];
+		int block = stride * domains[pos].length;
+		for (int i = 0; i < probs.length; i++) {
+			if (defined[i]) {
+				int r = (i % stride) + (i / block) * stride;
+				result.probs[r] += probs[i];
+				result.utils[r] += probs[i] * utils[i];
+				result.defined[r] = true;
+			}
+		}
+		for (int r = 0; r < result.probs.length; r++) {
+			if (result.probs[r] > 0.0) {
+				result.utils[r] /= result.probs[r];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sums out all variables that are not included in the collection.
+	 * 
+	 * @param headVars the variables to retain
+	 * @return the resulting factor
+	 */
+	public IndexedFactor trim(Collection<String> headVars) {
+		IndexedFactor result = this;
+		for (String var : vars) {
+			if (!headVars.contains(var)) {
+				result = result.sumOut(var);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Extends the factor with a new variable that is assigned to a unique value.
+	 * 
+	 * @param var the variable
+	 * @param value the value for the variable
+	 * @return the extended factor
+	 */
+	public IndexedFactor extend(String var, Value value) {
+		String[] newVars = Arrays.copyOf(vars, vars.length + 1);
+		Value[][] newDomains = Arrays.copyOf(domains, domains.length + 1);
+		newVars[vars.length] = var;
+		newDomains[vars.length] = new Value[] { value };
+		IndexedFactor result = new IndexedFactor(newVars, newDomains);
+		System.arraycopy(probs, 0, result.probs, 0, probs.length);
+		System.arraycopy(utils, 0, result.utils, 0, utils.length);
+		System.arraycopy(defined, 0, result.defined, 0, defined.length);
+		return result;
+	}
+
+	// ===================================
+	// GETTERS
+	// ===================================
+
+	/**
+	 * Returns the factor variables
+	 * 
+	 * @return the variables
+	 */
+	public List<String> getVariables() {
+		return Arrays.asList(vars);
+	}
+
+	/**
+	 * Returns true if the factor contains the variable, and false otherwise
+	 * 
+	 * @param var the variable
+	 * @return true if the variable is included, false otherwise
+	 */
+	public boolean hasVariable(String var) {
+		for (String v : vars) {
+			if (v.equals(var)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the factor is empty, e.g. either without any variable or
+	 * without any defined entry.
+	 * 
+	 * @return true if the factor is empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		if (vars.length == 0) {
+			return true;
+		}
+		for (boolean d : defined) {
+			if (d) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of entries in the factor (defined or not)
+	 * 
+	 * @return the factor size
+	 */
+	public int size() {
+		return probs.length;
+	}
+
+	/**
+	 * Converts the factor into a double factor, containing only the defined
+	 * entries.
+	 * 
+	 * @return the corresponding double factor
+	 */
+	public DoubleFactor toDoubleFactor() {
+		DoubleFactor factor = new DoubleFactor();
+		for (int i = 0; i < probs.length; i++) {
+			if (defined[i]) {
+				Assignment a = new Assignment();
+				for (int l = 0; l < vars.length; l++) {
+					a.addPair(vars[l], domains[l][(i / strides[l])
+							% domains[l].length]);
+				}
+				factor.addEntry(a, probs[i], utils[i]);
+			}
+		}
+		return factor;
+	}
+
+	/**
+	 * Returns a string representation of the factor
+	 */
+	@Override
+	public String toString() {
+		return toDoubleFactor().toString();
+	}
+
+	// ===================================
+	// UTILITIES
+	// ===================================
+
+	/**
+	 * Returns the stride for the variable, or 0 if the variable is not included in
+	 * the factor.
+	 * 
+	 * @param var the variable
+	 * @return the corresponding stride
+	 */
+	private int getStride(String var) {
+		for (int i = 0; i < vars.length; i++) {
+			if (vars[i].equals(var)) {
+				return strides[i];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the mapping from values to codes, for each variable
+	 * 
+	 * @param vars the variables
+	 * @param domains the value domain for each variable
+	 * @return the mapping from values to codes
+	 */
+	static Map<String, Map<Value, Integer>> getIndices(String[] vars,
+			Value[][] domains) {
+		Map<String, Map<Value, Integer>> indices =
+				new HashMap<String, Map<Value, Integer>>();
+		for (int i = 0; i < vars.length; i++) {
+			Map<Value, Integer> index = new HashMap<Value, Integer>();
+			for (int j = 0; j < domains[i].length; j++) {
+				index.put(domains[i][j], j);
+			}
+			indices.put(vars[i], index);
+		}
+		return indices;
+	}
+
+	/**
+	 * Extracts the value domains of the variables from the collection of
+	 * assignments
+	 * 
+	 * @param vars the variables
+	 * @param assignments the assignments
+	 * @return the value domain for each variable
+	 */
+	private static Value[][] getDomains(String[] vars,
+			Collection<Assignment> assignments) {
+		Value[][] domains = new Value[vars.length][];
+		for (int i = 0; i < vars.length; i++) {
+			String var = vars[i];
+			domains[i] = assignments.stream().map(a -> a.getValue(var))
+					.distinct().toArray(Value[]::new);
+		}
+		return domains;
+	}
+
+}
@@ -0,0 +1,638 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.exact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import opendial.bn.BNetwork;
+import opendial.bn.distribs.ContinuousDistribution;
+import opendial.bn.distribs.IndependentDistribution;
+import opendial.bn.distribs.MultivariateTable;
+import opendial.bn.distribs.UtilityTable;
+import opendial.bn.nodes.ActionNode;
+import opendial.bn.nodes.BNode;
+import opendial.bn.nodes.ChanceNode;
+import opendial.bn.values.Value;
+import opendial.datastructs.Assignment;
+import opendial.inference.InferenceAlgorithm;
+import opendial.inference.Query;
+
+/**
+ * Implementation of the junction tree algorithm (in its Shafer-Shenoy variant). The
+ * Bayesian network is compiled into a tree of cliques, obtained by triangulating
+ * its moralised graph with the min-fill heuristic. The clique potentials are then
+ * calibrated by passing messages along the tree. Once calibrated, the tree can
+ * answer all probability queries whose variables are included in a single clique,
+ * without any further inference.
+ * 
+ * <p>
+ * The tree only covers the nodes that are relevant for the query variables given
+ * the evidence (as determined by the Bayes-ball algorithm), such that barren or
+ * d-separated nodes are neither triangulated nor calibrated. The compiled tree is
+ * cached, and is only recompiled when the nodes of the network or the evidence are
+ * modified, or when a query requires nodes that are not covered by the tree (the
+ * tree being then compiled for the previous and new query variables together). To
+ * avoid compiling trees that are only used once, the compilation is only triggered
+ * upon the second query on the same network and evidence. The queries that cannot
+ * be answered from the tree (utility and reduction queries, or queries spanning
+ * several cliques) are delegated to variable elimination.
+ * 
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class JunctionTree implements InferenceAlgorithm {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	/** Maximum number of entries in a clique potential */
+	public static int MAX_CLIQUE_SIZE = 10000;
+
+	// algorithm used for the queries that cannot be answered from the tree
+	final VariableElimination ve;
+
+	// the network, version and evidence for which the tree was compiled
+	BNetwork network;
+	long version;
+	Assignment evidence;
+
+	// the query variables and relevant nodes for which the tree was compiled
+	Set<String> queryVars = new HashSet<String>();
+	Set<String> nodeIds = new HashSet<String>();
+
+	// the network, version and evidence of the last query
+	BNetwork lastNetwork;
+	long lastVersion;
+	Assignment lastEvidence;
+
+	// the calibrated clique potentials (null if the network cannot be compiled)
+	List<IndexedFactor> beliefs;
+
+	// number of compilations and of queries answered from the tree
+	int nbCompilations = 0;
+	int nbHits = 0;
+
+	// ===================================
+	// CONSTRUCTION
+	// ===================================
+
+	/**
+	 * Creates a new junction tree algorithm (with no compiled tree).
+	 */
+	public JunctionTree() {
+		ve = new VariableElimination();
+	}
+
+	// ===================================
+	// MAIN QUERY METHODS
+	// ===================================
+
+	/**
+	 * Returns the probability distribution for the query variables. If the query
+	 * variables are included in a clique of the calibrated tree, the distribution
+	 * is directly extracted from the clique potential. Else, the query is answered
+	 * using variable elimination.
+	 * 
+	 * @param query the full query
+	 * @return the corresponding probability table
+	 */
+	@Override
+	public synchronized MultivariateTable queryProb(Query.ProbQuery query) {
+		IndexedFactor belief = getBelief(query);
+		if (belief == null) {
+			return ve.queryProb(query);
+		}
+		nbHits++;
+		Set<String> queryVars = new HashSet<String>(query.getQueryVars());
+		IndexedFactor factor = belief.trim(queryVars);
+		for (String var : queryVars) {
+			if (evidence.containsVar(var)) {
+				factor = factor.extend(var, evidence.getValue(var));
+			}
+		}
+		MultivariateTable.Builder builder = new MultivariateTable.Builder();
+		builder.addRows(factor.toDoubleFactor().getProbTable());
+		builder.normalise();
+		return builder.build();
+	}
+
+	/**
+	 * Returns the marginal distributions of the query variables. The tree is
+	 * directly compiled for the network, evidence and query variables (if it does
+	 * not already cover them), and each marginal is then extracted from the
+	 * calibrated potentials.
+	 * 
+	 * @param network the Bayesian network
+	 * @param queryVars the query variables
+	 * @param evidence the evidence
+	 * @return the marginal distribution for each query variable
+	 */
+	@Override
+	public synchronized Map<String, IndependentDistribution> queryMarginals(
+			BNetwork network, Collection<String> queryVars, Assignment evidence) {
+		Query.ProbQuery full = new Query.ProbQuery(network, queryVars, evidence);
+		if (!covers(full)) {
+			compile(extend(full));
+		}
+		Map<String, IndependentDistribution> marginals =
+				new HashMap<String, IndependentDistribution>();
+		for (String var : queryVars) {
+			Query.ProbQuery query =
+					new Query.ProbQuery(network, Arrays.asList(var), evidence);
+			marginals.put(var, queryProb(query).getMarginal(var));
+		}
+		return marginals;
+	}
+
+	/**
+	 * Returns the utility table for the query, using variable elimination.
+	 * 
+	 * @param query the full query
+	 * @return the utility table
+	 */
+	@Override
+	public UtilityTable queryUtil(Query.UtilQuery query) {
+		return ve.queryUtil(query);
+	}
+
+	/**
+	 * Reduces the Bayesian network, using variable elimination.
+	 * 
+	 * @param query the reduction query
+	 * @return the reduced network
+	 */
+	@Override
+	public BNetwork reduce(Query.ReduceQuery query) {
+		return ve.reduce(query);
+	}
+
+	/**
+	 * Returns true if the query can be answered from the tree, and false otherwise.
+	 * This is the case if the tree compiled for the network and evidence covers
+	 * the relevant nodes of the query and includes a clique with the query
+	 * variables, or if the tree does not cover the query but the network and
+	 * evidence are the same as for the previous query (the tree being then
+	 * compiled when the query is answered). The method does not modify the tree.
+	 * 
+	 * @param query the query
+	 * @return true if the query can be answered from the tree, false otherwise
+	 */
+	public synchronized boolean isApplicable(Query query) {
+		if (!(query instanceof Query.ProbQuery)) {
+			return false;
+		}
+		else if (covers(query)) {
+			return findBelief(query) != null;
+		}
+		return isRepeated(query);
+	}
+
+	/**
+	 * Records the network and evidence of a probability query answered by another
+	 * algorithm, such that the tree is compiled if the same network and evidence
+	 * are queried again.
+	 * 
+	 * @param query the query
+	 */
+	public synchronized void recordQuery(Query query) {
+		BNetwork queryNetwork = query.getNetwork();
+		lastNetwork = queryNetwork;
+		lastVersion = queryNetwork.getVersion();
+		lastEvidence = new Assignment(query.getEvidence());
+	}
+
+	// ===================================
+	// GETTERS
+	// ===================================
+
+	/**
+	 * Returns true if a tree is currently compiled for the network and evidence
+	 * 
+	 * @param network the Bayesian network
+	 * @param evidence the evidence
+	 * @return true if a valid compiled tree exists, false otherwise
+	 */
+	public synchronized boolean isCompiled(BNetwork network, Assignment evidence) {
+		return beliefs != null && isValid(network, evidence);
+	}
+
+	/**
+	 * Returns true if the query can be answered from the compiled tree, without
+	 * recompiling it.
+	 * 
+	 * @param query the query
+	 * @return true if the query can be answered from the compiled tree
+	 */
+	public synchronized boolean isCached(Query query) {
+		return query instanceof Query.ProbQuery && covers(query)
+				&& findBelief(query) != null;
+	}
+
+	/**
+	 * Returns the cliques of the compiled tree (or an empty list if no tree is
+	 * compiled).
+	 * 
+	 * @return the cliques of the tree
+	 */
+	public synchronized List<Set<String>> getCliques() {
+		List<Set<String>> cliques = new ArrayList<Set<String>>();
+		if (beliefs != null) {
+			beliefs.forEach(b -> cliques.add(new HashSet<String>(b.getVariables())));
+		}
+		return cliques;
+	}
+
+	/**
+	 * Returns the number of compilations performed so far
+	 * 
+	 * @return the number of compilations
+	 */
+	public synchronized int getNbCompilations() {
+		return nbCompilations;
+	}
+
+	/**
+	 * Returns the number of queries answered from the calibrated tree
+	 * 
+	 * @return the number of queries answered from the tree
+	 */
+	public synchronized int getNbHits() {
+		return nbHits;
+	}
+
+	// ===================================
+	// COMPILATION
+	// ===================================
+
+	/**
+	 * Compiles and calibrates the junction tree for the network and evidence of the
+	 * query, restricted to the nodes that are relevant for its query variables. If
+	 * these nodes contain continuous distributions or cliques that are too large,
+	 * no tree is constructed.
+	 * 
+	 * @param query the probability query
+	 */
+	public synchronized void compile(Query.ProbQuery query) {
+		this.network = query.getNetwork();
+		this.version = network.getVersion();
+		this.evidence = new Assignment(query.getEvidence());
+		queryVars = new HashSet<String>(query.getQueryVars());
+		nodeIds = new HashSet<String>();
+		beliefs = null;
+		nbCompilations++;
+
+		// the relevant chance and action nodes
+		List<BNode> relevant = query.getFilteredSortedNodes();
+		relevant.forEach(n -> nodeIds.add(n.getId()));
+		List<BNode> nodes = new ArrayList<BNode>();
+		for (BNode node : relevant) {
+			if (node instanceof ChanceNode) {
+				if (((ChanceNode) node)
+						.getDistrib() instanceof ContinuousDistribution) {
+					return;
+				}
+				nodes.add(node);
+			}
+			else if (node instanceof ActionNode) {
+				nodes.add(node);
+			}
+		}
+
+		// create the basic factors
+		Map<String, Value[]> domains = new HashMap<String, Value[]>();
+		List<IndexedFactor> factors = new ArrayList<IndexedFactor>();
+		for (IndexedFactor f : VariableElimination.createFactors(nodes, evidence,
+				domains)) {
+			if (!f.isEmpty()) {
+				factors.add(f);
+			}
+		}
+
+		// triangulate the moralised graph and extract the cliques
+		Map<String, Integer> cardinalities = new HashMap<String, Integer>();
+		domains.forEach((v, d) -> cardinalities.put(v, d.length));
+		List<List<String>> scopes = new ArrayList<List<String>>();
+		factors.forEach(f -> scopes.add(f.getVariables()));
+		EliminationOrdering ordering =
+				new EliminationOrdering(scopes, cardinalities);
+		List<String> order = ordering.getOrder(domains.keySet(),
+				EliminationOrdering.Heuristic.MIN_FILL);
+		List<Set<String>> cliques = ordering.getCliques(order);
+
+		// create the initial clique potentials
+		List<IndexedFactor> potentials = new ArrayList<IndexedFactor>();
+		for (Set<String> clique : cliques) {
+			String[] vars = clique.toArray(new String[clique.size()]);
+			Value[][] varDomains = new Value[vars.length][];
+			long size = 1;
+			for (int i = 0; i < vars.length; i++) {
+				varDomains[i] = domains.get(vars[i]);
+				size *= varDomains[i].length;
+			}
+			if (size > MAX_CLIQUE_SIZE) {
+				log.fine("clique " + clique + " is too large, cannot compile tree");
+				return;
+			}
+			IndexedFactor potential = new IndexedFactor(vars, varDomains);
+			for (int i = 0; i < potential.size(); i++) {
+				potential.setEntry(i, 1.0, 0.0);
+			}
+			potentials.add(potential);
+		}
+		for (IndexedFactor f : factors) {
+			int best = -1;
+			for (int i = 0; i < cliques.size(); i++) {
+				if (cliques.get(i).containsAll(f.getVariables()) && (best < 0
+						|| potentials.get(i).size() < potentials.get(best).size())) {
+					best = i;
+				}
+			}
+			potentials.set(best, potentials.get(best).product(f));
+		}
+
+		// connect the cliques and calibrate the tree
+		beliefs = calibrate(potentials, connect(cliques));
+	}
+
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
+	/**
+	 * Returns the calibrated clique potential which contains all (non-evidence)
+	 * query variables, or null if no such potential exists. If the tree does not
+	 * cover the query, it is compiled if the network and evidence were already used
+	 * in the previous query.
+	 * 
+	 * @param query the query
+	 * @return the clique potential, or null if none could be found
+	 */
+	private IndexedFactor getBelief(Query query) {
+		if (!(query instanceof Query.ProbQuery)) {
+			return null;
+		}
+		if (!covers(query)) {
+			boolean repeated = isRepeated(query);
+			recordQuery(query);
+			if (!repeated) {
+				return null;
+			}
+			compile(extend((Query.ProbQuery) query));
+		}
+		return findBelief(query);
+	}
+
+	/**
+	 * Returns true if the tree is valid for the network and evidence of the query,
+	 * and was compiled for all of its relevant nodes.
+	 * 
+	 * @param query the query
+	 * @return true if the tree covers the query, false otherwise
+	 */
+	private boolean covers(Query query) {
+		if (!isValid(query.getNetwork(), query.getEvidence())) {
+			return false;
+		}
+		if (queryVars.containsAll(query.getQueryVars())) {
+			return true;
+		}
+		return query.getFilteredSortedNodes().stream()
+				.allMatch(n -> nodeIds.contains(n.getId()));
+	}
+
+	/**
+	 * Returns the query extended with the query variables of the compiled tree, if
+	 * the tree is valid for the network and evidence of the query. Else, returns
+	 * the query itself.
+	 * 
+	 * @param query the probability query
+	 * @return the extended query
+	 */
+	private Query.ProbQuery extend(Query.ProbQuery query) {
+		if (!isValid(query.getNetwork(), query.getEvidence())) {
+			return query;
+		}
+		Set<String> vars = new HashSet<String>(queryVars);
+		vars.addAll(query.getQueryVars());
+		return new Query.ProbQuery(network, vars, evidence);
+	}
+
+	/**
+	 * Returns the smallest clique potential of the compiled tree that includes the
+	 * (non-evidence) query variables. If no such potential exists, returns null.
+	 * 
+	 * @param query the query
+	 * @return the clique potential, or null if none can answer the query
+	 */
+	private IndexedFactor findBelief(Query query) {
+		if (beliefs == null) {
+			return null;
+		}
+		Set<String> queryVars = new HashSet<String>(query.getQueryVars());
+		queryVars.removeAll(evidence.getVariables());
+		if (queryVars.isEmpty()) {
+			return null;
+		}
+		IndexedFactor best = null;
+		for (IndexedFactor belief : beliefs) {
+			if (belief.getVariables().containsAll(queryVars)
+					&& (best == null || belief.size() < best.size())) {
+				best = belief;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns true if the network and evidence of the query are the same as for
+	 * the previous query.
+	 * 
+	 * @param query the query
+	 * @return true if the query repeats the network and evidence, false otherwise
+	 */
+	private boolean isRepeated(Query query) {
+		BNetwork queryNetwork = query.getNetwork();
+		return lastNetwork == queryNetwork
+				&& lastVersion == queryNetwork.getVersion()
+				&& query.getEvidence().equals(lastEvidence);
+	}
+
+	/**
+	 * Returns true if the compiled tree corresponds to the current version of the
+	 * network and evidence.
+	 * 
+	 * @param network the Bayesian network
+	 * @param evidence the evidence
+	 * @return true if the tree is valid, false otherwise
+	 */
+	private boolean isValid(BNetwork network, Assignment evidence) {
+		return this.network == network && version == network.getVersion()
+				&& evidence.equals(this.evidence);
+	}
+
+	/**
+	 * Connects the cliques into a tree (or forest), by selecting the edges that
+	 * maximise the size of the separators.
+	 * 
+	 * @param cliques the cliques
+	 * @return the neighbours of each clique in the tree
+	 */
+	private static List<List<Integer>> connect(List<Set<String>> cliques) {
+		List<List<Integer>> edges = new ArrayList<List<Integer>>();
+		cliques.forEach(c -> edges.add(new ArrayList<Integer>()));
+		boolean[] inTree = new boolean[cliques.size()];
+		for (int start = 0; start < cliques.size(); start++) {
+			if (inTree[start]) {
+				continue;
+			}
+			inTree[start] = true;
+			while (true) {
+				int bestFrom = -1;
+				int bestTo = -1;
+				int bestSize = 0;
+				for (int i = 0; i < cliques.size(); i++) {
+					for (int j = 0; inTree[i] && j < cliques.size(); j++) {
+						if (!inTree[j]) {
+							Set<String> sep = new HashSet<String>(cliques.get(i));
+							sep.retainAll(cliques.get(j));
+							if (sep.size() > bestSize) {
+								bestFrom = i;
+								bestTo = j;
+								bestSize = sep.size();
+							}
+						}
+					}
+				}
+				if (bestTo < 0) {
+					break;
+				}
+				inTree[bestTo] = true;
+				edges.get(bestFrom).add(bestTo);
+				edges.get(bestTo).add(bestFrom);
+			}
+		}
+		return edges;
+	}
+
+	/**
+	 * Calibrates the clique potentials by passing messages along the tree (first
+	 * from the leaves to the root, and then from the root to the leaves), and
+	 * returns the resulting beliefs.
+	 * 
+	 * @param potentials the initial clique potentials
+	 * @param edges the neighbours of each clique
+	 * @return the calibrated beliefs
+	 */
+	private static List<IndexedFactor> calibrate(List<IndexedFactor> potentials,
+			List<List<Integer>> edges) {
+
+		int nbCliques = potentials.size();
+		Map<Integer, IndexedFactor> messages = new HashMap<Integer, IndexedFactor>();
+
+		// ordering the cliques so that each clique follows its parent
+		List<Integer> order = new ArrayList<Integer>();
+		int[] parents = new int[nbCliques];
+		Arrays.fill(parents, -2);
+		for (int root = 0; root < nbCliques; root++) {
+			if (parents[root] == -2) {
+				parents[root] = -1;
+				order.add(root);
+				for (int k = order.size() - 1; k < order.size(); k++) {
+					int i = order.get(k);
+					for (int j : edges.get(i)) {
+						if (parents[j] == -2) {
+							parents[j] = i;
+							order.add(j);
+						}
+					}
+				}
+			}
+		}
+
+		// collect phase (from the leaves to the roots)
+		for (int k = order.size() - 1; k >= 0; k--) {
+			int i = order.get(k);
+			if (parents[i] >= 0) {
+				messages.put(i * nbCliques + parents[i], createMessage(i,
+						parents[i], potentials, edges, messages, nbCliques));
+			}
+		}
+
+		// distribute phase (from the roots to the leaves)
+		for (int i : order) {
+			for (int j : edges.get(i)) {
+				if (parents[j] == i) {
+					messages.put(i * nbCliques + j, createMessage(i, j, potentials,
+							edges, messages, nbCliques));
+				}
+			}
+		}
+
+		// computing the beliefs
+		List<IndexedFactor> beliefs = new ArrayList<IndexedFactor>();
+		for (int i = 0; i < nbCliques; i++) {
+			IndexedFactor belief = potentials.get(i);
+			for (int k : edges.get(i)) {
+				belief = belief.product(messages.get(k * nbCliques + i));
+			}
+			beliefs.add(belief);
+		}
+		return beliefs;
+	}
+
+	/**
+	 * Creates the message from clique i to clique j, by multiplying the potential of
+	 * clique i with the messages received from its other neighbours, and summing
+	 * out the variables that are not shared with clique j.
+	 * 
+	 * @param i the source clique
+	 * @param j the target clique
+	 * @param potentials the clique potentials
+	 * @param edges the neighbours of each clique
+	 * @param messages the messages computed so far
+	 * @param nbCliques the number of cliques
+	 * @return the message
+	 */
+	private static IndexedFactor createMessage(int i, int j,
+			List<IndexedFactor> potentials, List<List<Integer>> edges,
+			Map<Integer, IndexedFactor> messages, int nbCliques) {
+		IndexedFactor product = potentials.get(i);
+		for (int k : edges.get(i)) {
+			if (k != j) {
+				product = product.product(messages.get(k * nbCliques + i));
+			}
+		}
+		Collection<String> separator = new HashSet<String>(product.getVariables());
+		separator.retainAll(potentials.get(j).getVariables());
+		return product.trim(separator);
+	}
+
+}
@@ -25,10 +25,11 @@ package opendial.inference.exact;
 
 import java.util.logging.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +46,7 @@ import opendial.bn.nodes.ActionNode;
 import opendial.bn.nodes.BNode;
 import opendial.bn.nodes.ChanceNode;
 import opendial.bn.nodes.UtilityNode;
+import opendial.bn.values.Value;
 import opendial.datastructs.Assignment;
 import opendial.inference.InferenceAlgorithm;
 import opendial.inference.Query;
@@ -59,6 +61,31 @@ public class VariableElimination implements InferenceAlgorithm {
 
 	final static Logger log = Logger.getLogger("OpenDial");
 
+	/** Default heuristic for the elimination ordering */
+	public static EliminationOrdering.Heuristic DEFAULT_HEURISTIC =
+			EliminationOrdering.Heuristic.MIN_FILL;
+
+	// the heuristic used to order the variables to eliminate
+	final EliminationOrdering.Heuristic heuristic;
+
+	/**
+	 * Creates a new variable elimination algorithm, with the default heuristic for
+	 * the elimination ordering.
+	 */
+	public VariableElimination() {
+		this(DEFAULT_HEURISTIC);
+	}
+
+	/**
+	 * Creates a new variable elimination algorithm, with the given heuristic for
+	 * the elimination ordering.
+	 * 
+	 * @param heuristic the heuristic to use
+	 */
+	public VariableElimination(EliminationOrdering.Heuristic heuristic) {
+		this.heuristic = heuristic;
+	}
+
 	// ===================================
 	// MAIN QUERY METHODS
 	// ===================================
@@ -72,7 +99,22 @@ public class VariableElimination implements InferenceAlgorithm {
 	 */
 	@Override
 	public MultivariateTable queryProb(Query.ProbQuery query) {
-		DoubleFactor queryFactor = createQueryFactor(query);
+		return queryProb(query, null);
+	}
+
+	/**
+	 * Queries for the probability distribution of the set of random variables in the
+	 * Bayesian network, given the provided evidence, and eliminates the hidden
+	 * variables in the order provided as argument (for instance, an order already
+	 * computed to estimate the cost of the query). The hidden variables that are
+	 * missing from the order are eliminated last.
+	 * 
+	 * @param query the full query
+	 * @param order the elimination order (if null, determined by the heuristic)
+	 * @return the corresponding categorical table
+	 */
+	public MultivariateTable queryProb(Query.ProbQuery query, List<String> order) {
+		DoubleFactor queryFactor = eliminate(query, order).factor.toDoubleFactor();
 		MultivariateTable.Builder builder = new MultivariateTable.Builder();
 		builder.addRows(queryFactor.getProbTable());
 		builder.normalise();
@@ -88,7 +130,21 @@ public class VariableElimination implements InferenceAlgorithm {
 	 */
 	@Override
 	public UtilityTable queryUtil(Query.UtilQuery query) {
-		DoubleFactor queryFactor = createQueryFactor(query);
+		return queryUtil(query, null);
+	}
+
+	/**
+	 * Queries for the utility of a particular set of (action) variables, given the
+	 * provided evidence, and eliminates the hidden variables in the order provided
+	 * as argument. The hidden variables that are missing from the order are
+	 * eliminated last.
+	 * 
+	 * @param query the full query
+	 * @param order the elimination order (if null, determined by the heuristic)
+	 * @return the utility distribution
+	 */
+	public UtilityTable queryUtil(Query.UtilQuery query, List<String> order) {
+		DoubleFactor queryFactor = eliminate(query, order).factor.toDoubleFactor();
 		queryFactor.normalise();
 		return new UtilityTable(queryFactor.getUtilTable());
 	}
@@ -98,99 +154,137 @@ public class VariableElimination implements InferenceAlgorithm {
 	// ===================================
 
 	/**
-	 * Generates the full double factor associated with the query variables, using
-	 * the variable-elimination algorithm.
+	 * Generates the full factor associated with the query variables, using the
+	 * variable-elimination algorithm. The values of each variable are first
+	 * indexed, and the factors are then multiplied and summed out using their
+	 * indexed representation. The returned elimination also contains the order in
+	 * which the hidden variables were eliminated and the size of the largest factor
+	 * created for the query.
 	 * 
 	 * @param query the query
-	 * @return the full double factor containing all query variables occurred during
-	 *         the inference
+	 * @param precomputed the elimination order (if null, determined by the
+	 *            heuristic)
+	 * @return the elimination, with the full factor containing all query variables
 	 */
-	private DoubleFactor createQueryFactor(Query query) {
+	public Elimination eliminate(Query query, List<String> precomputed) {
 
-		List<DoubleFactor> factors = new LinkedList<DoubleFactor>();
 		Collection<String> queryVars = query.getQueryVars();
 		Assignment evidence = query.getEvidence();
+		List<BNode> nodes = query.getFilteredSortedNodes();
 
-		for (BNode n : query.getFilteredSortedNodes()) {
-			// create the basic factor for every variable
-			DoubleFactor basicFactor = makeFactor(n, evidence);
+		// create the basic factor for every variable
+		Map<String, Value[]> domains = new HashMap<String, Value[]>();
+		List<IndexedFactor> factors = new LinkedList<IndexedFactor>();
+		List<String> hiddenVars = new ArrayList<String>();
+		for (IndexedFactor basicFactor : createFactors(nodes, evidence, domains)) {
 			if (!basicFactor.isEmpty()) {
 				factors.add(basicFactor);
-				// if the variable is hidden, we sum it out
-				if (!queryVars.contains(n.getId())) {
-					factors = sumOut(n.getId(), factors);
-				}
 			}
 		}
-		// compute the final product, and normalise
-		DoubleFactor finalProduct = pointwiseProduct(factors);
-		finalProduct = addEvidencePairs(finalProduct, query);
-		finalProduct.trim(queryVars);
-		return finalProduct;
-	}
-
-	/**
-	 * Sums out the variable from the pointwise product of the factors, and returns
-	 * the result
-	 * 
-	 * @param nodeId the Bayesian node corresponding to the variable
-	 * @param factors the factors to sum out
-	 * @return the summed out factor
-	 */
-	private List<DoubleFactor> sumOut(String nodeId, List<DoubleFactor> factors) {
-
-		// we divide the factors into two lists: the factors which are
-		// independent of the variable, and those who aren't
-		List<DoubleFactor> dependentFactors = new LinkedList<DoubleFactor>();
-		List<DoubleFactor> remainingFactors = new LinkedList<DoubleFactor>();
-
-		for (DoubleFactor f : factors) {
-			if (!f.getVariables().contains(nodeId)) {
-				remainingFactors.add(f);
-			}
-			else {
-				dependentFactors.add(f);
+		for (BNode n : nodes) {
+			if (!queryVars.contains(n.getId()) && domains.containsKey(n.getId())) {
+				hiddenVars.add(n.getId());
 			}
 		}
 
-		// we compute the product of the dependent factors
-		DoubleFactor productDependentFactors = pointwiseProduct(dependentFactors);
+		// determine the elimination order for the hidden variables
+		List<String> order = hiddenVars;
+		if (precomputed != null) {
+			Set<String> remaining = new LinkedHashSet<String>(hiddenVars);
+			order = new ArrayList<String>();
+			for (String var : precomputed) {
+				if (remaining.remove(var)) {
+					order.add(var);
+				}
+			}
+			order.addAll(remaining);
+		}
+		else if (heuristic != EliminationOrdering.Heuristic.TOPOLOGICAL) {
+			Map<String, Integer> cardinalities = new HashMap<String, Integer>();
+			domains.forEach((v, d) -> cardinalities.put(v, d.length));
+			List<List<String>> scopes = new ArrayList<List<String>>();
+			factors.forEach(f -> scopes.add(f.getVariables()));
+			order = new EliminationOrdering(scopes, cardinalities)
+					.getOrder(hiddenVars, heuristic);
+		}
 
-		// we sum out the dependent factors
-		DoubleFactor sumDependentFactors =
-				sumOutDependent(nodeId, productDependentFactors);
+		// sum out the hidden variables
+		int peakSize = 0;
+		for (String hiddenVar : order) {
+
+			// we divide the factors into two lists: the factors which are
+			// independent of the variable, and those who aren't
+			List<IndexedFactor> dependentFactors = new LinkedList<IndexedFactor>();
+			List<IndexedFactor> remainingFactors = new LinkedList<IndexedFactor>();
+			for (IndexedFactor f : factors) {
+				if (!f.hasVariable(hiddenVar)) {
+					remainingFactors.add(f);
+				}
+				else {
+					dependentFactors.add(f);
+				}
+			}
 
-		if (!sumDependentFactors.isEmpty()) {
-			remainingFactors.add(sumDependentFactors);
+			// we compute the product of the dependent factors and sum it out
+			IndexedFactor product = pointwiseProduct(dependentFactors);
+			peakSize = Math.max(peakSize, product.size());
+			IndexedFactor sumDependentFactors = product.sumOut(hiddenVar);
+			if (!sumDependentFactors.isEmpty()) {
+				remainingFactors.add(sumDependentFactors);
+			}
+			factors = remainingFactors;
 		}
 
-		return remainingFactors;
+		// compute the final product, and normalise
+		IndexedFactor finalProduct = pointwiseProduct(factors);
+		finalProduct = addEvidencePairs(finalProduct, query);
+		return new Elimination(finalProduct.trim(queryVars), order, peakSize);
 	}
 
 	/**
-	 * Sums out the variable from the given factor, and returns the result
+	 * Creates the factors for the nodes, given the evidence. The values of each
+	 * variable are first indexed, and the resulting value domains are added to the
+	 * map provided as argument. The returned list contains one factor per node
+	 * (which might be empty).
 	 * 
-	 * @param node the Bayesian node corresponding to the variable
-	 * @param factor the factor to sum out
-	 * @return the summed out factor
+	 * @param nodes the nodes
+	 * @param evidence the evidence
+	 * @param domains the map in which to write the value domain of each variable
+	 * @return the list of factors, in the same order as the nodes
 	 */
-	private DoubleFactor sumOutDependent(String nodeId, DoubleFactor factor) {
-
-		// create the new factor
-		DoubleFactor sumFactor = new DoubleFactor();
-
-		for (Assignment a : factor.getValues()) {
-			Assignment reducedA = new Assignment(a);
-			reducedA.removePair(nodeId);
-			double[] entry = factor.getEntry(a);
-			double prob = entry[0];
-			double util = entry[1];
-			sumFactor.incrementEntry(reducedA, prob, prob * util);
+	static List<IndexedFactor> createFactors(List<BNode> nodes, Assignment evidence,
+			Map<String, Value[]> domains) {
+
+		// extracts the flat tables and index the values of each variable
+		List<Map<Assignment, Double>> tables =
+				new ArrayList<Map<Assignment, Double>>(nodes.size());
+		Map<String, Map<Value, Integer>> indices =
+				new HashMap<String, Map<Value, Integer>>();
+		for (BNode n : nodes) {
+			Map<Assignment, Double> flatTable = n.getFactor();
+			tables.add(flatTable);
+			for (Assignment a : flatTable.keySet()) {
+				for (String var : a.getVariables()) {
+					if (!evidence.containsVar(var)) {
+						Map<Value, Integer> index = indices.computeIfAbsent(var,
+								v -> new HashMap<Value, Integer>());
+						index.putIfAbsent(a.getValue(var), index.size());
+					}
+				}
+			}
+		}
+		for (String var : indices.keySet()) {
+			Value[] domain = new Value[indices.get(var).size()];
+			indices.get(var).forEach((v, i) -> domain[i] = v);
+			domains.put(var, domain);
 		}
 
-		sumFactor.normaliseUtil();
-
-		return sumFactor;
+		List<IndexedFactor> factors = new ArrayList<IndexedFactor>(nodes.size());
+		for (int i = 0; i < nodes.size(); i++) {
+			factors.add(makeFactor(nodes.get(i), tables.get(i), evidence, indices,
+					domains));
+		}
+		return factors;
 	}
 
 	/**
@@ -199,45 +293,15 @@ public class VariableElimination implements InferenceAlgorithm {
 	 * @param factors the factors
 	 * @return the pointwise product of the factors
 	 */
-	private DoubleFactor pointwiseProduct(List<DoubleFactor> factors) {
+	static IndexedFactor pointwiseProduct(List<IndexedFactor> factors) {
 
 		if (factors.isEmpty()) {
-			DoubleFactor factor = new DoubleFactor();
-			factor.addEntry(new Assignment(), 1.0, 0.0);
-			return factor;
+			return new IndexedFactor(1.0, 0.0);
 		}
-		else if (factors.size() == 1) {
-			return factors.get(0);
+		IndexedFactor factor = factors.get(0);
+		for (IndexedFactor f : factors.subList(1, factors.size())) {
+			factor = factor.product(f);
 		}
-		DoubleFactor factor = factors.get(0);
-		factors.remove(0);
-		for (DoubleFactor f : factors) {
-
-			DoubleFactor tempFactor = new DoubleFactor();
-			Set<String> sharedVars = new HashSet<String>(f.getVariables());
-			sharedVars.retainAll(factor.getVariables());
-
-			for (Assignment a : f.getValues()) {
-
-				double[] entry = f.getEntry(a);
-				double prob = entry[0];
-				double util = entry[1];
-
-				for (Assignment b : factor.getValues()) {
-					if (b.consistentWith(a, sharedVars)) {
-						double[] entry2 = factor.getEntry(b);
-						double prob2 = entry2[0];
-						double util2 = entry2[1];
-						double product = prob * prob2;
-						double sum = util + util2;
-
-						tempFactor.addEntry(new Assignment(a, b), product, sum);
-					}
-				}
-			}
-			factor = tempFactor;
-		}
-
 		return factor;
 	}
 
@@ -246,28 +310,48 @@ public class VariableElimination implements InferenceAlgorithm {
 	 * Bayesian node, and the evidence (which needs to be matched)
 	 * 
 	 * @param node the Bayesian node
+	 * @param flatTable the flat table for the node
 	 * @param evidence the evidence
+	 * @param indices the mapping from values to codes, for each variable
+	 * @param domains the value domain for each variable
 	 * @return the factor for the node
 	 */
-	private DoubleFactor makeFactor(BNode node, Assignment evidence) {
-
-		DoubleFactor factor = new DoubleFactor();
+	private static IndexedFactor makeFactor(BNode node,
+			Map<Assignment, Double> flatTable, Assignment evidence,
+			Map<String, Map<Value, Integer>> indices, Map<String, Value[]> domains) {
+
+		// determines the variables of the factor
+		List<String> vars = new ArrayList<String>();
+		if (!flatTable.isEmpty()) {
+			for (String var : flatTable.keySet().iterator().next().getVariables()) {
+				if (!evidence.containsVar(var)) {
+					vars.add(var);
+				}
+			}
+		}
+		Value[][] varDomains = new Value[vars.size()][];
+		for (int i = 0; i < vars.size(); i++) {
+			varDomains[i] = domains.get(vars.get(i));
+		}
+		IndexedFactor factor =
+				new IndexedFactor(vars.toArray(new String[vars.size()]), varDomains);
 
 		// generates all possible assignments for the node content
-		Map<Assignment, Double> flatTable = node.getFactor();
 		for (Assignment a : flatTable.keySet()) {
 
 			// verify that the assignment is consistent with the evidence
 			if (a.consistentWith(evidence)) {
-				// adding a new entry to the factor
-				Assignment a2 = new Assignment(a);
-				a2.removePairs(evidence.getVariables());
 
-				if (node instanceof ChanceNode || node instanceof ActionNode) {
-					factor.addEntry(a2, flatTable.get(a), 0.0f);
+				// adding a new entry to the factor
+				int index = factor.getIndex(a, indices);
+				if (index < 0) {
+					continue;
+				}
+				else if (node instanceof ChanceNode || node instanceof ActionNode) {
+					factor.setEntry(index, flatTable.get(a), 0.0);
 				}
 				else if (node instanceof UtilityNode) {
-					factor.addEntry(a2, 1.0f, flatTable.get(a));
+					factor.setEntry(index, 1.0, flatTable.get(a));
 				}
 			}
 		}
@@ -283,27 +367,32 @@ public class VariableElimination implements InferenceAlgorithm {
 	 * @param query the query
 	 * @param distribution the computed distribution
 	 */
-	private DoubleFactor addEvidencePairs(DoubleFactor factor, Query query) {
-
-		Set<String> inter = new HashSet<String>(query.getQueryVars());
-		inter.retainAll(query.getEvidence().getVariables());
-		Assignment evidence = query.getEvidence().getTrimmed(inter);
-		if (!inter.isEmpty()) {
-			DoubleFactor newFactor = new DoubleFactor();
-			for (Assignment a : factor.getAssignments()) {
-				Assignment assign = new Assignment(a, evidence);
-				double[] entry = factor.getEntry(a);
-				newFactor.addEntry(assign, entry[0], entry[1]);
+	private IndexedFactor addEvidencePairs(IndexedFactor factor, Query query) {
+		Assignment evidence = query.getEvidence();
+		for (String var : query.getQueryVars()) {
+			if (evidence.containsVar(var) && !factor.hasVariable(var)) {
+				factor = factor.extend(var, evidence.getValue(var));
 			}
-			return newFactor;
-		}
-		else {
-			return factor;
 		}
+		return factor;
+	}
+
+	// ===================================
+	// DIAGNOSTICS
+	// ===================================
+
+	/**
+	 * Returns the heuristic used for the elimination ordering
+	 * 
+	 * @return the heuristic
+	 */
+	public EliminationOrdering.Heuristic getHeuristic() {
+		return heuristic;
 	}
 
 	// ===================================
 	// NETWORK REDUCTION METHODS
+
 	// ===================================
 
 	/**
@@ -322,7 +411,7 @@ public class VariableElimination implements InferenceAlgorithm {
 		Collection<String> queryVars = query.getQueryVars();
 
 		// create the query factor
-		DoubleFactor queryFactor = createQueryFactor(query);
+		IndexedFactor queryFactor = eliminate(query, null).factor;
 		BNetwork reduced = new BNetwork();
 
 		List<String> sortedNodesIds = network.getSortedNodesIds();
@@ -358,22 +447,13 @@ public class VariableElimination implements InferenceAlgorithm {
 	 * @param toEstimate the variable to estimate
 	 * @return the relevant factor associated with the node could be found
 	 */
-	private DoubleFactor getRelevantFactor(DoubleFactor fullFactor, String headVar,
-			Set<String> inputVars) {
+	private DoubleFactor getRelevantFactor(IndexedFactor fullFactor,
+			String headVar, Set<String> inputVars) {
 
 		// summing out unrelated variables
-		DoubleFactor factor = fullFactor.copy();
-		for (String otherVar : new ArrayList<String>(factor.getVariables())) {
-			if (!otherVar.equals(headVar) && !inputVars.contains(otherVar)) {
-				List<DoubleFactor> summedOut =
-						sumOut(otherVar, Arrays.asList(factor));
-				if (!summedOut.isEmpty()) {
-					factor = summedOut.get(0);
-				}
-			}
-		}
-
-		return factor;
+		Set<String> headVars = new HashSet<String>(inputVars);
+		headVars.add(headVar);
+		return fullFactor.trim(headVars).toDoubleFactor();
 	}
 
 	/**
@@ -415,4 +495,41 @@ public class VariableElimination implements InferenceAlgorithm {
 		}
 
 	}
+	/**
+	 * Result of the elimination of the hidden variables for a query, made of the
+	 * final factor, the order in which the hidden variables were eliminated, and the
+	 * number of entries in the largest factor created during the elimination.
+	 */
+	public static final class Elimination {
+
+		final IndexedFactor factor;
+		final List<String> order;
+		final int peakSize;
+
+		Elimination(IndexedFactor factor, List<String> order, int peakSize) {
+			this.factor = factor;
+			this.order = order;
+			this.peakSize = peakSize;
+		}
+
+		/**
+		 * Returns the order in which the hidden variables were eliminated
+		 * 
+		 * @return the elimination order
+		 */
+		public List<String> getOrder() {
+			return order;
+		}
+
+		/**
+		 * Returns the number of entries in the largest factor created during the
+		 * elimination
+		 * 
+		 * @return the peak factor size
+		 */
+		public int getPeakSize() {
+			return peakSize;
+		}
+	}
+
 }
@@ -28,6 +28,7 @@ import java.util.logging.Logger;
 
 import opendial.DialogueState;
 import opendial.DialogueSystem;
+import opendial.Settings;
 
 /**
  * Functionality to import a previously recorded dialogue in the dialogue system. The
@@ -80,13 +81,26 @@ public class DialogueImporter extends Thread {
 			}
 		}
 		else {
+			// the planner is detached during the import, and the same instance
+			// (which may be a Monte-Carlo planner) is attached back afterwards
+			ForwardPlanner planner = system.getModule(ForwardPlanner.class);
+			boolean wasRunning = planner != null && planner.isRunning();
 			system.detachModule(ForwardPlanner.class);
 			for (final DialogueState turn : turns) {
 				addTurn(turn);
 				system.getState().removeNodes(system.getState().getActionNodeIds());
 				system.getState().removeNodes(system.getState().getUtilityNodeIds());
 			}
-			system.attachModule(ForwardPlanner.class);
+			if (planner != null) {
+				planner.pause(!wasRunning);
+				system.attachModule(planner);
+			}
+			else if (system.getSettings().planner == Settings.Planner.MCTS) {
+				system.attachModule(MCTSPlanner.class);
+			}
+			else {
+				system.attachModule(ForwardPlanner.class);
+			}
 		}
 	}
 
@@ -25,11 +25,18 @@ package opendial.modules;
 
 import java.util.logging.*;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import opendial.DialogueState;
 import opendial.DialogueSystem;
@@ -39,6 +46,7 @@ import opendial.bn.distribs.MultivariateTable;
 import opendial.bn.distribs.UtilityTable;
 import opendial.datastructs.Assignment;
 import opendial.domains.Model;
+import opendial.utils.RandomUtils;
 
 /**
  * Online forward planner for OpenDial. The planner constructs a lookahead tree (with
@@ -73,6 +81,9 @@ public class ForwardPlanner implements Module {
 	/** Minimum probability for the generated observations */
 	public static double MIN_OBSERVATION_PROB = 0.1;
 
+	/** Whether to evaluate the actions and observations in parallel */
+	public static boolean PARALLEL_PLANNING = true;
+
 	DialogueSystem system;
 
 	/** Current planning process (if active) */
@@ -80,6 +91,9 @@ public class ForwardPlanner implements Module {
 
 	boolean paused = false;
 
+	// number of expected values retrieved from the transposition tables
+	final AtomicLong transpositionHits = new AtomicLong();
+
 	// scheduled thread pool to terminate planning once the time limit is
 	// reached
 	static ScheduledExecutorService service = Executors.newScheduledThreadPool(2);
@@ -127,14 +141,133 @@ public class ForwardPlanner implements Module {
 	public void trigger(DialogueState state, Collection<String> updatedVars) {
 
 		// disallows action selection while the user is still talking
-		if (system.getFloor().equals("user")) {
+		String floor = system.getSettings().floor;
+		if (state.hasChanceNode(floor)
+				&& state.queryProb(floor).getBest().toString().equals("user")) {
 			state.removeNodes(state.getActionNodeIds());
 			state.removeNodes(state.getUtilityNodeIds());
 		}
 
 		if (!paused && !state.getActionNodeIds().isEmpty()) {
-			currentProcess = new PlannerProcess(state);
+			plan(state);
+		}
+	}
+
+	/**
+	 * Returns the number of expected values that were retrieved from the
+	 * transposition table of a planning process (instead of being recomputed).
+	 * 
+	 * @return the number of hits in the transposition tables
+	 */
+	public long getTranspositionHits() {
+		return transpositionHits.get();
+	}
+
+	/**
+	 * Selects the next system action for the dialogue state, which must contain at
+	 * least one action node.
+	 * 
+	 * @param state the dialogue state
+	 */
+	protected void plan(DialogueState state) {
+		currentProcess = new PlannerProcess(state);
+	}
+
+	/**
+	 * Selects the action with highest utility in the table, removes the action and
+	 * utility nodes from the dialogue state, and adds the selected action to it. If
+	 * the best action has no positive utility, the default (empty) action is
+	 * selected.
+	 * 
+	 * @param state the dialogue state
+	 * @param evalActions the utility table for the possible actions
+	 * @return the selected action
+	 */
+	Assignment selectAction(DialogueState state, UtilityTable evalActions) {
+
+		// step 2: find the action with highest utility
+		Assignment bestAction = evalActions.getBest().getKey();
+		if (evalActions.getUtil(bestAction) < 0.001) {
+			bestAction = Assignment.createDefault(bestAction.getVariables());
 		}
+
+		// step 3: remove the action and utility nodes
+		state.removeNodes(state.getUtilityNodeIds());
+		Set<String> actionVars = new HashSet<String>(state.getActionNodeIds());
+		state.removeNodes(actionVars);
+
+		// step 4: add the selection action to the dialogue state
+		state.addToState(bestAction.removePrimes());
+		return bestAction;
+	}
+
+	/**
+	 * Updates the dialogue state with the models triggered by its new variables,
+	 * until no new variables remain.
+	 * 
+	 * @param state the dialogue state
+	 */
+	void updateState(DialogueState state) {
+
+		while (!state.getNewVariables().isEmpty()) {
+			Set<String> toProcess = state.getNewVariables();
+			state.reduce();
+			for (Model model : system.getDomain().getTriggeredModels(toProcess)) {
+				boolean change = model.trigger(state);
+				if (change && model.isBlocking()) {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the dialogue domain specifies a transition model for the
+	 * particular action assignment.
+	 * 
+	 * @param action the assignment of action values
+	 * @return true if a transition is defined, false otherwise.
+	 */
+	boolean hasTransition(Assignment action) {
+		return !system.getDomain()
+				.getTriggeredModels(action.removePrimes().getVariables()).isEmpty();
+	}
+
+	/**
+	 * Returns the possible observations that are expected to be perceived from the
+	 * dialogue state
+	 * 
+	 * @param state the dialogue state from which to extract observations
+	 * @return the inferred observations
+	 */
+	MultivariateTable getObservations(DialogueState state) {
+		Set<String> predictionNodes = new HashSet<String>();
+		for (String nodeId : state.getChanceNodeIds()) {
+			if (nodeId.contains("^p")) {
+				predictionNodes.add(nodeId);
+			}
+		}
+		// intermediary observations
+		for (String nodeId : new HashSet<String>(predictionNodes)) {
+			if (state.getChanceNode(nodeId).hasDescendant(predictionNodes)) {
+				predictionNodes.remove(nodeId);
+			}
+		}
+
+		MultivariateTable.Builder builder = new MultivariateTable.Builder();
+
+		if (!predictionNodes.isEmpty()) {
+			MultivariateDistribution observations = state.queryProb(predictionNodes);
+
+			for (Assignment a : observations.getValues()) {
+				Assignment newA = new Assignment();
+				for (String var : a.getVariables()) {
+					newA.addPair(var.replace("^p", ""), a.getValue(var));
+				}
+				builder.addRow(newA, observations.getProb(a));
+			}
+		}
+		return builder.build();
 	}
 
 	/**
@@ -146,7 +279,12 @@ public class ForwardPlanner implements Module {
 
 		DialogueState initState;
 
-		boolean isTerminated = false;
+		volatile boolean isTerminated = false;
+
+		// transposition tables (one per remaining horizon), mapping the
+		// fingerprint of a dialogue state to its expected value
+		final Map<Integer, Map<String, Double>> transpositions =
+				new ConcurrentHashMap<Integer, Map<String, Double>>();
 
 		/**
 		 * Creates the planning process. Timeout is set to twice the maximum sampling
@@ -172,21 +310,8 @@ public class ForwardPlanner implements Module {
 				// step 1: extract the Q-values
 				UtilityTable evalActions = getQValues(initState, settings.horizon);
 
-				// step 2: find the action with highest utility
-				Assignment bestAction = evalActions.getBest().getKey();
-				if (evalActions.getUtil(bestAction) < 0.001) {
-					bestAction = Assignment.createDefault(bestAction.getVariables());
-				}
-
-				// step 3: remove the action and utility nodes
-				initState.removeNodes(initState.getUtilityNodeIds());
-				Set<String> actionVars =
-						new HashSet<String>(initState.getActionNodeIds());
-				initState.removeNodes(actionVars);
-
-				// step 4: add the selection action to the dialogue state
-				initState.addToState(bestAction.removePrimes());
-				// log.fine("BEST ACTION: " + bestAction);
+				// steps 2-4: select the best action and add it to the state
+				selectAction(initState, evalActions);
 				isTerminated = true;
 			}
 			catch (RuntimeException e) {
@@ -218,63 +343,42 @@ public class ForwardPlanner implements Module {
 			UtilityTable qValues = new UtilityTable();
 			double discount = system.getSettings().discountFactor;
 
+			// the successor states are created sequentially, and then evaluated
+			// (in parallel, if possible). Each successor is evaluated with its own
+			// random generator, split in the order of the actions
+			Map<Assignment, DialogueState> successors =
+					new LinkedHashMap<Assignment, DialogueState>();
+			Map<Assignment, SplittableRandom> randoms =
+					new HashMap<Assignment, SplittableRandom>();
 			for (Assignment action : rewards.getRows()) {
-				double reward = rewards.getUtil(action);
-				qValues.setUtil(action, reward);
+				qValues.setUtil(action, rewards.getUtil(action));
 
-				if (horizon > 1 && !isTerminated && !paused
+				if (!isTerminated && !paused && !action.isDefault()
 						&& hasTransition(action)) {
-
 					DialogueState copy = state.copy();
 					copy.addToState(action.removePrimes());
-					updateState(copy);
-
-					if (!action.isDefault()) {
-						double expected =
-								discount * getExpectedValue(copy, horizon - 1);
-						qValues.setUtil(action, qValues.getUtil(action) + expected);
-					}
-				}
-			}
-			return qValues;
-		}
-
-		/**
-		 * Adds a particular content to the dialogue state
-		 * 
-		 * @param state the dialogue state
-		 * @param newContent the content to add be performed
-		 */
-		private void updateState(DialogueState state) {
-
-			while (!state.getNewVariables().isEmpty()) {
-				Set<String> toProcess = state.getNewVariables();
-				state.reduce();
-				for (Model model : system.getDomain().getModels()) {
-					if (model.isTriggered(state, toProcess)) {
-						boolean change = model.trigger(state);
-						if (change && model.isBlocking()) {
-							break;
-						}
-					}
+					successors.put(action, copy);
+					randoms.put(action, RandomUtils.split());
 				}
 			}
-		}
 
-		/**
-		 * Returns true if the dialogue domain specifies a transition model for the
-		 * particular action assignment.
-		 * 
-		 * @param action the assignment of action values
-		 * @return true if a transition is defined, false otherwise.
-		 */
-		private boolean hasTransition(Assignment action) {
-			for (Model m : system.getDomain().getModels()) {
-				if (m.isTriggered(action.removePrimes().getVariables())) {
-					return true;
+			Map<Assignment, Double> expected =
+					new ConcurrentHashMap<Assignment, Double>();
+			getStream(successors.keySet()).forEach(action -> {
+				if (!isTerminated && !paused) {
+					double value = RandomUtils.withRandom(randoms.get(action), () -> {
+						DialogueState copy = successors.get(action);
+						updateState(copy);
+						return getExpectedValue(copy, horizon - 1);
+					});
+					expected.put(action, discount * value);
 				}
+			});
+			for (Assignment action : expected.keySet()) {
+				qValues.setUtil(action,
+						qValues.getUtil(action) + expected.get(action));
 			}
-			return false;
+			return qValues;
 		}
 
 		/**
@@ -287,64 +391,60 @@ public class ForwardPlanner implements Module {
 		 */
 		private double getExpectedValue(DialogueState state, int horizon) {
 
+			// checking whether the value has already been computed
+			Map<String, Double> table = transpositions.computeIfAbsent(horizon,
+					h -> new ConcurrentHashMap<String, Double>());
+			String fingerprint = state.getFingerprint();
+			Double cached = table.get(fingerprint);
+			if (cached != null) {
+				transpositionHits.incrementAndGet();
+				return cached;
+			}
+
 			MultivariateTable observations = getObservations(state);
 			MultivariateTable nbestObs = observations.getNBest(NB_BEST_OBSERVATIONS);
-			double expectedValue = 0.0;
+
+			Map<Assignment, DialogueState> successors =
+					new LinkedHashMap<Assignment, DialogueState>();
+			Map<Assignment, SplittableRandom> randoms =
+					new HashMap<Assignment, SplittableRandom>();
 			for (Assignment obs : nbestObs.getValues()) {
-				double obsProb = nbestObs.getProb(obs);
-				if (obsProb > MIN_OBSERVATION_PROB) {
+				if (nbestObs.getProb(obs) > MIN_OBSERVATION_PROB) {
 					DialogueState copy = state.copy();
 					copy.addToState(obs);
-					updateState(copy);
-
-					UtilityTable qValues = getQValues(copy, horizon);
-					if (!qValues.getRows().isEmpty()) {
-						Assignment bestAction = qValues.getBest().getKey();
-						double afterObs = qValues.getUtil(bestAction);
-						expectedValue += obsProb * afterObs;
-					}
+					successors.put(obs, copy);
+					randoms.put(obs, RandomUtils.split());
 				}
 			}
 
+			double expectedValue = getStream(successors.keySet())
+					.mapToDouble(o -> RandomUtils.withRandom(randoms.get(o), () -> {
+						DialogueState copy = successors.get(o);
+						updateState(copy);
+						UtilityTable qValues = getQValues(copy, horizon);
+						if (!qValues.getRows().isEmpty()) {
+							Assignment bestAction = qValues.getBest().getKey();
+							return nbestObs.getProb(o) * qValues.getUtil(bestAction);
+						}
+						return 0.0;
+					})).sum();
+
+			// results obtained after the timeout are incomplete, and not stored
+			if (!isTerminated) {
+				table.put(fingerprint, expectedValue);
+			}
 			return expectedValue;
 		}
 
 		/**
-		 * Returns the possible observations that are expected to be perceived from
-		 * the dialogue state
+		 * Returns a (parallel, if possible) stream over the collection.
 		 * 
-		 * @param state the dialogue state from which to extract observations
-		 * @return the inferred observations @
+		 * @param collection the collection
+		 * @return the corresponding stream
 		 */
-		private MultivariateTable getObservations(DialogueState state) {
-			Set<String> predictionNodes = new HashSet<String>();
-			for (String nodeId : state.getChanceNodeIds()) {
-				if (nodeId.contains("^p")) {
-					predictionNodes.add(nodeId);
-				}
-			}
-			// intermediary observations
-			for (String nodeId : new HashSet<String>(predictionNodes)) {
-				if (state.getChanceNode(nodeId).hasDescendant(predictionNodes)) {
-					predictionNodes.remove(nodeId);
-				}
-			}
-
-			MultivariateTable.Builder builder = new MultivariateTable.Builder();
-
-			if (!predictionNodes.isEmpty()) {
-				MultivariateDistribution observations =
-						state.queryProb(predictionNodes);
-
-				for (Assignment a : observations.getValues()) {
-					Assignment newA = new Assignment();
-					for (String var : a.getVariables()) {
-						newA.addPair(var.replace("^p", ""), a.getValue(var));
-					}
-					builder.addRow(newA, observations.getProb(a));
-				}
-			}
-			return builder.build();
+		private <T> Stream<T> getStream(Collection<T> collection) {
+			return (PARALLEL_PLANNING) ? collection.parallelStream()
+					: collection.stream();
 		}
 
 	}
@@ -0,0 +1,538 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+
+package opendial.modules;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.*;
+
+import opendial.DialogueState;
+import opendial.DialogueSystem;
+import opendial.Settings;
+import opendial.bn.distribs.MultivariateTable;
+import opendial.bn.distribs.UtilityTable;
+import opendial.datastructs.Assignment;
+import opendial.utils.RandomUtils;
+
+/**
+ * Anytime planner based on Monte-Carlo tree search. Like the forward planner, the
+ * planner explores the possible actions and their expected consequences on the
+ * future dialogue state (up to the planning horizon), using the same transition
+ * and prediction models. But instead of expanding the full lookahead tree, the tree
+ * is grown one node at a time through repeated simulations, where the actions are
+ * selected with the UCB1 criterion (UCT algorithm) and the observations are sampled
+ * from their predicted distribution.
+ * 
+ * <p>
+ * Each action is initially estimated by its immediate utility, so that a best
+ * action is available at every instant of the search. Once all observations
+ * following an action have been expanded up to the horizon, its expected value is
+ * computed exactly. The search tree is also reused in the next planning step if
+ * the new dialogue state matches one of the expanded outcomes of the selected
+ * action.
+ * 
+ * <p>
+ * The planner is selected by setting the "planner" parameter to "mcts" in the
+ * system settings.
+ * 
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class MCTSPlanner extends ForwardPlanner {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	/** Exploration constant for the UCB1 selection of actions */
+	public static double EXPLORATION_CONSTANT = 1.0;
+
+	/** Maximum number of simulations at each planning step */
+	public static int MAX_SIMULATIONS = 5000;
+
+	/** Current search process (if active) */
+	SearchProcess currentSearch;
+
+	/** Action selected in the last search (with its subtree) */
+	ActionNode lastAction;
+
+	/**
+	 * Constructs a Monte-Carlo tree search planner for the dialogue system.
+	 * 
+	 * @param system the dialogue system associated with the planner.
+	 */
+	public MCTSPlanner(DialogueSystem system) {
+		super(system);
+	}
+
+	/**
+	 * Pauses the planner
+	 */
+	@Override
+	public void pause(boolean shouldBePaused) {
+		super.pause(shouldBePaused);
+		if (currentSearch != null && !currentSearch.isTerminated) {
+			currentSearch.isTerminated = true;
+		}
+	}
+
+	/**
+	 * Selects the next system action through Monte-Carlo tree search.
+	 */
+	@Override
+	protected void plan(DialogueState state) {
+		currentSearch = new SearchProcess(state);
+	}
+
+	/**
+	 * Search process, which can be terminated before the end of the search (the
+	 * action with highest estimated utility is then selected).
+	 * 
+	 * @author Pierre Lison (plison@ifi.uio.no)
+	 */
+	public class SearchProcess {
+
+		DialogueState initState;
+
+		volatile boolean isTerminated = false;
+
+		// root of the search tree
+		SearchNode root;
+
+		// number of simulations performed so far
+		int nbSimulations = 0;
+
+		// whether the search tree was reused from the last planning step
+		boolean reused = false;
+
+		/**
+		 * Creates the search process, with the same timeout as the forward planner.
+		 * Then, runs simulations until the planner has run out of time or the
+		 * search tree is fully expanded, and adds the best action to the dialogue
+		 * state.
+		 * 
+		 * @param initState initial dialogue state.
+		 */
+		public SearchProcess(DialogueState initState) {
+			this.initState = initState;
+			Settings settings = system.getSettings();
+
+			// setting the timeout for the search
+			long timeout = Settings.maxSamplingTime * 2;
+			timeout = (initState.hasChanceNode(settings.userSpeech)) ? timeout / 5
+					: timeout;
+			service.schedule(() -> isTerminated = true, timeout,
+					TimeUnit.MILLISECONDS);
+
+			try {
+				root = getRoot(initState, settings.horizon);
+				while (!isTerminated && !paused && !root.isComplete()
+						&& nbSimulations < MAX_SIMULATIONS) {
+					root.simulate();
+					nbSimulations++;
+				}
+
+				Assignment selected = selectAction(initState, root.getQValues());
+				lastAction = root.actions.get(selected);
+				isTerminated = true;
+			}
+			catch (RuntimeException e) {
+				log.warning("could not perform planning, aborting action selection: "
+						+ e);
+				lastAction = null;
+				e.printStackTrace();
+			}
+		}
+
+		/**
+		 * Returns the root of the search tree for the dialogue state. If the state
+		 * matches one of the expanded outcomes of the last selected action, this
+		 * subtree is reused (and its horizon extended). Else, a new tree is
+		 * created.
+		 * 
+		 * @param state the dialogue state
+		 * @param horizon the planning horizon
+		 * @return the root of the search tree
+		 */
+		private SearchNode getRoot(DialogueState state, int horizon) {
+			if (lastAction != null) {
+				String fingerprint = state.getFingerprint();
+				for (SearchNode child : lastAction.children.values()) {
+					if (child.state.getFingerprint().equals(fingerprint)) {
+						child.setHorizon(horizon);
+						reused = true;
+						return child;
+					}
+				}
+			}
+			return new SearchNode(state, horizon);
+		}
+
+		/**
+		 * Returns the number of simulations performed in the search.
+		 * 
+		 * @return the number of simulations
+		 */
+		public int getNbSimulations() {
+			return nbSimulations;
+		}
+
+		/**
+		 * Returns true if the search tree was reused from the last planning step,
+		 * and false otherwise.
+		 * 
+		 * @return true if the tree was reused, else false
+		 */
+		public boolean isReused() {
+			return reused;
+		}
+	}
+
+	/**
+	 * Node in the search tree, corresponding to a dialogue state in which an action
+	 * must be selected.
+	 */
+	final class SearchNode {
+
+		// the dialogue state for the node
+		final DialogueState state;
+
+		// the remaining planning horizon
+		int horizon;
+
+		// the possible actions, sorted by decreasing immediate utility
+		final Map<Assignment, ActionNode> actions;
+
+		// spread of the immediate utilities (used to scale the exploration)
+		double spread = 1.0;
+
+		// number of visits
+		int visits = 0;
+
+		// whether the subtree is fully expanded
+		boolean complete = false;
+
+		/**
+		 * Creates a new node for the dialogue state and the remaining horizon.
+		 * 
+		 * @param state the dialogue state
+		 * @param horizon the remaining horizon
+		 */
+		SearchNode(DialogueState state, int horizon) {
+			this.state = state;
+			this.horizon = horizon;
+			actions = new LinkedHashMap<Assignment, ActionNode>();
+
+			Set<String> actionNodes = state.getActionNodeIds();
+			if (!actionNodes.isEmpty()) {
+				UtilityTable rewards = state.queryUtil(actionNodes);
+				rewards.getRows().stream()
+						.sorted((a1, a2) -> Double.compare(rewards.getUtil(a2),
+								rewards.getUtil(a1)))
+						.forEach(a -> actions.put(a,
+								new ActionNode(this, a, rewards.getUtil(a))));
+				double max = rewards.getRows().stream()
+						.mapToDouble(a -> rewards.getUtil(a)).max().orElse(0.0);
+				double min = rewards.getRows().stream()
+						.mapToDouble(a -> rewards.getUtil(a)).min().orElse(0.0);
+				spread = (max > min) ? max - min : 1.0;
+			}
+		}
+
+		/**
+		 * Runs one simulation from the node, and returns the value obtained for
+		 * the simulated trajectory.
+		 * 
+		 * @return the simulated value
+		 */
+		double simulate() {
+			visits++;
+			ActionNode action = selectNextAction();
+			return (action != null) ? action.simulate() : getValue();
+		}
+
+		/**
+		 * Selects the action to simulate among the actions that are not yet fully
+		 * expanded, using the UCB1 criterion. Actions that have never been tried
+		 * are selected first. Returns null if no action remains to simulate.
+		 * 
+		 * @return the selected action
+		 */
+		private ActionNode selectNextAction() {
+			ActionNode best = null;
+			double bestScore = Double.NEGATIVE_INFINITY;
+			for (ActionNode action : actions.values()) {
+				if (action.isComplete()) {
+					continue;
+				}
+				else if (action.visits == 0) {
+					return action;
+				}
+				double score = action.getValue() + EXPLORATION_CONSTANT * spread
+						* Math.sqrt(Math.log(visits) / action.visits);
+				if (score > bestScore) {
+					best = action;
+					bestScore = score;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Returns the estimated value of the node, which is the maximum of the
+		 * estimated values of its actions (or 0 if no action is available).
+		 * 
+		 * @return the estimated value
+		 */
+		double getValue() {
+			return actions.values().stream().mapToDouble(a -> getQValue(a)).max()
+					.orElse(0.0);
+		}
+
+		/**
+		 * Returns the estimated utility of the action in the node, given the
+		 * remaining horizon.
+		 * 
+		 * @param action the action node
+		 * @return the estimated utility of the action
+		 */
+		double getQValue(ActionNode action) {
+			return (horizon <= 1) ? action.reward : action.getValue();
+		}
+
+		/**
+		 * Returns the utility table with the estimated utility of each action.
+		 * 
+		 * @return the corresponding utility table
+		 */
+		UtilityTable getQValues() {
+			UtilityTable qValues = new UtilityTable();
+			for (Assignment action : actions.keySet()) {
+				qValues.setUtil(action, getQValue(actions.get(action)));
+			}
+			return qValues;
+		}
+
+		/**
+		 * Returns true if the subtree of the node is fully expanded up to the
+		 * horizon, and false otherwise.
+		 * 
+		 * @return true if the node is complete, else false
+		 */
+		boolean isComplete() {
+			if (!complete) {
+				complete = horizon <= 1
+						|| actions.values().stream().allMatch(a -> a.isComplete());
+			}
+			return complete;
+		}
+
+		/**
+		 * Changes the remaining horizon of the node (and of its subtree). The
+		 * nodes must then be completed again.
+		 * 
+		 * @param horizon the new horizon
+		 */
+		void setHorizon(int horizon) {
+			this.horizon = horizon;
+			complete = false;
+			for (ActionNode action : actions.values()) {
+				action.complete = false;
+				action.children.values().forEach(c -> c.setHorizon(horizon - 1));
+			}
+		}
+	}
+
+	/**
+	 * Node in the search tree corresponding to an action in a given dialogue state,
+	 * and whose children are the dialogue states resulting from the possible
+	 * observations.
+	 */
+	final class ActionNode {
+
+		// the parent node
+		final SearchNode parent;
+
+		// the action assignment
+		final Assignment action;
+
+		// the immediate utility of the action
+		final double reward;
+
+		// whether the action has a transition model (and can be expanded)
+		final boolean expandable;
+
+		// the dialogue state after the action (before the observations)
+		DialogueState afterState;
+
+		// the observations expected after the action, with their probability
+		Map<Assignment, Double> observations;
+
+		// the total probability of the observations
+		double observationMass = 0.0;
+
+		// the nodes for each observation that has already been sampled
+		final Map<Assignment, SearchNode> children;
+
+		// number of visits and total simulated value
+		int visits = 0;
+		double totalValue = 0.0;
+
+		// whether the subtree is fully expanded
+		boolean complete = false;
+
+		/**
+		 * Creates a new action node.
+		 * 
+		 * @param parent the parent node
+		 * @param action the action assignment
+		 * @param reward the immediate utility of the action
+		 */
+		ActionNode(SearchNode parent, Assignment action, double reward) {
+			this.parent = parent;
+			this.action = action;
+			this.reward = reward;
+			expandable = !action.isDefault() && hasTransition(action);
+			children = new HashMap<Assignment, SearchNode>();
+		}
+
+		/**
+		 * Runs one simulation through the action: samples an observation, and
+		 * either creates the corresponding node (whose value is then estimated by
+		 * its immediate utilities) or continues the simulation from it.
+		 * 
+		 * @return the simulated value
+		 */
+		double simulate() {
+			if (afterState == null) {
+				expand();
+			}
+			double value = reward;
+			if (!observations.isEmpty()) {
+				Assignment obs = sampleObservation();
+				SearchNode child = children.get(obs);
+				double future;
+				if (child == null) {
+					DialogueState copy = afterState.copy();
+					copy.addToState(obs);
+					updateState(copy);
+					child = new SearchNode(copy, parent.horizon - 1);
+					children.put(obs, child);
+					future = child.getValue();
+				}
+				else if (child.isComplete()) {
+					future = child.getValue();
+				}
+				else {
+					future = child.simulate();
+				}
+				double discount = system.getSettings().discountFactor;
+				value += discount * observationMass * future;
+			}
+			visits++;
+			totalValue += value;
+			return value;
+		}
+
+		/**
+		 * Adds the action to a copy of the parent state, and extracts the expected
+		 * observations (the n-best observations above the minimum probability).
+		 */
+		private void expand() {
+			afterState = parent.state.copy();
+			afterState.addToState(action.removePrimes());
+			updateState(afterState);
+
+			MultivariateTable nbestObs =
+					getObservations(afterState).getNBest(NB_BEST_OBSERVATIONS);
+			observations = new LinkedHashMap<Assignment, Double>();
+			for (Assignment obs : nbestObs.getValues()) {
+				double prob = nbestObs.getProb(obs);
+				if (prob > MIN_OBSERVATION_PROB) {
+					observations.put(obs, prob);
+					observationMass += prob;
+				}
+			}
+		}
+
+		/**
+		 * Samples an observation according to its (normalised) probability.
+		 * 
+		 * @return the sampled observation
+		 */
+		private Assignment sampleObservation() {
+			double sample = RandomUtils.getRandom().nextDouble() * observationMass;
+			Assignment obs = null;
+			for (Assignment o : observations.keySet()) {
+				obs = o;
+				sample -= observations.get(o);
+				if (sample < 0) {
+					break;
+				}
+			}
+			return obs;
+		}
+
+		/**
+		 * Returns the estimated utility of the action. The utility is computed
+		 * exactly once the subtree is complete, and is otherwise the average of the
+		 * simulated values (or the immediate utility if the action was not yet
+		 * simulated).
+		 * 
+		 * @return the estimated utility
+		 */
+		double getValue() {
+			if (!expandable || (visits == 0 && afterState == null)) {
+				return reward;
+			}
+			else if (isComplete()) {
+				double future = 0.0;
+				for (Assignment obs : observations.keySet()) {
+					future += observations.get(obs) * children.get(obs).getValue();
+				}
+				return reward + system.getSettings().discountFactor * future;
+			}
+			return totalValue / visits;
+		}
+
+		/**
+		 * Returns true if the subtree of the action is fully expanded up to the
+		 * horizon, and false otherwise.
+		 * 
+		 * @return true if the action is complete, else false
+		 */
+		boolean isComplete() {
+			if (!complete) {
+				complete = !expandable || (observations != null
+						&& children.size() == observations.size()
+						&& children.values().stream().allMatch(c -> c.isComplete()));
+			}
+			return complete;
+		}
+
+	}
+
+}
@@ -34,12 +34,16 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import opendial.DialogueState;
 import opendial.DialogueSystem;
 import opendial.bn.BNetwork;
+import opendial.bn.distribs.IndependentDistribution;
 import opendial.bn.values.Value;
 import opendial.datastructs.Assignment;
 import opendial.datastructs.SpeechData;
@@ -166,9 +170,13 @@ public class RemoteConnector implements Module {
 			Document xmlDoc = XMLUtils.newXMLDocument();
 			Element root = xmlDoc.createElement("update");
 			xmlDoc.appendChild(root);
-			updatedVars.stream().filter(v -> state.hasChanceNode(v))
+			List<String> vars = updatedVars.stream()
+					.filter(v -> state.hasChanceNode(v))
 					.filter(v -> !v.equals(system.getSettings().userSpeech))
-					.map(v -> state.queryProb(v).generateXML(xmlDoc))
+					.collect(Collectors.toList());
+			Map<String, IndependentDistribution> marginals =
+					state.queryMarginals(vars);
+			vars.stream().map(v -> marginals.get(v).generateXML(xmlDoc))
 					.forEach(n -> root.appendChild(n));
 
 			// if the resulting document is non-empty, forward it through the
@@ -26,9 +26,11 @@ package opendial.modules;
 import java.util.logging.*;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import opendial.DialogueState;
 import opendial.bn.BNetwork;
@@ -36,6 +38,7 @@ import opendial.bn.distribs.CategoricalTable;
 import opendial.bn.distribs.MarginalDistribution;
 import opendial.bn.distribs.ProbDistribution;
 import opendial.bn.nodes.ActionNode;
+import opendial.bn.nodes.BNode;
 import opendial.bn.nodes.ChanceNode;
 import opendial.bn.nodes.UtilityNode;
 import opendial.bn.values.ValueFactory;
@@ -60,11 +63,18 @@ public class StatePruner {
 
 	public static boolean ENABLE_REDUCTION = true;
 
+	// whether to only reduce the cliques modified since the last pruning
+	public static boolean ENABLE_INCREMENTAL = true;
+
 	/**
 	 * Prunes the state of all the non-necessary nodes. the operation selects a
 	 * subset of relevant nodes to keep, prunes the irrelevant ones, remove the
 	 * primes from the variable labels, and delete all empty nodes.
 	 * 
+	 * <p>
+	 * If incremental pruning is enabled, the cliques that have not been touched
+	 * since the last pruning of the state are set aside and reinserted verbatim in
+	 * the reduced state, so that only the modified part of the state is reduced.
 	 * 
 	 * @param state the state to prune
 	 */
@@ -76,25 +86,45 @@ public class StatePruner {
 			Set<String> nodesToKeep = getNodesToKeep(state);
 			if (!nodesToKeep.isEmpty()) {
 
-				// step 2: reduction
-				DialogueState reduced = reduce(state, nodesToKeep);
+				// step 2: extraction of the cliques to reduce
+				Collection<BNode> untouched = (ENABLE_INCREMENTAL)
+						? getUntouchedNodes(state, nodesToKeep)
+						: new ArrayList<BNode>();
+				DialogueState toReduce = state;
+				if (!untouched.isEmpty()) {
+					Set<String> untouchedIds = untouched.stream()
+							.map(n -> n.getId()).collect(Collectors.toSet());
+					toReduce = new DialogueState(state.getNodes().stream()
+							.filter(n -> !untouchedIds.contains(n.getId()))
+							.collect(Collectors.toList()), state.getEvidence());
+					toReduce.getParameterIds().addAll(state.getParameterIds());
+					toReduce.getIncrementalVars().addAll(state.getIncrementalVars());
+					nodesToKeep.removeAll(untouchedIds);
+				}
+
+				// step 3: reduction
+				DialogueState reduced = reduce(toReduce, nodesToKeep);
 
-				// step 3: reinsert action and utility nodes (if necessary)
+				// step 4: reinsert action and utility nodes (if necessary)
 				reinsertActionAndUtilityNodes(reduced, state);
 
-				// step 4: remove the primes from the identifiers
+				// step 5: remove the primes from the identifiers
 				removePrimes(reduced);
 
-				// step 5: filter the distribution and remove and empty nodes
+				// step 6: filter the distribution and remove and empty nodes
 				removeSpuriousNodes(reduced);
 
-				// step 6: and final reset the state to the reduced form
+				// step 7: reinsert the untouched cliques
+				reduced.addNodes(untouched);
+
+				// step 8: and final reset the state to the reduced form
 				state.reset(reduced);
 
 			}
 			else {
 				state.reset(new BNetwork());
 			}
+			state.setAsPruned();
 
 		}
 		catch (RuntimeException e) {
@@ -103,6 +133,42 @@ public class StatePruner {
 
 	}
 
+	/**
+	 * Returns the nodes of the dialogue state that belong to cliques left untouched
+	 * since the last pruning operation. A clique is untouched if all of its nodes
+	 * are to be kept, are neither new (primed), incremental nor part of the
+	 * evidence, and have not been modified since the state was last pruned.
+	 * 
+	 * @param state the dialogue state
+	 * @param nodesToKeep the nodes to keep in the state
+	 * @return the nodes in untouched cliques (which can be reused as such)
+	 */
+	private static Collection<BNode> getUntouchedNodes(DialogueState state,
+			Set<String> nodesToKeep) {
+
+		List<BNode> untouched = new ArrayList<BNode>();
+		long prunedVersion = state.getPrunedVersion();
+		if (prunedVersion < 0) {
+			return untouched;
+		}
+		Assignment evidence = state.getEvidence();
+		for (Set<String> clique : state.getCliques()) {
+			if (!nodesToKeep.containsAll(clique)
+					|| evidence.containsOneVar(clique)) {
+				continue;
+			}
+			Collection<BNode> nodes = state.getNodes(clique);
+			if (nodes.stream()
+					.allMatch(n -> n instanceof ChanceNode
+							&& !n.getId().contains("'")
+							&& !state.isIncremental(n.getId())
+							&& n.getVersion() <= prunedVersion)) {
+				untouched.addAll(nodes);
+			}
+		}
+		return untouched;
+	}
+
 	/**
 	 * Selects the set of variables to retain in the dialogue state.
 	 * 
@@ -137,13 +203,15 @@ public class StatePruner {
 			}
 
 			if (state.isIncremental(node.getId())) {
-				node.getDescendantIds().stream().filter(i -> state.hasChanceNode(i))
+				state.getDescendantIds(node.getId()).stream()
+						.filter(i -> state.hasChanceNode(i))
 						.filter(i -> !state.hasChanceNode(i + "'"))
 						.forEach(i -> nodesToKeep.add(i));
 			}
 
 			if (state.getParameterIds().contains(node.getId())
-					&& !node.hasDescendant(state.getEvidence().getVariables())) {
+					&& Collections.disjoint(state.getDescendantIds(node.getId()),
+							state.getEvidence().getVariables())) {
 				node.getOutputNodes(ChanceNode.class).stream()
 						.filter(n -> n.getDistrib() instanceof AnchoredRule)
 						.forEach(n -> nodesToKeep.add(n.getId()));
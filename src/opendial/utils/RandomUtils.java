@@ -0,0 +1,177 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.utils;
+
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Utilities for random number generation. All random draws in the system (sampling
+ * from distributions, density functions, intervals, etc.) should rely on the
+ * generator returned by getRandom(). Each thread owns its own splittable generator,
+ * which avoids any contention between threads. A sampling task can also bind a
+ * specific generator to the thread executing it (for instance, a generator split
+ * from the one of the calling thread), which makes parallel sampling reproducible
+ * once a global seed is set.
+ * 
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class RandomUtils {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// root generator, from which the thread generators are split
+	static SplittableRandom root = new SplittableRandom();
+
+	// global seed (null if no seed has been set)
+	static Long seed = null;
+
+	// generation of the root generator (incremented each time the seed changes)
+	static volatile int generation = 0;
+
+	// generator for each thread, together with its generation
+	static final ThreadLocal<ThreadRandom> randoms = new ThreadLocal<ThreadRandom>();
+
+	/**
+	 * Returns the random generator for the current thread. The generator is split
+	 * from the root generator upon its first use (or after a change of seed).
+	 * 
+	 * @return the random generator for the thread
+	 */
+	public static SplittableRandom getRandom() {
+		ThreadRandom current = randoms.get();
+		if (current == null || current.generation != generation) {
+			current = new ThreadRandom(splitRoot(), generation);
+			randoms.set(current);
+		}
+		return current.random;
+	}
+
+	/**
+	 * Returns a new generator split from the generator of the current thread. The
+	 * split generators can then be passed on to other threads.
+	 * 
+	 * @return the new generator
+	 */
+	public static SplittableRandom split() {
+		return getRandom().split();
+	}
+
+	/**
+	 * Runs the task with the provided generator bound to the current thread, and
+	 * returns its result. The previous generator of the thread is restored
+	 * afterwards.
+	 * 
+	 * @param random the generator to use in the task
+	 * @param task the task to run
+	 * @return the result of the task
+	 */
+	public static <T> T withRandom(SplittableRandom random, Supplier<T> task) {
+		ThreadRandom previous = randoms.get();
+		randoms.set(new ThreadRandom(random, generation));
+		try {
+			return task.get();
+		}
+		finally {
+			randoms.set(previous);
+		}
+	}
+
+	/**
+	 * Sets the global seed. The generator of the current thread is reset with the
+	 * seed, and all other threads will split new generators from a root generator
+	 * derived from the seed.
+	 * 
+	 * @param newSeed the seed
+	 */
+	public static synchronized void setSeed(long newSeed) {
+		seed = newSeed;
+		root = new SplittableRandom(newSeed).split();
+		generation++;
+		randoms.set(new ThreadRandom(new SplittableRandom(newSeed), generation));
+	}
+
+	/**
+	 * Removes the global seed. The generators are then seeded randomly.
+	 */
+	public static synchronized void clearSeed() {
+		seed = null;
+		root = new SplittableRandom();
+		generation++;
+	}
+
+	/**
+	 * Returns the global seed, or null if no seed has been set.
+	 * 
+	 * @return the global seed (or null)
+	 */
+	public static Long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns a value drawn from a standard normal distribution, using the
+	 * generator of the current thread (polar method).
+	 * 
+	 * @return the sampled value
+	 */
+	public static double nextGaussian() {
+		SplittableRandom random = getRandom();
+		double v1, v2, s;
+		do {
+			v1 = 2 * random.nextDouble() - 1;
+			v2 = 2 * random.nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		}
+		while (s >= 1 || s == 0);
+		return v1 * Math.sqrt(-2 * Math.log(s) / s);
+	}
+
+	/**
+	 * Splits a new generator from the root generator.
+	 * 
+	 * @return the new generator
+	 */
+	private static synchronized SplittableRandom splitRoot() {
+		return root.split();
+	}
+
+	/**
+	 * Generator bound to a thread, together with the generation of the root from
+	 * which it was derived.
+	 */
+	static final class ThreadRandom {
+
+		final SplittableRandom random;
+		final int generation;
+
+		ThreadRandom(SplittableRandom random, int generation) {
+			this.random = random;
+			this.generation = generation;
+		}
+	}
+
+}
@@ -23,12 +23,26 @@
 
 package opendial.bn;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
+import opendial.datastructs.CompactAssignment;
+import opendial.datastructs.SymbolTable;
+import opendial.datastructs.ValueRange;
 
 import org.junit.Test;
 
@@ -62,4 +76,176 @@ public class AssignmentTest {
 		assertFalse(a1bis.equals(a2));
 		assertFalse(a1bis.hashCode() == a2.hashCode());
 	}
+
+	@Test
+	public void testCompactAssignment() {
+		Assignment a1 = new Assignment(new Assignment("Burglary", true),
+				"Earthquake", ValueFactory.create("Strong"));
+		CompactAssignment c1 = CompactAssignment.of(a1);
+		CompactAssignment c2 = CompactAssignment.of(new Assignment(
+				new Assignment("Earthquake", "strong"), "Burglary",
+				ValueFactory.create(true)));
+		assertEquals(a1, c1);
+		assertEquals(c1, a1);
+		assertEquals(a1.hashCode(), c1.hashCode());
+		assertEquals(c1, c2);
+		assertEquals(c1.hashCode(), c2.hashCode());
+		assertEquals(ValueFactory.create(true), c1.getValue("Burglary"));
+		assertTrue(c1.containsVar("Earthquake"));
+		assertFalse(c1.containsVar("Alarm"));
+		assertFalse(c1.equals(
+				CompactAssignment.of(new Assignment("Burglary", true))));
+		assertTrue(c1 == CompactAssignment.of(c1));
+
+		try {
+			c1.addPair("Alarm", true);
+			fail("compact assignments should be immutable");
+		}
+		catch (UnsupportedOperationException e) {
+		}
+		Assignment copy = c1.copy();
+		copy.addPair("Alarm", true);
+		assertEquals(3, copy.size());
+		assertEquals(2, c1.size());
+	}
+
+	@Test
+	public void testSymbolTableLimit() {
+		int limit = SymbolTable.MAX_VARIABLES;
+		SymbolTable.Symbol burglary = SymbolTable.getSymbol("Burglary");
+		SymbolTable.MAX_VARIABLES = 0;
+		try {
+			Assignment a1 = new Assignment(new Assignment("Burglary", true),
+					new Assignment("Unregistered1", "a"),
+					new Assignment("Unregistered2", "b"));
+			CompactAssignment c1 = CompactAssignment.of(a1);
+			CompactAssignment c2 = CompactAssignment.of(
+					new Assignment(new Assignment("Unregistered2", "b"),
+							new Assignment("Unregistered1", "a"),
+							new Assignment("Burglary", true)));
+			CompactAssignment c3 = CompactAssignment.of(
+					new Assignment(new Assignment("Unregistered1", "b"),
+							new Assignment("Unregistered2", "a"),
+							new Assignment("Burglary", true)));
+			assertTrue(SymbolTable.getSymbol("Unregistered1") == null);
+			assertTrue(SymbolTable.getSymbol("Burglary") == burglary);
+			assertEquals(a1, c1);
+			assertEquals(c1, c2);
+			assertEquals(c1.hashCode(), c2.hashCode());
+			assertFalse(c1.equals(c3));
+			assertEquals(ValueFactory.create("b"), c1.getValue("Unregistered2"));
+			assertTrue(c1.containsVar("Burglary"));
+			assertFalse(c1.containsVar("Unregistered3"));
+
+			// the variables registered later are still found
+			SymbolTable.MAX_VARIABLES = limit;
+			CompactAssignment c4 = CompactAssignment.of(a1);
+			assertTrue(SymbolTable.getSymbol("Unregistered1") != null);
+			assertEquals(c1, c4);
+			assertEquals(c4, c1);
+			assertEquals(ValueFactory.create("a"), c1.getValue("Unregistered1"));
+		}
+		finally {
+			SymbolTable.MAX_VARIABLES = limit;
+		}
+	}
+
+	@Test
+	public void testCompactAssignmentPerformance() {
+		Random random = new Random(42);
+		List<Assignment> inputs = new ArrayList<Assignment>();
+		for (int i = 0; i < 2000; i++) {
+			Assignment input = new Assignment();
+			for (int j = 0; j < 6; j++) {
+				input.addPair("Var" + j, "value" + random.nextInt(4));
+			}
+			inputs.add(input);
+		}
+
+		// micro-benchmark of a cache lookup with a copy of each input as key,
+		// with and without compaction (the last round being measured)
+		long plainTime = 0;
+		long compactTime = 0;
+		for (int round = 0; round < 5; round++) {
+			Map<Assignment, Integer> plain = new HashMap<Assignment, Integer>();
+			Map<Assignment, Integer> compact = new HashMap<Assignment, Integer>();
+			long start = System.nanoTime();
+			for (int k = 0; k < 20; k++) {
+				for (Assignment input : inputs) {
+					plain.putIfAbsent(new Assignment(input), k);
+				}
+			}
+			plainTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int k = 0; k < 20; k++) {
+				for (Assignment input : inputs) {
+					compact.putIfAbsent(
+							CompactAssignment.of(new Assignment(input)), k);
+				}
+			}
+			compactTime = System.nanoTime() - start;
+			assertEquals(plain, compact);
+		}
+		log.info("cache lookups with plain keys: " + plainTime / 1000000.0
+				+ " ms, with compact keys: " + compactTime / 1000000.0 + " ms");
+		assertTrue(compactTime < 2 * plainTime);
+	}
+
+	@Test
+	public void testSymbolCollection() throws InterruptedException {
+		int limit = SymbolTable.MAX_VARIABLES;
+		try {
+			SymbolTable.MAX_VARIABLES = SymbolTable.getNbVariables() + 100;
+			CompactAssignment kept =
+					CompactAssignment.of(new Assignment("Kept", "value"));
+
+			// the symbols of unused assignments are collected, and their
+			// identifiers reused for new variables
+			boolean registered = true;
+			for (int i = 0; i < 1000 && registered; i++) {
+				CompactAssignment.of(new Assignment("Temporary" + i, "value"));
+				registered = SymbolTable.getSymbol("Temporary" + i) != null;
+				if (i % 50 == 49) {
+					System.gc();
+					Thread.sleep(10);
+				}
+			}
+			assertTrue(registered);
+			assertTrue(SymbolTable.getNbVariables() <= SymbolTable.MAX_VARIABLES);
+			assertTrue(SymbolTable.lookup("Kept") != null);
+			assertEquals(ValueFactory.create("value"), kept.getValue("Kept"));
+		}
+		finally {
+			SymbolTable.MAX_VARIABLES = limit;
+		}
+	}
+
+	@Test
+	public void testRangeEnumeration() {
+		ValueRange range = new ValueRange();
+		range.addValues("A", Arrays.asList(ValueFactory.create("a1"),
+				ValueFactory.create("a2"), ValueFactory.create("a3")));
+		range.addValues("B", Arrays.asList(ValueFactory.create(true),
+				ValueFactory.create(false)));
+		range.addValues("C", Arrays.asList(ValueFactory.create(1),
+				ValueFactory.create(2), ValueFactory.create(3),
+				ValueFactory.create(4)));
+
+		Set<Assignment> combinations = new HashSet<Assignment>();
+		range.forEachCombination(a -> false, a -> combinations.add(a));
+		assertEquals(range.linearise(), combinations);
+
+		Set<Assignment> pruned = new HashSet<Assignment>();
+		range.forEachCombination(
+				a -> a.containsVar("B") && a.getValue("B").equals(
+						ValueFactory.create(false)),
+				a -> pruned.add(a));
+		assertEquals(12, pruned.size());
+		assertTrue(pruned.stream().allMatch(a -> a.size() == 3
+				&& a.getValue("B").equals(ValueFactory.create(true))));
+
+		List<Assignment> empty = new ArrayList<Assignment>();
+		new ValueRange().forEachCombination(a -> false, a -> empty.add(a));
+		assertEquals(Arrays.asList(new Assignment()), empty);
+	}
 }
@@ -28,6 +28,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.logging.Logger;
 
 import opendial.bn.distribs.CategoricalTable;
@@ -213,6 +214,41 @@ public class BNetworkStructureTest {
 		assertTrue(bn2.getNode("MaryCalls").getInputNodeIds().contains("Alarm"));
 	}
 
+	@Test
+	public void testCopyOnWrite() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork();
+		BNetwork bn2 = bn.copy();
+		assertTrue(bn.getChanceNode("Alarm").getDistrib() == bn2
+				.getChanceNode("Alarm").getDistrib());
+		assertTrue(bn.getUtilityNode("Util1").getFunction() == bn2
+				.getUtilityNode("Util1").getFunction());
+
+		bn.getNode("Alarm").setId("Alarm2");
+		assertEquals("Alarm2", bn.getChanceNode("Alarm2").getDistrib().getVariable());
+		assertEquals("Alarm", bn2.getChanceNode("Alarm").getDistrib().getVariable());
+
+		Assignment input = new Assignment(new Assignment("Burglary", true), "Action",
+				ValueFactory.create("DoNothing"));
+		double util = bn.getUtilityNode("Util1").getUtility(input);
+		bn2.getUtilityNode("Util1").addUtility(input, -20.0);
+		assertEquals(-20.0, bn2.getUtilityNode("Util1").getUtility(input), 0.0001);
+		assertEquals(util, bn.getUtilityNode("Util1").getUtility(input), 0.0001);
+
+		bn2.getChanceNode("Burglary").pruneValues(0.0001);
+		assertTrue(bn.getChanceNode("Burglary").getDistrib() == bn2
+				.getChanceNode("Burglary").getDistrib());
+		bn2.getChanceNode("Burglary").pruneValues(0.01);
+		assertEquals(1, bn2.getChanceNode("Burglary").getValues().size());
+		assertEquals(2, bn.getChanceNode("Burglary").getValues().size());
+		assertTrue(!bn.getChanceNode("Burglary").isDistribShared());
+
+		BNetwork bn3 = bn2.copy();
+		bn3.getChanceNode("JohnCalls").pruneValues(0.0001);
+		assertTrue(bn2.getChanceNode("JohnCalls").getDistrib() == bn3
+				.getChanceNode("JohnCalls").getDistrib());
+		assertTrue(bn3.getChanceNode("JohnCalls").isDistribShared());
+	}
+
 	@Test
 	public void tableExpansion() {
 		BNetwork bn = NetworkExamples.constructBasicNetwork();
@@ -287,6 +323,33 @@ public class BNetworkStructureTest {
 		assertEquals("a_m.place'", bn2.getSortedNodes().get(0).getId());
 	}
 
+	@Test
+	public void testCachedOrdering() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork();
+		assertEquals(new HashSet<String>(
+				Arrays.asList("Alarm", "Burglary", "Earthquake")),
+				bn.getAncestorIds("JohnCalls"));
+		assertTrue(bn.getDescendantIds("Burglary").contains("MaryCalls"));
+		assertFalse(bn.getDescendantIds("Burglary").contains("Earthquake"));
+		assertEquals(bn.getSortedNodesIds(), bn.getSortedNodesIds());
+
+		ChanceNode extra = new ChanceNode("Extra", ValueFactory.create(true));
+		bn.addNode(extra);
+		assertEquals("Extra", bn.getSortedNodes().get(5).getId());
+		assertEquals("Action", bn.getSortedNodes().get(8).getId());
+		extra.addInputNode(bn.getNode("JohnCalls"));
+		assertEquals("Extra", bn.getSortedNodes().get(0).getId());
+		assertTrue(bn.getDescendantIds("Burglary").contains("Extra"));
+		bn.getNode("JohnCalls").removeInputNode("Alarm");
+		assertFalse(bn.getDescendantIds("Burglary").contains("Extra"));
+		assertEquals(new HashSet<String>(Arrays.asList("JohnCalls")),
+				bn.getAncestorIds("Extra"));
+		extra.setId("Extra2");
+		assertTrue(bn.getSortedNodesIds().contains("Extra2"));
+		assertFalse(bn.getSortedNodesIds().contains("Extra"));
+		assertTrue(bn.getDescendantIds("JohnCalls").contains("Extra2"));
+	}
+
 	@Test
 	public void testCliques() {
 		BNetwork bn = NetworkExamples.constructBasicNetwork();
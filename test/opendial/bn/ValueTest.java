@@ -127,4 +127,16 @@ public class ValueTest {
 		assertEquals(table.getProb(new double[] { 0.5, 0.4 }), 0.4, 0.01);
 
 	}
+
+	@Test
+	public void testInterning() {
+		assertTrue(ValueFactory.create("Greeting") == ValueFactory.create("Greeting"));
+		assertTrue(ValueFactory.create("2.5") == ValueFactory.create("2.5"));
+		assertTrue(ValueFactory.create("true") == ValueFactory.create(true));
+		assertFalse(ValueFactory.create("Greeting") == ValueFactory
+				.create("greeting"));
+		assertEquals(ValueFactory.create("Greeting"), ValueFactory.create("greeting"));
+		assertFalse(ValueFactory.create("[a,b]") == ValueFactory.create("[a,b]"));
+		assertEquals(ValueFactory.create("[a,b]"), ValueFactory.create("[b,a]"));
+	}
 }
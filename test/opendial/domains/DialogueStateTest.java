@@ -23,15 +23,29 @@
 
 package opendial.domains;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.logging.*;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import opendial.DialogueState;
 import opendial.DialogueSystem;
+import opendial.bn.distribs.CategoricalTable;
+import opendial.bn.distribs.UtilityTable;
+import opendial.bn.values.Value;
+import opendial.bn.values.ValueFactory;
 import opendial.common.InferenceChecks;
+import opendial.common.NetworkExamples;
+import opendial.datastructs.Assignment;
 import opendial.domains.rules.effects.Effect;
 import opendial.modules.ForwardPlanner;
 import opendial.modules.StatePruner;
 import opendial.readers.XMLDomainReader;
+import opendial.utils.RandomUtils;
 
 import org.junit.Test;
 
@@ -103,4 +117,111 @@ public class DialogueStateTest {
 
 	}
 
+	@Test
+	public void testParallelAnchoring() throws InterruptedException {
+
+		boolean oldAnchoring = Model.PARALLEL_ANCHORING;
+		boolean oldReduction = StatePruner.ENABLE_REDUCTION;
+		DialogueState sequentialState;
+		DialogueState parallelState;
+		try {
+			Model.PARALLEL_ANCHORING = false;
+			StatePruner.ENABLE_REDUCTION = false;
+			DialogueSystem system = new DialogueSystem(domain);
+			system.getSettings().showGUI = false;
+			system.detachModule(ForwardPlanner.class);
+			system.startSystem();
+			sequentialState = system.getState().copy();
+
+			Model.PARALLEL_ANCHORING = true;
+			system = new DialogueSystem(domain);
+			system.getSettings().showGUI = false;
+			system.detachModule(ForwardPlanner.class);
+			system.startSystem();
+			parallelState = system.getState().copy();
+		}
+		finally {
+			Model.PARALLEL_ANCHORING = oldAnchoring;
+			StatePruner.ENABLE_REDUCTION = oldReduction;
+		}
+
+		assertEquals(sequentialState.getNodeIds(), parallelState.getNodeIds());
+		for (String var : sequentialState.getChanceNodeIds()) {
+			for (Value v : sequentialState.getChanceNode(var).getValues()) {
+				assertEquals(sequentialState.queryProb(var).getProb(v),
+						parallelState.queryProb(var).getProb(v), 0.05);
+			}
+		}
+	}
+
+	@Test
+	public void testSeededParallelAnchoring() {
+		List<Integer> draws = new ArrayList<Integer>();
+		try {
+			for (int i = 0; i < 20; i++) {
+				Domain freshDomain = XMLDomainReader.extractDomain(domainFile);
+				RandomUtils.setSeed(42);
+				DialogueState state = freshDomain.getInitialState().copy();
+				for (Model model : freshDomain.getModels()) {
+					model.trigger(state);
+				}
+				draws.add(RandomUtils.getRandom().nextInt());
+			}
+		}
+		finally {
+			RandomUtils.clearSeed();
+		}
+		assertEquals(1, new HashSet<Integer>(draws).size());
+	}
+
+	@Test
+	public void testQueryCache() {
+		DialogueState state =
+				new DialogueState(NetworkExamples.constructBasicNetwork());
+
+		double alarm = state.queryProb("Alarm").getProb(true);
+		assertEquals(0, state.getQueryCacheHits());
+		assertEquals(1, state.getQueryCacheMisses());
+		assertEquals(alarm, state.queryProb("Alarm").getProb(true), 0.0001);
+		assertEquals(1, state.getQueryCacheHits());
+
+		// results returned by the cache can be modified by the caller
+		UtilityTable util = state.queryUtil(Arrays.asList("Action"));
+		Assignment police = new Assignment("Action", "CallPolice");
+		double utilPolice = util.getUtil(police);
+		util.setUtil(police, 100.0);
+		assertEquals(utilPolice, state.queryUtil(Arrays.asList("Action")).getUtil(police),
+				0.0001);
+		assertEquals(2, state.getQueryCacheHits());
+
+		// changes in the evidence or in the clique invalidate the results
+		state.addEvidence(new Assignment("JohnCalls", true));
+		assertTrue(state.queryProb("Alarm").getProb(true) > alarm);
+		assertEquals(2, state.getQueryCacheHits());
+		state.clearEvidence(Arrays.asList("JohnCalls"));
+		CategoricalTable.Builder builder = new CategoricalTable.Builder("Burglary");
+		builder.addRow(ValueFactory.create(true), 0.5);
+		builder.addRow(ValueFactory.create(false), 0.5);
+		state.getChanceNode("Burglary").setDistrib(builder.build());
+		assertTrue(state.queryProb("Alarm").getProb(true) > alarm);
+		assertEquals(2, state.getQueryCacheHits());
+		assertEquals(4, state.getQueryCacheMisses());
+	}
+
+	@Test
+	public void testSharedDistributions() {
+		DialogueState state =
+				new DialogueState(NetworkExamples.constructBasicNetwork());
+		DialogueState copy = state.copy();
+
+		// distributions returned without inference can be modified by the caller
+		state.queryProb("Burglary").modifyVariableId("Burglary", "Burglary2");
+		state.queryMarginals(Arrays.asList("Burglary")).get("Burglary")
+				.modifyVariableId("Burglary", "Burglary3");
+		assertEquals("Burglary", state.queryProb("Burglary").getVariable());
+		assertEquals("Burglary", copy.queryProb("Burglary").getVariable());
+		assertEquals("Burglary",
+				copy.getChanceNode("Burglary").getDistrib().getVariable());
+	}
+
 }
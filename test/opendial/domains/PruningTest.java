@@ -24,6 +24,7 @@
 package opendial.domains;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Set;
 import java.util.SortedSet;
@@ -33,6 +34,7 @@ import java.util.logging.Logger;
 import opendial.DialogueState;
 import opendial.DialogueSystem;
 import opendial.bn.distribs.CategoricalTable;
+import opendial.bn.nodes.ChanceNode;
 import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.common.InferenceChecks;
@@ -183,4 +185,38 @@ public class PruningTest {
 		system.getState().reset(initialState);
 
 	}
+
+	@Test
+	public void testIncrementalPruning() {
+
+		DialogueState state = new DialogueState();
+		CategoricalTable.Builder builder = new CategoricalTable.Builder("u");
+		builder.addRow("x", 0.7);
+		builder.addRow("y", 0.3);
+		state.addToState(builder.build());
+		builder = new CategoricalTable.Builder("v");
+		builder.addRow("z", 0.6);
+		state.addToState(builder.build());
+		state.reduce();
+		ChanceNode u = state.getChanceNode("u");
+
+		builder = new CategoricalTable.Builder("v");
+		builder.addRow("w", 0.8);
+		state.addToState(builder.build());
+		state.reduce();
+		assertTrue(u == state.getChanceNode("u"));
+		assertEquals(0.8, state.queryProb("v").getProb("w"), 0.001);
+		assertEquals(0.7, state.queryProb("u").getProb("x"), 0.001);
+
+		builder = new CategoricalTable.Builder("u");
+		builder.addRow("x", 0.995);
+		builder.addRow("y", 0.005);
+		u.setDistrib(builder.build());
+		builder = new CategoricalTable.Builder("v");
+		builder.addRow("z", 0.5);
+		state.addToState(builder.build());
+		state.reduce();
+		assertEquals(1, state.getChanceNode("u").getNbValues());
+		assertEquals(0.5, state.queryProb("v").getProb("z"), 0.001);
+	}
 }
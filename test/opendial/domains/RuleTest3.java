@@ -27,13 +27,24 @@ import java.util.logging.*;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import opendial.DialogueSystem;
 import opendial.bn.values.ValueFactory;
 import opendial.common.InferenceChecks;
+import opendial.datastructs.Assignment;
+import opendial.domains.rules.Rule;
+import opendial.domains.rules.RuleOutput;
+import opendial.domains.rules.conditions.BasicCondition;
+import opendial.domains.rules.conditions.BasicCondition.Relation;
+import opendial.domains.rules.conditions.ComplexCondition;
+import opendial.domains.rules.conditions.ComplexCondition.BinaryOperator;
+import opendial.domains.rules.conditions.NegatedCondition;
+import opendial.domains.rules.conditions.VoidCondition;
 import opendial.domains.rules.effects.BasicEffect;
 import opendial.domains.rules.effects.Effect;
 import opendial.modules.ForwardPlanner;
@@ -148,4 +159,165 @@ public class RuleTest3 {
 				0.01);
 	}
 
+	@Test
+	public void testCompiledRule() {
+		Rule rule = new Rule("r1", Rule.RuleType.PROB);
+		RuleOutput o1 = new RuleOutput(Rule.RuleType.PROB);
+		o1.addEffect(Effect.parseEffect("a_m:=Hello"), 0.8);
+		rule.addCase(new BasicCondition("a_u", "Hi", Relation.EQUAL), o1);
+		RuleOutput o2 = new RuleOutput(Rule.RuleType.PROB);
+		o2.addEffect(Effect.parseEffect("a_m:=Bye"), 0.7);
+		rule.addCase(new BasicCondition("a_u", "Goodbye", Relation.EQUAL), o2);
+		rule.compile();
+
+		assertTrue(rule.getOutput(new Assignment("a_u", "Hi")).getEffects()
+				.containsAll(o1.getEffects()));
+		assertTrue(rule.getOutput(new Assignment("a_u", "goodbye")).getEffects()
+				.containsAll(o2.getEffects()));
+		assertTrue(rule.getOutput(new Assignment("a_u", "Other")).isVoid());
+
+		RuleOutput o3 = new RuleOutput(Rule.RuleType.PROB);
+		o3.addEffect(Effect.parseEffect("a_m:=Sorry"), 0.5);
+		rule.addCase(new VoidCondition(), o3);
+		assertTrue(rule.getOutput(new Assignment("a_u", "Other")).getEffects()
+				.containsAll(o3.getEffects()));
+		assertTrue(rule.getOutput(new Assignment("a_u", "Hi")).getEffects()
+				.containsAll(o1.getEffects()));
+
+		BasicCondition cond =
+				new BasicCondition("a_u", "take {X}", Relation.EQUAL);
+		assertTrue(cond.isSatisfiedBy(new Assignment(new Assignment("a_u",
+				"take box"), new Assignment("X", "box"))));
+		assertTrue(cond.isSatisfiedBy(new Assignment(new Assignment("a_u",
+				"take box"), new Assignment("X", "box"))));
+		assertFalse(cond.isSatisfiedBy(new Assignment(new Assignment("a_u",
+				"take box"), new Assignment("X", "ball"))));
+	}
+
+	@Test
+	public void testTriggerIndex() {
+		Domain domain = new Domain();
+		Model m1 = new Model();
+		m1.addTrigger("a_u");
+		m1.addRule(new Rule("r1", Rule.RuleType.PROB));
+		Model m2 = new Model();
+		m2.addTrigger("obj({X})");
+		m2.addRule(new Rule("r2", Rule.RuleType.PROB));
+		Model m3 = new Model();
+		m3.addTrigger("a_m");
+		m3.addTrigger("A_U");
+		m3.addRule(new Rule("r3", Rule.RuleType.UTIL));
+		Model m4 = new Model();
+		m4.addTrigger("a_u");
+		domain.addModel(m1);
+		domain.addModel(m2);
+		domain.addModel(m3);
+		domain.addModel(m4);
+
+		assertEquals(Arrays.asList(m1, m3),
+				domain.getTriggeredModels(Arrays.asList("a_u")));
+		assertEquals(Arrays.asList(m1, m2, m3), domain
+				.getTriggeredModels(Arrays.asList("obj(box)", "a_m", "a_u")));
+		assertTrue(domain.getTriggeredModels(Arrays.asList("obj", "u_m"))
+				.isEmpty());
+
+		domain.getModels().remove(m1);
+		assertEquals(Arrays.asList(m3),
+				domain.getTriggeredModels(Arrays.asList("a_u")));
+	}
+
+	@Test
+	public void testTriggerIndexReplacement() {
+		Domain domain = new Domain();
+		Model m1 = new Model();
+		m1.addTrigger("a_u");
+		m1.addRule(new Rule("r1", Rule.RuleType.PROB));
+		Model m2 = new Model();
+		m2.addTrigger("a_m");
+		m2.addRule(new Rule("r2", Rule.RuleType.PROB));
+		domain.addModel(m1);
+		assertEquals(Arrays.asList(m1),
+				domain.getTriggeredModels(Arrays.asList("a_u")));
+
+		domain.getModels().set(0, m2);
+		assertTrue(domain.getTriggeredModels(Arrays.asList("a_u")).isEmpty());
+		assertEquals(Arrays.asList(m2),
+				domain.getTriggeredModels(Arrays.asList("a_m")));
+	}
+
+	@Test
+	public void testTriggerIndexNewTrigger() {
+		Domain domain = new Domain();
+		Model m1 = new Model();
+		m1.addTrigger("a_u");
+		m1.addRule(new Rule("r1", Rule.RuleType.PROB));
+		domain.addModel(m1);
+		assertTrue(domain.getTriggeredModels(Arrays.asList("a_m")).isEmpty());
+
+		m1.addTrigger("a_m");
+		assertEquals(Arrays.asList(m1),
+				domain.getTriggeredModels(Arrays.asList("a_m")));
+		m1.addTrigger("obj({X})");
+		assertEquals(Arrays.asList(m1),
+				domain.getTriggeredModels(Arrays.asList("obj(box)")));
+	}
+
+	@Test
+	public void testOutputCache() {
+		Rule rule = new Rule("r1", Rule.RuleType.PROB);
+		RuleOutput o1 = new RuleOutput(Rule.RuleType.PROB);
+		o1.addEffect(Effect.parseEffect("a_m:=Hello {X}"), 0.8);
+		rule.addCase(new BasicCondition("a_u", "Hi {X}", Relation.EQUAL), o1);
+		assertFalse(rule.isRandomised());
+
+		Assignment input = new Assignment("a_u", "Hi Pierre");
+		RuleOutput out = rule.getCachedOutput(input);
+		assertTrue(out.getEffects()
+				.contains(Effect.parseEffect("a_m:=Hello Pierre")));
+		assertTrue(out == rule.getCachedOutput(new Assignment(input)));
+		assertEquals(1, rule.getCacheSize());
+		assertEquals(0.5, rule.getCacheHitRate(), 0.001);
+		rule.getCachedOutput(new Assignment("a_u", "Hi Lison"));
+		assertEquals(2, rule.getCacheSize());
+
+		Rule rule2 = new Rule("r2", Rule.RuleType.PROB);
+		RuleOutput o2 = new RuleOutput(Rule.RuleType.PROB);
+		o2.addEffect(Effect.parseEffect("a_m:=Hello {random}"), 0.8);
+		rule2.addCase(new BasicCondition("a_u", "Hi", Relation.EQUAL), o2);
+		assertTrue(rule2.isRandomised());
+		rule2.getCachedOutput(new Assignment("a_u", "Hi"));
+		assertEquals(0, rule2.getCacheSize());
+	}
+
+	@Test
+	public void testFalsifiedConditions() {
+		BasicCondition c1 = new BasicCondition("a_u", "Hi", Relation.EQUAL);
+		BasicCondition c2 = new BasicCondition("b", "{X}", Relation.EQUAL);
+		BasicCondition c3 = new BasicCondition("c", "true", Relation.EQUAL);
+		assertTrue(c1.isFalsifiedBy(new Assignment("a_u", "Bye")));
+		assertFalse(c1.isFalsifiedBy(new Assignment("a_u", "Hi")));
+		assertFalse(c1.isFalsifiedBy(new Assignment("c", true)));
+		assertFalse(c2.isFalsifiedBy(new Assignment("b", "Bye")));
+
+		ComplexCondition and = new ComplexCondition(Arrays.asList(c1, c3),
+				BinaryOperator.AND);
+		assertTrue(and.isFalsifiedBy(new Assignment("c", false)));
+		assertFalse(and.isFalsifiedBy(new Assignment("c", true)));
+		ComplexCondition or = new ComplexCondition(Arrays.asList(c1, c3),
+				BinaryOperator.OR);
+		assertFalse(or.isFalsifiedBy(new Assignment("c", false)));
+		assertTrue(or.isFalsifiedBy(new Assignment(new Assignment("c", false),
+				new Assignment("a_u", "Bye"))));
+		assertTrue(new NegatedCondition(c1)
+				.isFalsifiedBy(new Assignment("a_u", "Hi")));
+
+		Rule rule = new Rule("r1", Rule.RuleType.PROB);
+		RuleOutput o1 = new RuleOutput(Rule.RuleType.PROB);
+		o1.addEffect(Effect.parseEffect("a_m:=Hello"), 0.8);
+		rule.addCase(c1, o1);
+		assertTrue(rule.isFalsifiedBy(new Assignment("a_u", "Bye")));
+		rule.addCase(new VoidCondition(), o1);
+		assertFalse(rule.isFalsifiedBy(new Assignment("a_u", "Bye")));
+	}
+
 }
@@ -310,4 +310,25 @@ public class TemplateStringTest {
 		assertEquals("ball",
 				t1.match("ball").getFilledSlots().getValue("test").toString());
 	}
+
+	@Test
+	public void testCachedMatches() {
+		Template t1 = new Template("take the {obj} to (the)? {loc}");
+		Assignment a1 = t1.match("take the box to the kitchen").getFilledSlots();
+		assertEquals("box", a1.getValue("obj").toString());
+		a1.addPair("obj", "ball");
+		Assignment a2 = t1.match("take the box to the kitchen").getFilledSlots();
+		assertEquals("box", a2.getValue("obj").toString());
+		assertEquals("kitchen", a2.getValue("loc").toString());
+		assertFalse(t1.match("bring the box to the kitchen").isMatching());
+		assertFalse(t1.match("bring the box to the kitchen").isMatching());
+		assertTrue(t1.match("TAKE THE box TO kitchen").isMatching());
+		assertEquals(1, t1.find("please take the box to kitchen", 1).size());
+		assertEquals(1, t1.find("please take the box to kitchen", 1).size());
+		assertEquals(0, t1.find("please bring the box", 1).size());
+
+		Template t2 = new Template("(hi|hello) {name}");
+		assertTrue(t2.match("hello Pierre").isMatching());
+		assertFalse(t2.match("bye Pierre").isMatching());
+	}
 }
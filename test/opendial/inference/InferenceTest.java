@@ -28,24 +28,43 @@ import java.util.logging.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import opendial.bn.BNetwork;
 import opendial.bn.distribs.CategoricalTable;
 import opendial.bn.distribs.ContinuousDistribution;
 import opendial.bn.distribs.EmpiricalDistribution;
+import opendial.bn.distribs.IndependentDistribution;
 import opendial.bn.distribs.MultivariateDistribution;
 import opendial.bn.distribs.MultivariateTable;
 import opendial.bn.distribs.densityfunctions.GaussianDensityFunction;
 import opendial.bn.distribs.densityfunctions.UniformDensityFunction;
+import opendial.bn.nodes.BNode;
 import opendial.bn.nodes.ChanceNode;
+import opendial.bn.values.DoubleVal;
 import opendial.bn.values.ValueFactory;
 import opendial.common.NetworkExamples;
 import opendial.datastructs.Assignment;
+import opendial.inference.approximate.LikelihoodWeighting;
+import opendial.inference.approximate.LikelihoodWeighting.StoppingReason;
+import opendial.inference.approximate.SampledDistribution;
 import opendial.inference.approximate.SamplingAlgorithm;
+import opendial.inference.approximate.SamplingPlan;
+import opendial.inference.exact.DoubleFactor;
+import opendial.inference.exact.EliminationOrdering;
+import opendial.inference.exact.IndexedFactor;
+import opendial.inference.exact.JunctionTree;
 import opendial.inference.exact.NaiveInference;
 import opendial.inference.exact.VariableElimination;
+import opendial.utils.RandomUtils;
 
 import org.junit.Test;
 
@@ -314,7 +333,7 @@ public class InferenceTest {
 		distrib = (new SwitchingAlgorithm()).queryProb(network,
 				Arrays.asList("Burglary"),
 				new Assignment(Arrays.asList("JohnCalls", "MaryCalls")));
-		assertEquals(EmpiricalDistribution.class, distrib.getClass());
+		assertTrue(distrib instanceof EmpiricalDistribution);
 
 		network.removeNode(n1.getId());
 		network.removeNode(n2.getId());
@@ -341,6 +360,385 @@ public class InferenceTest {
 		SwitchingAlgorithm.MAX_BRANCHING_FACTOR = oldFactor;
 	}
 
+	@Test
+	public void testCostModel() {
+		BNetwork network = NetworkExamples.constructBasicNetwork();
+		SwitchingAlgorithm switching = new SwitchingAlgorithm();
+		Query query = new Query.ProbQuery(network, Arrays.asList("Burglary"),
+				new Assignment(Arrays.asList("JohnCalls", "MaryCalls")));
+		SwitchingAlgorithm.CostEstimate estimate = switching.estimateCost(query);
+		assertTrue(estimate.isExact());
+		assertEquals(2, estimate.getTreewidth());
+		assertEquals(8.0, estimate.getMaxFactorSize(), 0.001);
+		assertTrue(estimate.getExactCost() < estimate.getSamplingCost());
+		assertTrue(switching
+				.selectBestAlgorithm(query) instanceof VariableElimination);
+
+		double rate = switching.getExactRate();
+		switching.queryProb(network, Arrays.asList("Burglary"),
+				new Assignment("JohnCalls"));
+		assertTrue(switching.getExactRate() != rate);
+
+		double oldPreference = SwitchingAlgorithm.EXACT_PREFERENCE;
+		try {
+			SwitchingAlgorithm.EXACT_PREFERENCE = 0.0;
+			assertTrue(switching
+					.selectBestAlgorithm(query) instanceof SamplingAlgorithm);
+		}
+		finally {
+			SwitchingAlgorithm.EXACT_PREFERENCE = oldPreference;
+		}
+
+		switching.exactRate = 1e6 * SwitchingAlgorithm.DEFAULT_EXACT_RATE;
+		assertTrue(
+				switching.selectBestAlgorithm(query) instanceof SamplingAlgorithm);
+		RandomUtils.setSeed(42);
+		try {
+			assertTrue(switching
+					.selectBestAlgorithm(query) instanceof VariableElimination);
+		}
+		finally {
+			RandomUtils.clearSeed();
+		}
+
+		for (int i = 0; i < 1000; i++) {
+			switching.recordRuntime(switching.ve, estimate, Long.MAX_VALUE / 2);
+			switching.recordRuntime(switching.lw, estimate, 1);
+		}
+		assertEquals(SwitchingAlgorithm.MAX_CALIBRATION_FACTOR
+				* SwitchingAlgorithm.DEFAULT_EXACT_RATE, switching.getExactRate(),
+				0.001);
+		assertEquals(SwitchingAlgorithm.DEFAULT_SAMPLING_RATE
+				/ SwitchingAlgorithm.MAX_CALIBRATION_FACTOR,
+				switching.getSamplingRate(), 0.001);
+	}
+
+	@Test
+	public void testIndexedFactor() {
+		DoubleFactor f1 = new DoubleFactor();
+		f1.addEntry(new Assignment(new Assignment("A", "a1"), "B", "b1"), 0.1, 2.0);
+		f1.addEntry(new Assignment(new Assignment("A", "a1"), "B", "b2"), 0.1, 0.0);
+		f1.addEntry(new Assignment(new Assignment("A", "a2"), "B", "b1"), 0.72, 1.0);
+
+		IndexedFactor f2 = new IndexedFactor(f1);
+		assertEquals(4, f2.size());
+		assertEquals(3, f2.toDoubleFactor().size());
+
+		DoubleFactor marginal = f2.sumOut("A").toDoubleFactor();
+		assertEquals(0.82, marginal.getProbEntry(new Assignment("B", "b1")), 0.0001);
+		assertEquals(0.1, marginal.getProbEntry(new Assignment("B", "b2")), 0.0001);
+		assertEquals((0.1 * 2 + 0.72) / 0.82,
+				marginal.getUtilityEntry(new Assignment("B", "b1")), 0.0001);
+
+		DoubleFactor product = f2.product(f2.sumOut("B")).toDoubleFactor();
+		assertEquals(3, product.size());
+		Assignment a = new Assignment(new Assignment("A", "a2"), "B", "b1");
+		assertEquals(0.72 * 0.72, product.getProbEntry(a), 0.0001);
+		assertEquals(2.0, product.getUtilityEntry(a), 0.0001);
+	}
+
+	@Test
+	public void testEliminationOrdering() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork2();
+		Assignment evidence = new Assignment(Arrays.asList("JohnCalls", "MaryCalls"));
+		MultivariateDistribution query = null;
+		for (EliminationOrdering.Heuristic h : EliminationOrdering.Heuristic
+				.values()) {
+			VariableElimination ve = new VariableElimination(h);
+			MultivariateDistribution query2 =
+					ve.queryProb(bn, Arrays.asList("Burglary"), evidence);
+			VariableElimination.Elimination elimination = ve.eliminate(
+					new Query.ProbQuery(bn, Arrays.asList("Burglary"), evidence),
+					null);
+			assertEquals(2, elimination.getOrder().size());
+			assertTrue(elimination.getPeakSize() <= 8);
+			if (query != null) {
+				assertEquals(query.getProb(new Assignment("Burglary")),
+						query2.getProb(new Assignment("Burglary")), 0.0001);
+			}
+			query = query2;
+		}
+
+		EliminationOrdering ordering = new EliminationOrdering(
+				Arrays.asList(Arrays.asList("A", "B"), Arrays.asList("B", "C"),
+						Arrays.asList("C", "D", "E")),
+				new HashMap<String, Integer>());
+		assertEquals("A", ordering.getOrder(Arrays.asList("C", "A"),
+				EliminationOrdering.Heuristic.MIN_FILL).get(0));
+		assertEquals(3, ordering.getInducedWidth(Arrays.asList("C", "A")));
+		assertEquals(1, ordering.getInducedWidth(Arrays.asList("A", "B")));
+
+		Map<String, Integer> cardinalities = new HashMap<String, Integer>();
+		for (String var : Arrays.asList("A", "B", "C", "D", "E")) {
+			cardinalities.put(var, 2);
+		}
+		ordering = new EliminationOrdering(
+				Arrays.asList(Arrays.asList("A", "B"), Arrays.asList("B", "C"),
+						Arrays.asList("C", "D", "E")),
+				cardinalities);
+		EliminationOrdering.Cost cost =
+				ordering.evaluate(Arrays.asList("A", "B", "C"));
+		assertEquals(2, cost.getInducedWidth());
+		assertEquals(8.0, cost.getMaxFactorSize(), 0.0001);
+		assertEquals(4.0 + 4.0 + 8.0, cost.getTotalFactorSize(), 0.0001);
+	}
+
+	@Test
+	public void testSamplingPlan() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork2();
+		Assignment evidence = new Assignment(Arrays.asList("JohnCalls", "MaryCalls"));
+		Query query = new Query.ProbQuery(bn, Arrays.asList("Burglary"), evidence);
+		List<BNode> nodes = query.getFilteredSortedNodes();
+		Collections.reverse(nodes);
+		SamplingPlan plan =
+				new SamplingPlan(nodes, evidence, Arrays.asList("Burglary"));
+		assertEquals(5, plan.size());
+		assertEquals(1, plan.getNbQueryVars());
+
+		SamplingAlgorithm is = new SamplingAlgorithm(5000, 300);
+		MultivariateDistribution distrib = is.queryProb(bn,
+				Arrays.asList("Burglary"), evidence);
+		assertEquals(0.637392, distrib.getProb(new Assignment("Burglary", true)),
+				0.06f);
+
+		bn.addNode(new ChanceNode("Gaussian", new ContinuousDistribution("Gaussian",
+				new GaussianDensityFunction(1.0, 2.0))));
+		nodes = new ArrayList<BNode>(bn.getSortedNodes());
+		Collections.reverse(nodes);
+		try {
+			new SamplingPlan(nodes, evidence, Arrays.asList("Gaussian"));
+			assertTrue(false);
+		}
+		catch (RuntimeException e) {
+		}
+		distrib = is.queryProb(bn, Arrays.asList("Burglary"), evidence);
+		assertEquals(0.637392, distrib.getProb(new Assignment("Burglary", true)),
+				0.06f);
+	}
+
+	@Test
+	public void testSamplingExecutor() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork2();
+		Assignment evidence = new Assignment(Arrays.asList("JohnCalls", "MaryCalls"));
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		SamplingAlgorithm is = new SamplingAlgorithm(5000, 300, executor);
+		MultivariateDistribution distrib = is.queryProb(bn,
+				Arrays.asList("Burglary"), evidence);
+		assertEquals(0.637392, distrib.getProb(new Assignment("Burglary", true)),
+				0.06f);
+		int minSamples = LikelihoodWeighting.MIN_SAMPLES_FOR_PLAN;
+		LikelihoodWeighting.MIN_SAMPLES_FOR_PLAN = Integer.MAX_VALUE;
+		distrib = is.queryProb(bn, Arrays.asList("Burglary"), evidence);
+		LikelihoodWeighting.MIN_SAMPLES_FOR_PLAN = minSamples;
+		assertEquals(0.637392, distrib.getProb(new Assignment("Burglary", true)),
+				0.06f);
+		executor.shutdown();
+	}
+
+	@Test
+	public void testSeededSampling() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork2();
+		Assignment evidence = new Assignment(Arrays.asList("JohnCalls", "MaryCalls"));
+		ContinuousDistribution gaussian = new ContinuousDistribution("Gaussian",
+				new GaussianDensityFunction(1.0, 2.0));
+		SamplingAlgorithm is = new SamplingAlgorithm(2000, 10000);
+
+		RandomUtils.setSeed(42);
+		double prob1 = is.queryProb(bn, Arrays.asList("Burglary"), evidence)
+				.getProb(new Assignment("Burglary", true));
+		double sample1 = ((DoubleVal) gaussian.sample()).getDouble();
+		RandomUtils.setSeed(42);
+		double prob2 = is.queryProb(bn, Arrays.asList("Burglary"), evidence)
+				.getProb(new Assignment("Burglary", true));
+		double sample2 = ((DoubleVal) gaussian.sample()).getDouble();
+		RandomUtils.clearSeed();
+
+		assertEquals(prob1, prob2, 0.00001);
+		assertEquals(sample1, sample2, 0.00001);
+		assertEquals(0.637392, prob1, 0.06f);
+	}
+
+	@Test
+	public void testAdaptiveSampling() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork2();
+		Assignment evidence = new Assignment(Arrays.asList("JohnCalls", "MaryCalls"));
+		Query.ProbQuery query =
+				new Query.ProbQuery(bn, Arrays.asList("Burglary"), evidence);
+		SamplingAlgorithm is = new SamplingAlgorithm(1000, 10000);
+		SampledDistribution distrib = is.queryProb(query);
+		assertEquals(StoppingReason.SAMPLE_LIMIT, distrib.getStoppingReason());
+		assertTrue(distrib.getEffectiveSampleSize() > 0);
+
+		is = new SamplingAlgorithm(200000, 10000);
+		is.setPrecision(0.02);
+		distrib = is.queryProb(query);
+		assertEquals(StoppingReason.PRECISION_REACHED, distrib.getStoppingReason());
+		assertTrue(distrib.getEffectiveSampleSize() >= 100);
+		assertTrue(distrib.getEffectiveSampleSize() < 200000);
+		assertEquals(distrib.getStoppingReason(),
+				distrib.copy().getStoppingReason());
+		assertEquals(0.637392, distrib.getProb(new Assignment("Burglary", true)),
+				0.08f);
+	}
+
+	@Test
+	public void testJunctionTree() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork();
+		Assignment evidence = new Assignment(Arrays.asList("JohnCalls", "MaryCalls"));
+		VariableElimination ve = new VariableElimination();
+		JunctionTree jt = new JunctionTree();
+
+		MultivariateDistribution query =
+				ve.queryProb(bn, Arrays.asList("Burglary"), evidence);
+		jt.queryProb(bn, Arrays.asList("Burglary"), evidence);
+		assertTrue(!jt.isCompiled(bn, evidence));
+		Query repeated =
+				new Query.ProbQuery(bn, Arrays.asList("Burglary"), evidence);
+		assertTrue(jt.isApplicable(repeated));
+		assertTrue(jt.isApplicable(repeated));
+		assertTrue(!jt.isCompiled(bn, evidence));
+		assertEquals(0, jt.getNbCompilations());
+		MultivariateDistribution query2 =
+				jt.queryProb(bn, Arrays.asList("Burglary"), evidence);
+		assertTrue(jt.isCompiled(bn, evidence));
+		assertEquals(1, jt.getNbCompilations());
+		assertEquals(query.getProb(new Assignment("Burglary")),
+				query2.getProb(new Assignment("Burglary")), 0.0001);
+		assertEquals(0.286, query2.getProb(new Assignment("Burglary")), 0.001);
+
+		for (String var : Arrays.asList("Earthquake", "Alarm", "JohnCalls")) {
+			query = ve.queryProb(bn, Arrays.asList(var), evidence);
+			query2 = jt.queryProb(bn, Arrays.asList(var), evidence);
+			for (Assignment a : query.getValues()) {
+				assertEquals(query.getProb(a), query2.getProb(a), 0.0001);
+			}
+		}
+		query = ve.queryProb(bn, Arrays.asList("Alarm", "Burglary"), evidence);
+		query2 = jt.queryProb(bn, Arrays.asList("Alarm", "Burglary"), evidence);
+		for (Assignment a : query.getValues()) {
+			assertEquals(query.getProb(a), query2.getProb(a), 0.0001);
+		}
+		assertEquals(1, jt.getNbCompilations());
+		assertEquals(4, jt.getNbHits());
+
+		CategoricalTable.Builder builder = new CategoricalTable.Builder("Neighbour");
+		builder.addRow("bla", 0.4);
+		bn.addNode(new ChanceNode("Neighbour", builder.build()));
+		assertTrue(!jt.isCompiled(bn, evidence));
+		jt.queryProb(bn, Arrays.asList("Burglary"), evidence);
+		query2 = jt.queryProb(bn, Arrays.asList("Burglary"), evidence);
+		assertEquals(2, jt.getNbCompilations());
+		assertEquals(0.286, query2.getProb(new Assignment("Burglary")), 0.001);
+	}
+
+	@Test
+	public void testJunctionTreeRelevance() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork();
+		Assignment evidence = new Assignment(Arrays.asList("JohnCalls", "MaryCalls"));
+		bn.addNode(new ChanceNode("Noise", new ContinuousDistribution("Noise",
+				new UniformDensityFunction(-2, 2))));
+		JunctionTree jt = new JunctionTree();
+		jt.queryProb(bn, Arrays.asList("Burglary"), evidence);
+		MultivariateDistribution distrib =
+				jt.queryProb(bn, Arrays.asList("Burglary"), evidence);
+		assertTrue(jt.isCompiled(bn, evidence));
+		assertEquals(0.286, distrib.getProb(new Assignment("Burglary")), 0.001);
+		for (Set<String> clique : jt.getCliques()) {
+			assertTrue(!clique.contains("Noise"));
+		}
+
+		SwitchingAlgorithm switching = new SwitchingAlgorithm();
+		Query query = new Query.ProbQuery(bn, Arrays.asList("Burglary"), evidence);
+		SwitchingAlgorithm.CostEstimate estimate = switching.estimateCost(query);
+		assertTrue(estimate.getCompilationCost() > 0);
+		switching.queryProb(bn, Arrays.asList("Burglary"), evidence);
+		assertTrue(switching.selectBestAlgorithm(query) instanceof JunctionTree);
+		double oldReuse = SwitchingAlgorithm.JUNCTION_TREE_REUSE;
+		try {
+			SwitchingAlgorithm.JUNCTION_TREE_REUSE = 0.0;
+			assertTrue(switching
+					.selectBestAlgorithm(query) instanceof VariableElimination);
+		}
+		finally {
+			SwitchingAlgorithm.JUNCTION_TREE_REUSE = oldReuse;
+		}
+	}
+
+	@Test
+	public void testRelevantNodes() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork();
+		Query query = new Query.ProbQuery(bn, Arrays.asList("JohnCalls"),
+				new Assignment("Alarm"));
+		List<BNode> nodes = query.getFilteredSortedNodes();
+		assertEquals(1, nodes.size());
+		assertEquals("JohnCalls", nodes.get(0).getId());
+		nodes.clear();
+		assertEquals(1, query.getFilteredSortedNodes().size());
+		assertEquals(0.9,
+				new VariableElimination().queryProb(bn, "JohnCalls",
+						new Assignment("Alarm")).getProb(true), 0.0001);
+		assertEquals(0.9, new SamplingAlgorithm(2000, 500)
+				.queryProb(bn, "JohnCalls", new Assignment("Alarm")).getProb(true),
+				0.05);
+
+		query = new Query.ProbQuery(bn, Arrays.asList("Burglary"),
+				new Assignment("Alarm"));
+		assertEquals(3, query.getFilteredSortedNodes().size());
+		query = new Query.UtilQuery(bn, Arrays.asList("Action"),
+				new Assignment("JohnCalls"));
+		assertEquals(7, query.getFilteredSortedNodes().size());
+		query = new Query.UtilQuery(bn, Arrays.asList("Action"),
+				new Assignment());
+		assertEquals(4, query.getFilteredSortedNodes().size());
+	}
+
+	@Test
+	public void testMarginals() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork();
+		Assignment evidence = new Assignment(Arrays.asList("JohnCalls", "MaryCalls"));
+		List<String> vars = Arrays.asList("Burglary", "Earthquake", "Alarm");
+		VariableElimination ve = new VariableElimination();
+		JunctionTree jt = new JunctionTree();
+		SamplingAlgorithm lw = new SamplingAlgorithm(3000, 500);
+
+		Map<String, IndependentDistribution> marginals =
+				ve.queryMarginals(bn, vars, evidence);
+		Map<String, IndependentDistribution> marginals2 =
+				jt.queryMarginals(bn, vars, evidence);
+		assertEquals(1, jt.getNbCompilations());
+		assertEquals(3, jt.getNbHits());
+		assertEquals(0.286, marginals.get("Burglary").getProb(true), 0.001);
+		for (String var : vars) {
+			assertEquals(marginals.get(var).getProb(true),
+					marginals2.get(var).getProb(true), 0.0001);
+		}
+		marginals2 = new SwitchingAlgorithm().queryMarginals(bn, vars, evidence);
+		for (String var : vars) {
+			assertEquals(marginals.get(var).getProb(true),
+					marginals2.get(var).getProb(true), 0.0001);
+		}
+		SwitchingAlgorithm.ENABLE_JUNCTION_TREE = false;
+		try {
+			marginals2 =
+					new SwitchingAlgorithm().queryMarginals(bn, vars, evidence);
+		}
+		finally {
+			SwitchingAlgorithm.ENABLE_JUNCTION_TREE = true;
+		}
+		for (String var : vars) {
+			assertEquals(marginals.get(var).getProb(true),
+					marginals2.get(var).getProb(true), 0.0001);
+		}
+
+		vars = Arrays.asList("Alarm", "JohnCalls", "MaryCalls");
+		marginals = ve.queryMarginals(bn, vars, new Assignment());
+		marginals2 = lw.queryMarginals(bn, vars, new Assignment());
+		for (String var : vars) {
+			assertEquals(marginals.get(var).getProb(true),
+					marginals2.get(var).getProb(true), 0.03);
+		}
+	}
+
 	/**
 	 * @Test public void specialUtilQueryTest() {
 	 * 
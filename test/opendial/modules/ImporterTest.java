@@ -22,6 +22,7 @@
 
 package opendial.modules;
 
+import java.util.Properties;
 import java.util.logging.*;
 
 import static org.junit.Assert.assertEquals;
@@ -105,6 +106,25 @@ public class ImporterTest {
 				0.0, 0.2);
 	}
 
+	@Test
+	public void testImporterPlanner() throws InterruptedException {
+		DialogueSystem system =
+				new DialogueSystem(XMLDomainReader.extractDomain(domainFile2));
+		system.getSettings().showGUI = false;
+		Properties props = new Properties();
+		props.setProperty("planner", "mcts");
+		system.changeSettings(new Settings(props));
+		ForwardPlanner planner = system.getModule(ForwardPlanner.class);
+		assertTrue(planner instanceof MCTSPlanner);
+		system.startSystem();
+		DialogueImporter importer = system.importDialogue(dialogueFile2);
+		while (importer.isAlive()) {
+			Thread.sleep(250);
+		}
+		assertTrue(system.getModule(ForwardPlanner.class) == planner);
+		assertTrue(planner.isRunning());
+	}
+
 	@Test
 	public void testImporter4() throws InterruptedException {
 		DialogueSystem system =
@@ -25,12 +25,17 @@ package opendial.modules;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Properties;
 import java.util.logging.Logger;
 
+import opendial.DialogueState;
 import opendial.DialogueSystem;
+import opendial.Settings;
 import opendial.bn.distribs.CategoricalTable;
 import opendial.common.InferenceChecks;
+import opendial.datastructs.Assignment;
 import opendial.domains.Domain;
 import opendial.readers.XMLDomainReader;
 
@@ -135,4 +140,68 @@ public class PlanningTest {
 
 	}
 
+	@Test
+	public void testMCTSPlanning() throws InterruptedException {
+
+		DialogueSystem system = new DialogueSystem(domain3);
+		system.getSettings().showGUI = false;
+		Properties props = new Properties();
+		props.setProperty("planner", "mcts");
+		system.changeSettings(new Settings(props));
+		assertTrue(system.getModule(ForwardPlanner.class) instanceof MCTSPlanner);
+
+		system.getSettings().horizon = 3;
+		system.startSystem();
+
+		CategoricalTable.Builder t1 = new CategoricalTable.Builder("a_u");
+		t1.addRow("Ask(Coffee)", 0.95);
+		t1.addRow("Ask(Tea)", 0.02);
+		system.addContent(t1.build());
+		inference.checkProb(system.getState(), "a_m", "Do(Coffee)", 1.0);
+
+		// the search tree is reused for the observed outcome
+		MCTSPlanner planner = system.getModule(MCTSPlanner.class);
+		assertFalse(planner.currentSearch.isReused());
+		system.addContent(new Assignment("success", "true"));
+		assertTrue(planner.currentSearch.isReused());
+
+		system = new DialogueSystem(domain3);
+		system.getSettings().showGUI = false;
+		system.changeSettings(new Settings(props));
+		system.getSettings().horizon = 3;
+		system.startSystem();
+
+		CategoricalTable.Builder t2 = new CategoricalTable.Builder("a_u");
+		t2.addRow("Ask(Coffee)", 0.3);
+		t2.addRow("Ask(Tea)", 0.3);
+		system.addContent(t2.build());
+		inference.checkProb(system.getState(), "a_m", "AskRepeat", 1.0);
+	}
+
+	@Test
+	public void testSequentialPlanning() throws InterruptedException {
+
+		ForwardPlanner.PARALLEL_PLANNING = false;
+		DialogueSystem system = new DialogueSystem(domain3);
+		system.getSettings().showGUI = false;
+
+		system.getSettings().horizon = 3;
+		system.startSystem();
+
+		CategoricalTable.Builder t1 = new CategoricalTable.Builder("a_u");
+		t1.addRow("Ask(Coffee)", 0.95);
+		t1.addRow("Ask(Tea)", 0.02);
+		system.addContent(t1.build());
+		ForwardPlanner.PARALLEL_PLANNING = true;
+		inference.checkProb(system.getState(), "a_m", "Do(Coffee)", 1.0);
+		assertTrue(system.getModule(ForwardPlanner.class)
+				.getTranspositionHits() > 0);
+
+		DialogueState copy = system.getState().copy();
+		assertEquals(system.getState().getFingerprint(), copy.getFingerprint());
+		copy.addToState(new Assignment("a_u", "Ask(Tea)"));
+		assertFalse(system.getState().getFingerprint()
+				.equals(copy.getFingerprint()));
+	}
+
 }
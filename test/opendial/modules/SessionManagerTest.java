@@ -0,0 +1,211 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+package opendial.modules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import opendial.DialogueState;
+import opendial.DialogueSystem;
+import opendial.SessionManager;
+import opendial.bn.distribs.CategoricalTable;
+import opendial.common.InferenceChecks;
+import opendial.domains.Domain;
+import opendial.readers.XMLDomainReader;
+
+import org.junit.Test;
+
+public class SessionManagerTest {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	public static final String domainFile = "test//domains//planning2.xml";
+
+	static InferenceChecks inference;
+	static Domain domain;
+
+	static {
+		try {
+			domain = XMLDomainReader.extractDomain(domainFile);
+			inference = new InferenceChecks();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	public void testSessions() throws Exception {
+
+		DialogueSystem system = new DialogueSystem(domain);
+		system.getSettings().showGUI = false;
+		system.getSettings().horizon = 3;
+
+		SessionManager manager = new SessionManager(system, 2, 60000);
+		List<String> ids = new ArrayList<String>();
+		List<Future<?>> updates = new ArrayList<Future<?>>();
+		for (int i = 0; i < 4; i++) {
+			String id = manager.openSession();
+			ids.add(id);
+			CategoricalTable.Builder t1 = new CategoricalTable.Builder("a_u");
+			t1.addRow("Ask(Coffee)", (i % 2 == 0) ? 0.95 : 0.3);
+			t1.addRow("Ask(Tea)", (i % 2 == 0) ? 0.02 : 0.3);
+			updates.add(manager.addContent(id, t1.build()));
+		}
+		for (Future<?> update : updates) {
+			update.get();
+		}
+		assertEquals(4, manager.getSessionIds().size());
+		for (int i = 0; i < 4; i++) {
+			String action = (i % 2 == 0) ? "Do(Coffee)" : "AskRepeat";
+			inference.checkProb(manager.getState(ids.get(i)), "a_m", action, 1.0);
+		}
+		assertFalse(system.getState().hasChanceNode("a_m"));
+		manager.shutdown();
+	}
+
+	@Test
+	public void testConcurrentPlanning() throws Exception {
+
+		DialogueSystem system = new DialogueSystem(domain);
+		system.getSettings().showGUI = false;
+		system.getSettings().horizon = 3;
+
+		SessionManager manager = new SessionManager(system, 2, 60000);
+		CategoricalTable.Builder t1 = new CategoricalTable.Builder("a_u");
+		t1.addRow("Ask(Coffee)", 0.95);
+		t1.addRow("Ask(Tea)", 0.02);
+		CategoricalTable.Builder t2 = new CategoricalTable.Builder("a_u");
+		t2.addRow("Ask(Coffee)", 0.3);
+		t2.addRow("Ask(Tea)", 0.3);
+
+		for (int i = 0; i < 5; i++) {
+			String id1 = manager.openSession();
+			String id2 = manager.openSession();
+			ForwardPlanner planner1 = manager.getModule(id1, ForwardPlanner.class);
+			ForwardPlanner planner2 = manager.getModule(id2, ForwardPlanner.class);
+			assertTrue(planner1 != null && planner2 != null);
+			assertTrue(planner1 != planner2);
+			assertTrue(planner1 != system.getModule(ForwardPlanner.class));
+
+			// pausing the planner of one session leaves the other one unaffected
+			if (i == 0) {
+				planner1.pause(true);
+			}
+			Future<?> update1 = manager.addContent(id1, t1.build());
+			Future<?> update2 = manager.addContent(id2, t2.build());
+			update1.get();
+			update2.get();
+			if (i == 0) {
+				assertFalse(manager.getState(id1).hasChanceNode("a_m"));
+			}
+			else {
+				inference.checkProb(manager.getState(id1), "a_m", "Do(Coffee)",
+						1.0);
+			}
+			inference.checkProb(manager.getState(id2), "a_m", "AskRepeat", 1.0);
+		}
+		manager.shutdown();
+	}
+
+	@Test
+	public void testSharedModule() throws Exception {
+
+		DialogueSystem system = new DialogueSystem(domain);
+		system.getSettings().showGUI = false;
+		system.getSettings().horizon = 3;
+
+		SessionManager manager = new SessionManager(system, 4, 60000);
+		AtomicInteger active = new AtomicInteger();
+		AtomicInteger nbTriggers = new AtomicInteger();
+		AtomicBoolean overlap = new AtomicBoolean(false);
+		manager.attachModule(new Module() {
+			@Override
+			public void start() {
+			}
+
+			@Override
+			public void trigger(DialogueState state,
+					Collection<String> updatedVars) {
+				overlap.compareAndSet(false, active.incrementAndGet() > 1);
+				nbTriggers.incrementAndGet();
+				try {
+					Thread.sleep(5);
+				}
+				catch (InterruptedException e) {
+				}
+				active.decrementAndGet();
+			}
+
+			@Override
+			public void pause(boolean toPause) {
+			}
+
+			@Override
+			public boolean isRunning() {
+				return true;
+			}
+		});
+		List<Future<?>> updates = new ArrayList<Future<?>>();
+		for (int i = 0; i < 8; i++) {
+			updates.add(manager.addUserInput(manager.openSession(), "hello"));
+		}
+		for (Future<?> update : updates) {
+			update.get();
+		}
+		assertTrue(nbTriggers.get() >= 8);
+		assertFalse(overlap.get());
+		manager.shutdown();
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+
+		DialogueSystem system = new DialogueSystem(domain);
+		system.getSettings().showGUI = false;
+
+		SessionManager manager = new SessionManager(system, 2, 200);
+		String id1 = manager.openSession();
+		String id2 = manager.openSession();
+		Thread.sleep(150);
+		manager.addUserInput(id2, "hello").get();
+		Thread.sleep(150);
+		manager.removeIdleSessions();
+		assertFalse(manager.hasSession(id1));
+		assertTrue(manager.hasSession(id2));
+		Thread.sleep(500);
+		assertEquals(0, manager.getSessionIds().size());
+		manager.shutdown();
+	}
+
+}